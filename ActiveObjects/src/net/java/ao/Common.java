@@ -193,16 +193,27 @@ public final class Common {
 		
 		return type;
 	}
-    
-   public static Class<?> getCallingClass(int depth) {
-        StackTraceElement[] stack = new Exception().getStackTrace();
-        try {
-            return Class.forName(stack[depth + 2].getClassName());
-        } catch (ClassNotFoundException e) {}
-        
-        return null;
-    }
-
+	
+	/**
+	 * Returns the class of the method <code>depth</code> frames above the
+	 * caller of this method, as determined by inspecting the stack.
+	 * 
+	 * @deprecated	ActiveObjects no longer inspects the stack to prevent
+	 * 		{@link Implementation} classes from recursively dispatching to
+	 * 		themselves; executing implementation classes are tracked per thread
+	 * 		instead.  This method is retained for compatibility only.
+	 */
+	@Deprecated
+	public static Class<?> getCallingClass(int depth) {
+		StackTraceElement[] stack = new Exception().getStackTrace();
+		try {
+			return Class.forName(stack[depth + 2].getClassName());
+		} catch (ClassNotFoundException e) {
+		}
+		
+		return null;
+	}
+	
 	public static List<String> getSearchableFields(EntityManager manager, Class<? extends RawEntity<?>> type) {
 		List<String> back = new ArrayList<String>();
 		
@@ -29,13 +29,11 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -85,10 +83,13 @@ import net.java.ao.types.TypeManager;
 public abstract class DatabaseProvider {
 	private String uri, username, password;
 	
-	private Map<Thread, Connection> connections;
-	private final ReadWriteLock connectionsLock = new ReentrantReadWriteLock();
+	private final ThreadLocal<DelegateConnection> connections = new ThreadLocal<DelegateConnection>();
+	private final Map<DelegateConnection, Boolean> openConnections = new ConcurrentHashMap<DelegateConnection, Boolean>();
 	
-	private String quote;
+	private volatile int statementCacheSize = 64;
+	private final StatementCache.Statistics statementCacheStatistics = new StatementCache.Statistics();
+	
+	private volatile String quote;
 	
 	/**
 	 * <p>The base constructor for <code>DatabaseProvider</code>.
@@ -108,12 +109,18 @@ public abstract class DatabaseProvider {
 		
 		this.username = username;
 		this.password = password;
-		
-		connections = new HashMap<Thread, Connection>();
 	}
 	
-	private synchronized void loadQuoteString() {
-		if (quote == null) {
+	private void loadQuoteString() {
+		if (quote != null) {
+			return;
+		}
+		
+		synchronized (this) {
+			if (quote != null) {
+				return;
+			}
+			
 			Connection conn = null;
 			try {
 				conn = getConnectionImpl();
@@ -430,6 +437,11 @@ public abstract class DatabaseProvider {
 	 * LIMIT feature on databases which don't support it within
 	 * the SQL implementation.</p>
 	 * 
+	 * <p>The default implementation applies the hints specified on
+	 * the query (max rows, timeout and fetch size).  If no fetch size
+	 * is specified, {@link #getQueryFetchSize()} is used.  Subclasses
+	 * which override this method should call the super implementation.</p>
+	 * 
 	 * <p>This method is only called on SELECTs.</p>
 	 * 
 	 * @param stmt	The instance against which the properties 
@@ -438,14 +450,51 @@ public abstract class DatabaseProvider {
 	 * 		the statement instance. 
 	 */
 	public void setQueryStatementProperties(Statement stmt, Query query) throws SQLException {
+		int maxRows = query.getMaxRows();
+		if (maxRows >= 0) {
+			stmt.setMaxRows(maxRows);
+		}
+		
+		if (query.getTimeout() >= 0) {
+			stmt.setQueryTimeout(query.getTimeout());
+		}
+		
+		int fetchSize = query.getFetchSize();
+		if (fetchSize < 0) {
+			fetchSize = getQueryFetchSize();
+		}
+		
+		if (fetchSize >= 0) {
+			if (maxRows > 0) {
+				fetchSize = Math.min(fetchSize, maxRows);
+			}
+			
+			stmt.setFetchSize(fetchSize);
+		}
+	}
+	
+	/**
+	 * Returns the JDBC fetch size used for SELECT queries which do
+	 * not specify one (see {@link Query#fetchSize(int)}).  By default,
+	 * this returns <code>-1</code>, leaving the fetch size at the
+	 * driver default.  Drivers with a small default fetch size (such
+	 * as Oracle) should override this method.
+	 * 
+	 * @return	The fetch size to set on query statements, or <code>-1</code>.
+	 */
+	public int getQueryFetchSize() {
+		return -1;
 	}
 	
 	/**
 	 * Allows the provider to set database-specific options on a
 	 * {@link ResultSet} instance prior to its use by the library.
 	 * This allows for features such as row offsetting even on
-	 * databases that don't support it (such as Oracle, Derby,
-	 * etc).
+	 * databases that don't support it (such as Derby).  The result
+	 * set is forward-only, thus offset rows must be skipped using
+	 * <code>next()</code> rather than by scrolling.  Databases which
+	 * can page on the server should render the offset as part of the
+	 * query instead.
 	 * 
 	 * @param res	The <code>ResultSet</code> to modify.
 	 * @param query	The query instance which was run to produce
@@ -454,6 +503,64 @@ public abstract class DatabaseProvider {
 	public void setQueryResultSetProperties(ResultSet res, Query query) throws SQLException {
 	}
 	
+	/**
+	 * <p>Sets the options on a forward-only {@link Statement} which will be
+	 * used to stream the results of a SELECT query (see
+	 * {@link EntityManager#stream(Class, Query)}).  The default implementation
+	 * applies {@link #setQueryStatementProperties(Statement, Query)} and, unless
+	 * the query specifies a fetch size, sets the fetch size to
+	 * {@link #getStreamingFetchSize()}, so that the driver does not have to
+	 * buffer the entire result set in memory.</p>
+	 * 
+	 * @param stmt	The instance against which the properties 
+	 * 		should be set.
+	 * @param query	The query which is being executed against
+	 * 		the statement instance. 
+	 */
+	public void setStreamingStatementProperties(Statement stmt, Query query) throws SQLException {
+		setQueryStatementProperties(stmt, query);
+		
+		if (query.getFetchSize() < 0) {
+			stmt.setFetchSize(getStreamingFetchSize());
+		}
+	}
+	
+	/**
+	 * Allows the provider to set database-specific options on a forward-only
+	 * {@link ResultSet} which is being streamed.  This is the streaming
+	 * counterpart of {@link #setQueryResultSetProperties(ResultSet, Query)},
+	 * to which the default implementation delegates.
+	 * 
+	 * @param res	The <code>ResultSet</code> to modify.
+	 * @param query	The query instance which was run to produce
+	 * 		the result set.
+	 */
+	public void setStreamingResultSetProperties(ResultSet res, Query query) throws SQLException {
+		setQueryResultSetProperties(res, query);
+	}
+	
+	/**
+	 * Returns the JDBC fetch size used when streaming query results.  By
+	 * default, this returns <code>100</code>.  Drivers with special values
+	 * for streaming (such as MySQL) should override this method.
+	 * 
+	 * @return	The fetch size to set on streaming statements.
+	 */
+	public int getStreamingFetchSize() {
+		return 100;
+	}
+	
+	/**
+	 * Indicates whether or not the JDBC driver only honors the fetch size of
+	 * a statement when auto-commit is disabled (e.g. PostgreSQL, which
+	 * otherwise reads the entire result set into memory).  If so, auto-commit
+	 * is disabled for the duration of a streaming query unless a transaction
+	 * is already in progress.  By default, this returns <code>false</code>.
+	 */
+	public boolean isStreamingTransactionRequired() {
+		return false;
+	}
+	
 	/**
 	 * <p>Returns a result set of all of the tables (and associated
 	 * meta) in the database.  The fields of the result set must
@@ -583,14 +690,47 @@ public abstract class DatabaseProvider {
 		StringBuilder sql = new StringBuilder();
 		
 		String whereClause = query.getWhereClause();
-		if (whereClause != null) {
+		String keyset = null;
+		if (query.getAfterField() != null && query.getAfterValue() != null) {
+			keyset = renderQueryKeyset(query);
+		}
+		
+		if (whereClause != null && keyset != null) {
+			sql.append(" WHERE (");
+			sql.append(whereClause);
+			sql.append(") AND ");
+			sql.append(keyset);
+		} else if (whereClause != null) {
 			sql.append(" WHERE ");
 			sql.append(whereClause);
+		} else if (keyset != null) {
+			sql.append(" WHERE ");
+			sql.append(keyset);
 		}
 		
 		return sql.toString();
 	}
 	
+	/**
+	 * <p>Renders the keyset pagination predicate for a query which specifies
+	 * {@link Query#after(String, Object)}.  The predicate must take exactly
+	 * one parameter (the value from the last row of the previous page), which
+	 * is bound after the parameters of the WHERE clause.  The default
+	 * implementation renders a simple comparison, which any database can
+	 * satisfy with a range scan of an index on the field.</p>
+	 * 
+	 * <p>An example return value: <code>"id &gt; ?"</code></p>
+	 * 
+	 * <p>There is usually no need to call this method directly.  Under normal
+	 * operations it functions as a delegate for {@link #renderQueryWhere(Query)}.</p>
+	 * 
+	 * @param query	The Query instance from which to determine the keyset field.
+	 * @return	The database-specific SQL rendering of the keyset predicate.
+	 */
+	protected String renderQueryKeyset(Query query) {
+		return processID(query.getAfterField()) + " > ?";
+	}
+	
 	/**
 	 * <p>Renders the GROUP BY portion of the query in the database-specific SQL
 	 * dialect.  Very few databases deviate from the standard in this matter,
@@ -636,6 +776,9 @@ public abstract class DatabaseProvider {
 		if (orderClause != null) {
 			sql.append(" ORDER BY ");
 			sql.append(orderClause);
+		} else if (query.getAfterField() != null) {
+			sql.append(" ORDER BY ");
+			sql.append(processID(query.getAfterField()));
 		}
 		
 		return sql.toString();
@@ -675,6 +818,88 @@ public abstract class DatabaseProvider {
 		return sql.toString();
 	}
 	
+	/**
+	 * <p>Renders a DELETE statement for the rows of the specified entity type
+	 * which match the WHERE clause of the given query.  The WHERE clause is
+	 * rendered using {@link #renderQueryWhere(Query)}, thus the parameters
+	 * of the query may be set on the resulting statement exactly as for a
+	 * SELECT.  Queries with joins, grouping, a limit or an offset cannot be
+	 * rendered, since their semantics cannot be portably applied to a DELETE.</p>
+	 * 
+	 * <p>An example return value: <code>"DELETE FROM people WHERE age &lt; ?"</code></p>
+	 * 
+	 * @param type	The type of the entities to be deleted.
+	 * @param query	The query from which to determine the WHERE clause.
+	 * @param converter	Used to convert the entity type into a table name.
+	 * @return	The database-specific DELETE statement.
+	 * @throws IllegalArgumentException	If the query specifies joins, grouping,
+	 * 		a limit or an offset.
+	 */
+	public String renderDelete(Class<? extends RawEntity<?>> type, Query query, TableNameConverter converter) {
+		if (!query.getJoins().isEmpty() || query.getGroupClause() != null 
+				|| query.getLimit() >= 0 || query.getOffset() > 0) {
+			throw new IllegalArgumentException("DELETE queries may only specify a WHERE clause");
+		}
+		
+		StringBuilder sql = new StringBuilder("DELETE FROM ");
+		
+		sql.append(processID(converter.getName(type)));
+		sql.append(renderQueryWhere(query));
+		
+		return sql.toString();
+	}
+	
+	/**
+	 * <p>Renders an UPDATE statement which assigns the specified fields for
+	 * all rows of the given entity type matching the WHERE clause of the
+	 * query.  Every field is assigned a parameter (<code>?</code>), in the
+	 * order given, followed by the parameters of the WHERE clause.  If the
+	 * type is annotated with {@link Version}, the version field is
+	 * incremented in the same statement.  As with {@link #renderDelete(Class, Query, TableNameConverter)},
+	 * queries with joins, grouping, a limit or an offset cannot be rendered.</p>
+	 * 
+	 * <p>An example return value: <code>"UPDATE people SET status = ? WHERE age &lt; ?"</code></p>
+	 * 
+	 * @param type	The type of the entities to be updated.
+	 * @param query	The query from which to determine the WHERE clause.
+	 * @param fields	The fields to be assigned.
+	 * @param converter	Used to convert the entity type into a table name.
+	 * @return	The database-specific UPDATE statement.
+	 * @throws IllegalArgumentException	If no fields are specified, or if the
+	 * 		query specifies joins, grouping, a limit or an offset.
+	 */
+	public String renderUpdate(Class<? extends RawEntity<?>> type, Query query, String[] fields, TableNameConverter converter) {
+		if (fields.length == 0) {
+			throw new IllegalArgumentException("UPDATE must assign at least one field");
+		}
+		
+		if (!query.getJoins().isEmpty() || query.getGroupClause() != null 
+				|| query.getLimit() >= 0 || query.getOffset() > 0) {
+			throw new IllegalArgumentException("UPDATE queries may only specify a WHERE clause");
+		}
+		
+		StringBuilder sql = new StringBuilder("UPDATE ");
+		
+		sql.append(processID(converter.getName(type)));
+		sql.append(" SET ");
+		
+		for (String field : fields) {
+			sql.append(processID(field)).append(" = ?,");
+		}
+		
+		Version version = type.getAnnotation(Version.class);
+		if (version != null) {
+			String versionField = processID(version.value());
+			sql.append(versionField).append(" = ").append(versionField).append(" + ").append(version.increment());
+		} else {
+			sql.setLength(sql.length() - 1);
+		}
+		
+		sql.append(renderQueryWhere(query));
+		
+		return sql.toString();
+	}
+	
 	/**
 	 * Retrieves the JDBC URI in use by the provider to obtain connections
 	 * when necessary.  This should always return a valid URI, even in
@@ -742,26 +967,45 @@ public abstract class DatabaseProvider {
 	 * 		if the driver could not be loaded.
 	 */
 	public final Connection getConnection() throws SQLException {
-		connectionsLock.writeLock().lock();
-		try {
-			Connection conn = connections.get(Thread.currentThread());
-			if (conn != null && !conn.isClosed()) {
-				return conn;
-			}
-			
-			Connection connectionImpl = getConnectionImpl();
-			if (connectionImpl == null) {
-				throw new SQLException("Unable to create connection");
-			}
-			
-			conn = DelegateConnectionHandler.newInstance(connectionImpl);
-			setPostConnectionProperties(conn);
-			connections.put(Thread.currentThread(), conn);
-			
+		DelegateConnection conn = connections.get();
+		if (conn != null && !conn.isClosed()) {
 			return conn;
-		} finally {
-			connectionsLock.writeLock().unlock();
 		}
+		
+		conn = getDetachedConnection();
+		connections.set(conn);
+		
+		return conn;
+	}
+	
+	/**
+	 * Retrieves a new connection which is <i>not</i> bound to the current
+	 * thread, thus never returned from {@link #getConnection()}.  Used for
+	 * operations which hold a connection open while other statements may
+	 * be executed by the same thread (e.g. {@link EntityStream}).  The
+	 * connection must be closed by the caller.
+	 */
+	DelegateConnection getDetachedConnection() throws SQLException {
+		Connection connectionImpl = getConnectionImpl();
+		if (connectionImpl == null) {
+			throw new SQLException("Unable to create connection");
+		}
+		
+		DelegateConnection conn = DelegateConnectionHandler.newInstance(connectionImpl, statementCacheSize, 
+				statementCacheStatistics, openConnections);
+		setPostConnectionProperties(conn);
+		
+		return conn;
+	}
+	
+	/**
+	 * Indicates whether the connection bound to the current thread is held
+	 * open by a {@link Transaction}.
+	 */
+	boolean isTransactionInProgress() throws SQLException {
+		DelegateConnection conn = connections.get();
+		
+		return conn != null && !conn.isClosed() && !conn.isCloseable();
 	}
 	
 	/**
@@ -799,21 +1043,76 @@ public abstract class DatabaseProvider {
 	 * connections are committed and closed.
 	 */
 	public void dispose() {
-		connectionsLock.writeLock().lock();
 		try {
-			for (Connection conn : connections.values()) {
-				if (conn instanceof DelegateConnection) {
-					((DelegateConnection) conn).setCloseable(true);
-				}
-				
+			for (DelegateConnection conn : openConnections.keySet()) {
+				conn.setCloseable(true);
 				conn.close();
 			}
 		} catch (SQLException e) {
-		} finally {
-			connectionsLock.writeLock().unlock();
 		}
 	}
 	
+	/**
+	 * <p>Sets the maximum number of idle prepared statements which will be
+	 * cached for each connection returned from {@link #getConnection()}.
+	 * Statements are keyed by their SQL text (and result set options) and
+	 * evicted in least-recently-used order.  Calling <code>close()</code>
+	 * on a cached statement returns it to the cache rather than closing
+	 * the underlying JDBC statement.  The cache lives as long as the
+	 * underlying JDBC connection and is discarded when it is closed, thus
+	 * statements are reused within a {@link Transaction} or while a
+	 * connection is otherwise held open.  Reuse across connections is left
+	 * to the pool of a {@link PoolProvider}.  A size of <code>0</code>
+	 * disables statement caching.  By default, up to <code>64</code> statements
+	 * are cached per connection.</p>
+	 * 
+	 * <p>The new size only applies to connections created after the
+	 * call.</p>
+	 * 
+	 * @param size	The maximum number of cached statements per connection.
+	 */
+	public void setStatementCacheSize(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Statement cache size cannot be negative");
+		}
+		
+		statementCacheSize = size;
+	}
+	
+	/**
+	 * Returns the maximum number of idle prepared statements which will be
+	 * cached for each connection.
+	 * 
+	 * @see #setStatementCacheSize(int)
+	 */
+	public int getStatementCacheSize() {
+		return statementCacheSize;
+	}
+	
+	/**
+	 * Returns the number of statements prepared through connections from
+	 * this provider which were served from the statement cache.
+	 */
+	public long getStatementCacheHitCount() {
+		return statementCacheStatistics.getHitCount();
+	}
+	
+	/**
+	 * Returns the number of statements prepared through connections from
+	 * this provider which had to be prepared by the JDBC driver.
+	 */
+	public long getStatementCacheMissCount() {
+		return statementCacheStatistics.getMissCount();
+	}
+	
+	/**
+	 * Returns the number of idle statements which have been closed to keep
+	 * the statement caches within the configured size.
+	 */
+	public long getStatementCacheEvictionCount() {
+		return statementCacheStatistics.getEvictionCount();
+	}
+	
 	/**
 	 * Called to make any post-creation modifications to a new
 	 * {@link Connection} instance.  This is used for databases
@@ -1866,6 +2165,253 @@ public abstract class DatabaseProvider {
 		return back;
 	}
 
+	/**
+	 * <p>INSERTs multiple rows into the specified table, returning the primary
+	 * key value of each row (in the order of the rows).  Consecutive rows which
+	 * specify the same fields (in the same order) are INSERTed using a single
+	 * statement and JDBC batch execution.</p>
+	 * 
+	 * <p>If any row does not specify a value for the primary key field and the
+	 * database does not support retrieval of generated keys for batches (see
+	 * {@link #isBatchGeneratedKeysSupported()}), the default implementation
+	 * falls back to calling {@link #insertReturningKey(EntityManager, Connection, Class, String, boolean, String, DBParam...)}
+	 * for every row.  Databases which can allocate primary key values in
+	 * advance (e.g. from a sequence) should override this method to specify
+	 * the keys explicitly and then call the superclass implementation.</p>
+	 * 
+	 * <p>As with <code>insertReturningKey</code>, the specified connection
+	 * must be used and must not be closed.</p>
+	 * 
+	 * @param manager	The <code>EntityManager</code> which was used to dispatch
+	 * 		the INSERT in question.
+	 * @param conn	The connection to be used for all statements.
+	 * @param pkType	The Java type of the primary key value.
+	 * @param pkField	The database field which is the primary key for the
+	 * 		table in question.
+	 * @param pkIdentity	Flag indicating whether or not the primary key field
+	 * 		is auto-incremented by the database (IDENTITY field).
+	 * @param table	The name of the table into which the rows are to be INSERTed.
+	 * @param rows	The parameters for each row to be INSERTed.
+	 * @return	The primary key values of the INSERTed rows, in order.
+	 * @see #insertReturningKey(EntityManager, Connection, Class, String, boolean, String, DBParam...)
+	 */
+	public <T> List<T> insertBatchReturningKeys(EntityManager manager, Connection conn, Class<T> pkType, 
+			String pkField, boolean pkIdentity, String table, List<DBParam[]> rows) throws SQLException {
+		List<T> back = new ArrayList<T>(rows.size());
+		
+		boolean keysSpecified = true;
+		for (DBParam[] row : rows) {
+			if (!isKeySpecified(row, pkField)) {
+				keysSpecified = false;
+				break;
+			}
+		}
+		
+		if (!keysSpecified && !isBatchGeneratedKeysSupported()) {
+			for (DBParam[] row : rows) {
+				back.add(insertReturningKey(manager, conn, pkType, pkField, pkIdentity, table, row));
+			}
+			
+			return back;
+		}
+		
+		int start = 0;
+		while (start < rows.size()) {
+			DBParam[] first = rows.get(start);
+			
+			int end = start + 1;
+			while (end < rows.size() && end - start < getMaxBatchSize() && sameFields(first, rows.get(end))) {
+				end++;
+			}
+			
+			StringBuilder sql = new StringBuilder("INSERT INTO " + processID(table) + " (");
+			
+			for (DBParam param : first) {
+				sql.append(processID(param.getField()));
+				sql.append(',');
+			}
+			if (first.length > 0) {
+				sql.setLength(sql.length() - 1);
+			} else {
+				sql.append(processID(pkField));
+			}
+			
+			sql.append(") VALUES (");
+			
+			for (int i = 0; i < first.length; i++) {
+				sql.append("?,");
+			}
+			if (first.length > 0) {
+				sql.setLength(sql.length() - 1);
+			} else {
+				sql.append("DEFAULT");
+			}
+			
+			sql.append(")");
+			
+			back.addAll(executeBatchInsertReturningKeys(manager, conn, pkType, pkField, sql.toString(), rows.subList(start, end)));
+			start = end;
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * <p>Delegate method to execute a batch of INSERT statements, returning the
+	 * primary key value of each row.  The default implementation binds every
+	 * row to the given SQL, executes the statement as a JDBC batch and reads
+	 * any keys which were not explicitly specified from the generated keys
+	 * of the statement (in row order).</p>
+	 * 
+	 * @param manager	The <code>EntityManager</code> which was used to dispatch
+	 * 		the INSERT in question.
+	 * @param conn	The database connection to use in executing the batch.
+	 * @param pkType	The Java class type of the primary key field.
+	 * @param pkField	The database field which is the primary key for the
+	 * 		table in question.
+	 * @param sql	The INSERT statement, which is common to all rows.
+	 * @param rows	The parameters for each row, all specifying the same fields.
+	 * @return	The primary key values of the INSERTed rows, in order.
+	 * @see #insertBatchReturningKeys(EntityManager, Connection, Class, String, boolean, String, List)
+	 */
+	@SuppressWarnings("unchecked")
+	protected <T> List<T> executeBatchInsertReturningKeys(EntityManager manager, Connection conn, Class<T> pkType, 
+			String pkField, String sql, List<DBParam[]> rows) throws SQLException {
+		List<T> back = new ArrayList<T>(rows.size());
+		boolean generatedKeys = false;
+		
+		for (DBParam[] row : rows) {
+			T key = null;
+			
+			for (DBParam param : row) {
+				if (param.getField().equalsIgnoreCase(pkField)) {
+					Object value = param.getValue();
+					
+					if (value instanceof RawEntity<?>) {
+						value = Common.getPrimaryKeyValue((RawEntity<?>) value);
+					}
+					
+					key = (T) value;
+				}
+			}
+			
+			if (key == null) {
+				generatedKeys = true;
+			}
+			back.add(key);
+		}
+		
+		Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+		PreparedStatement stmt;
+		if (generatedKeys) {
+			stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+		} else {
+			stmt = conn.prepareStatement(sql);
+		}
+		
+		for (DBParam[] row : rows) {
+			for (int i = 0; i < row.length; i++) {
+				Object value = row[i].getValue();
+				
+				if (value instanceof RawEntity<?>) {
+					value = Common.getPrimaryKeyValue((RawEntity<?>) value);
+				}
+				
+				if (value == null) {
+					putNull(stmt, i + 1);
+				} else {
+					DatabaseType<Object> type = (DatabaseType<Object>) TypeManager.getInstance().getType(value.getClass());
+					type.putToDatabase(manager, stmt, i + 1, value);
+				}
+			}
+			
+			stmt.addBatch();
+		}
+		
+		stmt.executeBatch();
+		
+		if (generatedKeys) {
+			ResultSet res = stmt.getGeneratedKeys();
+			
+			for (int i = 0; i < back.size(); i++) {
+				if (back.get(i) == null) {
+					if (!res.next()) {
+						res.close();
+						stmt.close();
+						
+						throw new SQLException("Driver returned fewer generated keys than rows in batch");
+					}
+					
+					back.set(i, TypeManager.getInstance().getType(pkType).pullFromDatabase(null, res, pkType, 1));
+				}
+			}
+			res.close();
+		}
+		
+		stmt.close();
+		
+		return back;
+	}
+	
+	/**
+	 * Indicates whether or not the JDBC driver returns the generated keys
+	 * of every row from {@link Statement#getGeneratedKeys()} after a
+	 * batch execution.  If not, batch INSERTs are only used when the
+	 * primary key values are known ahead of time.  The default
+	 * implementation returns <code>false</code>.
+	 * 
+	 * @see #insertBatchReturningKeys(EntityManager, Connection, Class, String, boolean, String, List)
+	 */
+	protected boolean isBatchGeneratedKeysSupported() {
+		return false;
+	}
+	
+	/**
+	 * Returns the maximum number of rows which should be sent to the
+	 * database in a single JDBC batch.  By default, this returns
+	 * <code>1000</code>.
+	 */
+	public int getMaxBatchSize() {
+		return 1000;
+	}
+	
+	/**
+	 * Indicates whether or not the JDBC driver reports the number of rows
+	 * affected by each statement of a batch, rather than
+	 * {@link Statement#SUCCESS_NO_INFO}.  The update counts are required to
+	 * detect stale versioned entities (see {@link Version})
+	 * when their UPDATEs are batched, thus if this returns <code>false</code>
+	 * such UPDATEs are executed one at a time.  The default implementation
+	 * returns <code>true</code>.
+	 */
+	public boolean isBatchUpdateCountSupported() {
+		return true;
+	}
+	
+	private static boolean isKeySpecified(DBParam[] params, String pkField) {
+		for (DBParam param : params) {
+			if (param.getField().trim().equalsIgnoreCase(pkField) && param.getValue() != null) {
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	private static boolean sameFields(DBParam[] params1, DBParam[] params2) {
+		if (params1.length != params2.length) {
+			return false;
+		}
+		
+		for (int i = 0; i < params1.length; i++) {
+			if (!params1[i].getField().equals(params2[i].getField())) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+
 	/**
 	 * Stores an SQL <code>NULL</code> value in the database.  This method
 	 * is required due to the fact that not all JDBC drivers handle NULLs
@@ -2004,6 +2550,20 @@ public abstract class DatabaseProvider {
 		return Integer.MAX_VALUE;
 	}
 	
+	/**
+	 * Returns the maximum number of values which should be rendered into a
+	 * single <code>IN (...)</code> list (and thus bound as parameters of a
+	 * single statement).  Operations which select or modify rows by an
+	 * arbitrary number of primary keys split the keys into chunks of at most
+	 * this size.  By default, this returns <code>1000</code> (which is the
+	 * hard limit imposed by Oracle).
+	 * 
+	 * @return	The maximum number of elements in an <code>IN</code> list.
+	 */
+	public int getMaxInListSize() {
+		return 1000;
+	}
+	
 	/**
 	 * Retrieves the set of all reserved words for the underlying database.  The
 	 * set returns should be speculative, meaning that it should include any
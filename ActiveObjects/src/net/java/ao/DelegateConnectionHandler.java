@@ -16,52 +16,158 @@
 package net.java.ao;
 
 import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
+ * <p>Wraps a JDBC connection so that <code>close()</code> may be suppressed
+ * (e.g. within a transaction).  If the statement cache is enabled,
+ * <code>prepareStatement(...)</code> calls are served from a per-connection
+ * {@link StatementCache}.</p>
+ * 
+ * <p>A dynamic proxy is used rather than a concrete wrapper class because
+ * the {@link Connection} interface differs between JDBC versions.  The
+ * intercepted methods are identified by table lookup and every other call
+ * is forwarded by invoking the interface method directly on the delegate,
+ * thus there is no per-call method resolution.</p>
+ * 
  * @author Daniel Spiewak
  */
 class DelegateConnectionHandler implements InvocationHandler {
+	private static final int SET_CLOSEABLE = 1;
+	private static final int IS_CLOSEABLE = 2;
+	private static final int CLOSE = 3;
+	private static final int IS_CLOSED = 4;
+	private static final int HASH_CODE = 5;
+	private static final int EQUALS = 6;
+	private static final int PREPARE = 7;
+	private static final int PREPARE_KEYS = 8;
+	private static final int PREPARE_COLUMNS = 9;
+	private static final int PREPARE_TYPE = 10;
+	
+	private static final Map<Method, Integer> OPERATIONS = new HashMap<Method, Integer>();
+	
+	static {
+		try {
+			OPERATIONS.put(DelegateConnection.class.getMethod("setCloseable", boolean.class), SET_CLOSEABLE);
+			OPERATIONS.put(DelegateConnection.class.getMethod("isCloseable"), IS_CLOSEABLE);
+			OPERATIONS.put(Connection.class.getMethod("close"), CLOSE);
+			OPERATIONS.put(Connection.class.getMethod("isClosed"), IS_CLOSED);
+			OPERATIONS.put(Object.class.getMethod("hashCode"), HASH_CODE);
+			OPERATIONS.put(Object.class.getMethod("equals", Object.class), EQUALS);
+			
+			OPERATIONS.put(Connection.class.getMethod("prepareStatement", String.class), PREPARE);
+			OPERATIONS.put(Connection.class.getMethod("prepareStatement", String.class, int.class), PREPARE_KEYS);
+			OPERATIONS.put(Connection.class.getMethod("prepareStatement", String.class, String[].class), PREPARE_COLUMNS);
+			OPERATIONS.put(Connection.class.getMethod("prepareStatement", String.class, int.class, int.class), PREPARE_TYPE);
+		} catch (NoSuchMethodException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
 	private Connection delegate;
 	private boolean closeable;
 	private boolean closed;
 	
+	private StatementCache statements;
+	private Map<DelegateConnection, Boolean> openConnections;
+	
 	private DelegateConnectionHandler(Connection delegate) {
 		this.delegate = delegate;
 		closeable = true;
 	}
 
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		if (method.getName().equals("setCloseable")) {
-			if (method.getParameterTypes().length == 1 && method.getParameterTypes()[0].equals(boolean.class)) {
-				this.closeable = (Boolean) args[0];
-				
-				return Void.TYPE;
-			}
-		} else if (method.getName().equals("isCloseable")) {
-			return closeable;
-		} else if (method.getName().equals("close") && method.getParameterTypes().length == 0) {
-			if (closeable) {
-				delegate.close();
-				closed = true;
+		Integer operation = OPERATIONS.get(method);
+		
+		if (operation != null) {
+			switch (operation) {
+				case SET_CLOSEABLE:
+					this.closeable = (Boolean) args[0];
+					return null;
+					
+				case IS_CLOSEABLE:
+					return closeable;
+					
+				case CLOSE:
+					if (closeable) {
+						if (statements != null) {
+							statements.clear();
+						}
+						
+						delegate.close();
+						closed = true;
+						
+						if (openConnections != null) {
+							openConnections.remove(proxy);
+						}
+					}
+					return null;
+					
+				case IS_CLOSED:
+					return closed;
+					
+				case HASH_CODE:
+					return System.identityHashCode(proxy);
+					
+				case EQUALS:
+					return proxy == args[0];
 			}
 			
-			return Void.TYPE;
-		} else if (method.getName().equals("isClosed") && method.getReturnType().equals(boolean.class)) {
-			return closed;
+			if (statements != null) {
+				switch (operation) {
+					case PREPARE:
+						return statements.prepareStatement((String) args[0]);
+						
+					case PREPARE_KEYS:
+						return statements.prepareStatement((String) args[0], (Integer) args[1]);
+						
+					case PREPARE_COLUMNS:
+						return statements.prepareStatement((String) args[0], (String[]) args[1]);
+						
+					case PREPARE_TYPE:
+						return statements.prepareStatement((String) args[0], (Integer) args[1], (Integer) args[2]);
+				}
+			}
 		}
 		
-		Class<Connection> clazz = (Class<Connection>) delegate.getClass();
-		Method method2 = clazz.getMethod(method.getName(), method.getParameterTypes());
-		method2.setAccessible(true);
-		
-		return method2.invoke(delegate, args);
+		try {
+			return method.invoke(delegate, args);		// interface method, no lookup required
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
 	}
 
 	public static DelegateConnection newInstance(Connection delegate) {
-		return (DelegateConnection) Proxy.newProxyInstance(DelegateConnectionHandler.class.getClassLoader(), 
-				new Class[] {DelegateConnection.class}, new DelegateConnectionHandler(delegate));
+		return newInstance(delegate, 0, null, null);
+	}
+	
+	/**
+	 * Wraps the given connection, caching up to <code>statementCacheSize</code>
+	 * idle prepared statements.  A cache size of <code>0</code> disables
+	 * statement caching.  If <code>openConnections</code> is not
+	 * <code>null</code>, the new connection is registered in the map until
+	 * it is actually closed.
+	 */
+	public static DelegateConnection newInstance(Connection delegate, int statementCacheSize, 
+			StatementCache.Statistics statistics, Map<DelegateConnection, Boolean> openConnections) {
+		DelegateConnectionHandler handler = new DelegateConnectionHandler(delegate);
+		DelegateConnection back = (DelegateConnection) Proxy.newProxyInstance(DelegateConnectionHandler.class.getClassLoader(), 
+				new Class[] {DelegateConnection.class}, handler);
+		
+		if (statementCacheSize > 0) {
+			handler.statements = new StatementCache(back, delegate, statementCacheSize, statistics);
+		}
+		
+		if (openConnections != null) {
+			handler.openConnections = openConnections;
+			openConnections.put(back, true);
+		}
+		
+		return back;
 	}
 }
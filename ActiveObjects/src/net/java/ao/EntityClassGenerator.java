@@ -0,0 +1,567 @@
+/*
+ * Copyright 2008 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * <p>Generates concrete classes implementing entity interfaces at runtime,
+ * as an alternative to {@link java.lang.reflect.Proxy}.  Each generated
+ * class extends {@link GeneratedEntity} and implements every method of
+ * the interface (as well as <code>hashCode()</code>, <code>equals(Object)</code>
+ * and <code>toString()</code>) with a direct, index-based call into the
+ * entity's {@link EntityProxy}.  Primitive return values are unboxed inline
+ * and methods without parameters do not allocate an argument array.</p>
+ * 
+ * <p>Generation is best-effort: if the interface (or one of its return
+ * types) is not public, or if the class cannot be defined for any reason,
+ * {@link #newInstance(Class, EntityProxy)} returns <code>null</code> and the
+ * caller is expected to fall back on a dynamic proxy.</p>
+ * 
+ * <p>Generated classes are cached per type.  The caches are keyed weakly by
+ * the entity type and its class loader, while the generated classes (which
+ * reference both) are only held softly, so the generator does not prevent
+ * the entity types from being unloaded, e.g. on redeploy.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class EntityClassGenerator {
+	private static final int ACC_PUBLIC = 0x0001;
+	private static final int ACC_PROTECTED = 0x0004;
+	private static final int ACC_FINAL = 0x0010;
+	private static final int ACC_SUPER = 0x0020;
+	
+	private static final int ACONST_NULL = 0x01;
+	private static final int ICONST_0 = 0x03;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int ILOAD = 0x15;
+	private static final int LLOAD = 0x16;
+	private static final int FLOAD = 0x17;
+	private static final int DLOAD = 0x18;
+	private static final int ALOAD = 0x19;
+	private static final int ALOAD_0 = 0x2a;
+	private static final int AASTORE = 0x53;
+	private static final int POP = 0x57;
+	private static final int DUP = 0x59;
+	private static final int IRETURN = 0xac;
+	private static final int LRETURN = 0xad;
+	private static final int FRETURN = 0xae;
+	private static final int DRETURN = 0xaf;
+	private static final int ARETURN = 0xb0;
+	private static final int RETURN = 0xb1;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+	private static final int INVOKESTATIC = 0xb8;
+	private static final int NEW = 0xbb;
+	private static final int ANEWARRAY = 0xbd;
+	private static final int CHECKCAST = 0xc0;
+	
+	private static final String SUPERCLASS = internalName(GeneratedEntity.class);
+	private static final String DISPATCH_DESCRIPTOR = "(I[Ljava/lang/Object;)Ljava/lang/Object;";
+	
+	private static final Reference<GeneratedEntity> UNSUPPORTED = new SoftReference<GeneratedEntity>(null);
+	
+	private final Map<Class<?>, Reference<GeneratedEntity>> prototypes;
+	private final Map<ClassLoader, Reference<EntityClassLoader>> loaders;
+	private final Lock prototypesLock = new ReentrantLock();		// WeakHashMap expunges on reads
+	
+	public EntityClassGenerator() {
+		prototypes = new WeakHashMap<Class<?>, Reference<GeneratedEntity>>();
+		loaders = new WeakHashMap<ClassLoader, Reference<EntityClassLoader>>();
+	}
+	
+	/**
+	 * Creates a new instance of the generated class for the given entity
+	 * type, bound to the specified handler.  Returns <code>null</code> if
+	 * a class cannot be generated for the type.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends RawEntity<K>, K> T newInstance(Class<T> type, EntityProxy<T, K> handler) {
+		GeneratedEntity prototype = getPrototype(type);
+		if (prototype == null) {
+			return null;
+		}
+		
+		GeneratedEntity back = prototype.$create();
+		back.bind(handler);
+		
+		return (T) back;
+	}
+	
+	private GeneratedEntity getPrototype(Class<?> type) {
+		prototypesLock.lock();
+		try {
+			Reference<GeneratedEntity> ref = prototypes.get(type);
+			GeneratedEntity back = ref == null ? null : ref.get();
+			
+			if (back != null || ref == UNSUPPORTED) {
+				return back;
+			}
+			
+			try {
+				back = generate(type);
+			} catch (LinkageError e) {
+				Logger.getLogger("net.java.ao").log(Level.WARNING, "Unable to generate entity class for "
+						+ type.getName() + ", falling back on a dynamic proxy", e);
+			} catch (InstantiationException e) {
+				Logger.getLogger("net.java.ao").log(Level.WARNING, "Unable to generate entity class for "
+						+ type.getName() + ", falling back on a dynamic proxy", e);
+			} catch (IllegalAccessException e) {
+				Logger.getLogger("net.java.ao").log(Level.WARNING, "Unable to generate entity class for "
+						+ type.getName() + ", falling back on a dynamic proxy", e);
+			}
+			
+			prototypes.put(type, back == null ? UNSUPPORTED : new SoftReference<GeneratedEntity>(back));
+			
+			return back;
+		} finally {
+			prototypesLock.unlock();
+		}
+	}
+	
+	private GeneratedEntity generate(Class<?> type) throws InstantiationException, IllegalAccessException {
+		if (!isAccessible(type)) {
+			return null;
+		}
+		
+		Method[] methods = EntityInfo.getDispatchMethods(type);
+		
+		for (Method method : methods) {
+			if (!isAccessible(method.getReturnType()) || method.getParameterTypes().length > 255) {
+				return null;
+			}
+		}
+		
+		// covariant redeclarations would require bridge methods
+		for (Method method : type.getMethods()) {
+			boolean found = false;
+			
+			for (Method dispatch : methods) {
+				if (dispatch.getName().equals(method.getName()) 
+						&& dispatch.getReturnType().equals(method.getReturnType())
+						&& Arrays.equals(dispatch.getParameterTypes(), method.getParameterTypes())) {
+					found = true;
+					break;
+				}
+			}
+			
+			if (!found) {
+				return null;
+			}
+		}
+		
+		String className = type.getName() + "$$Generated";
+		byte[] bytes;
+		
+		try {
+			bytes = generateClass(internalName(className), type, methods);
+		} catch (IOException e) {
+			throw new RuntimeException(e);		// should never happen
+		}
+		
+		Class<?> clazz = getLoader(type.getClassLoader()).define(className, bytes);
+		if (!GeneratedEntity.class.isAssignableFrom(clazz)) {
+			return null;		// the entity's class loader has its own copy of ActiveObjects
+		}
+		
+		return (GeneratedEntity) clazz.newInstance();
+	}
+	
+	private EntityClassLoader getLoader(ClassLoader parent) {
+		Reference<EntityClassLoader> ref = loaders.get(parent);
+		EntityClassLoader back = ref == null ? null : ref.get();
+		
+		if (back == null) {
+			back = new EntityClassLoader(parent);
+			loaders.put(parent, new SoftReference<EntityClassLoader>(back));
+		}
+		
+		return back;
+	}
+	
+	private byte[] generateClass(String className, Class<?> type, Method[] methods) throws IOException {
+		ConstantPool pool = new ConstantPool();
+		
+		int thisClass = pool.classRef(className);
+		int superClass = pool.classRef(SUPERCLASS);
+		int iface = pool.classRef(internalName(type));
+		int codeName = pool.utf8("Code");
+		
+		ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+		DataOutputStream methodOut = new DataOutputStream(methodBytes);
+		
+		// public <init>()
+		Code code = new Code();
+		code.op(ALOAD_0);
+		code.op(INVOKESPECIAL).u2(pool.methodRef(SUPERCLASS, "<init>", "()V"));
+		code.op(RETURN);
+		writeMethod(methodOut, pool, ACC_PUBLIC, "<init>", "()V", codeName, code, 1, 1);
+		
+		// protected GeneratedEntity $create()
+		code = new Code();
+		code.op(NEW).u2(thisClass);
+		code.op(DUP);
+		code.op(INVOKESPECIAL).u2(pool.methodRef(className, "<init>", "()V"));
+		code.op(ARETURN);
+		writeMethod(methodOut, pool, ACC_PROTECTED, "$create", "()" + descriptor(GeneratedEntity.class), codeName, code, 2, 1);
+		
+		int dispatch = pool.methodRef(SUPERCLASS, "$dispatch", DISPATCH_DESCRIPTOR);
+		
+		for (int i = 0; i < methods.length; i++) {
+			Method method = methods[i];
+			Class<?>[] parameterTypes = method.getParameterTypes();
+			Class<?> returnType = method.getReturnType();
+			
+			code = new Code();
+			code.op(ALOAD_0);
+			code.pushInt(i);
+			
+			int slot = 1;
+			if (parameterTypes.length == 0) {
+				code.op(ACONST_NULL);
+			} else {
+				code.pushInt(parameterTypes.length);
+				code.op(ANEWARRAY).u2(pool.classRef("java/lang/Object"));
+				
+				for (int j = 0; j < parameterTypes.length; j++) {
+					Class<?> paramType = parameterTypes[j];
+					
+					code.op(DUP);
+					code.pushInt(j);
+					
+					if (paramType.isPrimitive()) {
+						code.op(loadOpcode(paramType)).u1(slot);
+						
+						Class<?> wrapper = wrapperType(paramType);
+						code.op(INVOKESTATIC).u2(pool.methodRef(internalName(wrapper), "valueOf", 
+								"(" + descriptor(paramType) + ")" + descriptor(wrapper)));
+					} else {
+						code.op(ALOAD).u1(slot);
+					}
+					
+					code.op(AASTORE);
+					slot += (paramType.equals(long.class) || paramType.equals(double.class)) ? 2 : 1;
+				}
+			}
+			
+			code.op(INVOKEVIRTUAL).u2(dispatch);
+			
+			if (returnType.equals(void.class)) {
+				code.op(POP);
+				code.op(RETURN);
+			} else if (returnType.isPrimitive()) {
+				code.op(INVOKESTATIC).u2(pool.methodRef(SUPERCLASS, "$" + returnType.getName(), 
+						"(Ljava/lang/Object;)" + descriptor(returnType)));
+				code.op(returnOpcode(returnType));
+			} else {
+				if (!returnType.equals(Object.class)) {
+					code.op(CHECKCAST).u2(pool.classRef(internalName(returnType)));
+				}
+				code.op(ARETURN);
+			}
+			
+			StringBuilder methodDescriptor = new StringBuilder("(");
+			for (Class<?> paramType : parameterTypes) {
+				methodDescriptor.append(descriptor(paramType));
+			}
+			methodDescriptor.append(')').append(descriptor(returnType));
+			
+			writeMethod(methodOut, pool, ACC_PUBLIC, method.getName(), methodDescriptor.toString(), codeName, code, 8, slot);
+		}
+		
+		ByteArrayOutputStream back = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(back);
+		
+		out.writeInt(0xCAFEBABE);
+		out.writeShort(0);
+		out.writeShort(49);		// Java 5
+		
+		pool.writeTo(out);
+		
+		out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		
+		out.writeShort(1);
+		out.writeShort(iface);
+		
+		out.writeShort(0);		// fields
+		
+		out.writeShort(methods.length + 2);
+		methodOut.flush();
+		methodBytes.writeTo(out);
+		
+		out.writeShort(0);		// attributes
+		out.flush();
+		
+		return back.toByteArray();
+	}
+	
+	private static void writeMethod(DataOutputStream out, ConstantPool pool, int access, String name, 
+			String descriptor, int codeName, Code code, int maxStack, int maxLocals) throws IOException {
+		byte[] bytecode = code.toByteArray();
+		
+		out.writeShort(access);
+		out.writeShort(pool.utf8(name));
+		out.writeShort(pool.utf8(descriptor));
+		
+		out.writeShort(1);		// attributes
+		
+		out.writeShort(codeName);
+		out.writeInt(12 + bytecode.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(bytecode.length);
+		out.write(bytecode);
+		out.writeShort(0);		// exception table
+		out.writeShort(0);		// attributes
+	}
+	
+	private static boolean isAccessible(Class<?> type) {
+		while (type.isArray()) {
+			type = type.getComponentType();
+		}
+		
+		return type.isPrimitive() || Modifier.isPublic(type.getModifiers());
+	}
+	
+	private static int loadOpcode(Class<?> type) {
+		if (type.equals(long.class)) {
+			return LLOAD;
+		} else if (type.equals(float.class)) {
+			return FLOAD;
+		} else if (type.equals(double.class)) {
+			return DLOAD;
+		}
+		
+		return ILOAD;
+	}
+	
+	private static int returnOpcode(Class<?> type) {
+		if (type.equals(long.class)) {
+			return LRETURN;
+		} else if (type.equals(float.class)) {
+			return FRETURN;
+		} else if (type.equals(double.class)) {
+			return DRETURN;
+		}
+		
+		return IRETURN;
+	}
+	
+	private static Class<?> wrapperType(Class<?> type) {
+		if (type.equals(boolean.class)) {
+			return Boolean.class;
+		} else if (type.equals(byte.class)) {
+			return Byte.class;
+		} else if (type.equals(char.class)) {
+			return Character.class;
+		} else if (type.equals(short.class)) {
+			return Short.class;
+		} else if (type.equals(int.class)) {
+			return Integer.class;
+		} else if (type.equals(long.class)) {
+			return Long.class;
+		} else if (type.equals(float.class)) {
+			return Float.class;
+		} else if (type.equals(double.class)) {
+			return Double.class;
+		}
+		
+		throw new IllegalArgumentException("Not a primitive type: " + type.getName());
+	}
+	
+	private static String descriptor(Class<?> type) {
+		if (type.isArray()) {
+			return internalName(type.getName());
+		} else if (!type.isPrimitive()) {
+			return "L" + internalName(type.getName()) + ";";
+		}
+		
+		if (type.equals(boolean.class)) {
+			return "Z";
+		} else if (type.equals(byte.class)) {
+			return "B";
+		} else if (type.equals(char.class)) {
+			return "C";
+		} else if (type.equals(short.class)) {
+			return "S";
+		} else if (type.equals(int.class)) {
+			return "I";
+		} else if (type.equals(long.class)) {
+			return "J";
+		} else if (type.equals(float.class)) {
+			return "F";
+		} else if (type.equals(double.class)) {
+			return "D";
+		}
+		
+		return "V";
+	}
+	
+	private static String internalName(Class<?> type) {
+		return internalName(type.getName());
+	}
+	
+	private static String internalName(String className) {
+		return className.replace('.', '/');
+	}
+	
+	private static class Code {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		
+		public Code op(int opcode) {
+			bytes.write(opcode);
+			return this;
+		}
+		
+		public Code u1(int value) {
+			bytes.write(value);
+			return this;
+		}
+		
+		public Code u2(int value) {
+			bytes.write(value >>> 8);
+			bytes.write(value);
+			return this;
+		}
+		
+		public Code pushInt(int value) {
+			if (value <= 5) {
+				return op(ICONST_0 + value);
+			} else if (value <= Byte.MAX_VALUE) {
+				return op(BIPUSH).u1(value);
+			} else if (value <= Short.MAX_VALUE) {
+				return op(SIPUSH).u2(value);
+			}
+			
+			throw new IllegalArgumentException("Too many entity methods");
+		}
+		
+		public byte[] toByteArray() {
+			return bytes.toByteArray();
+		}
+	}
+	
+	private static class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private int count = 1;
+		
+		public int utf8(String value) throws IOException {
+			Integer back = entries.get("U" + value);
+			if (back == null) {
+				out.writeByte(1);
+				out.writeUTF(value);
+				
+				back = add("U" + value);
+			}
+			
+			return back;
+		}
+		
+		public int classRef(String internalName) throws IOException {
+			Integer back = entries.get("C" + internalName);
+			if (back == null) {
+				int name = utf8(internalName);
+				
+				out.writeByte(7);
+				out.writeShort(name);
+				
+				back = add("C" + internalName);
+			}
+			
+			return back;
+		}
+		
+		public int methodRef(String owner, String name, String descriptor) throws IOException {
+			String key = "M" + owner + '.' + name + descriptor;
+			
+			Integer back = entries.get(key);
+			if (back == null) {
+				int ownerIndex = classRef(owner);
+				int nameIndex = utf8(name);
+				int descriptorIndex = utf8(descriptor);
+				
+				out.writeByte(12);		// NameAndType
+				out.writeShort(nameIndex);
+				out.writeShort(descriptorIndex);
+				int nameAndType = add("N" + key);
+				
+				out.writeByte(10);
+				out.writeShort(ownerIndex);
+				out.writeShort(nameAndType);
+				
+				back = add(key);
+			}
+			
+			return back;
+		}
+		
+		private int add(String key) {
+			int back = count++;
+			entries.put(key, back);
+			
+			return back;
+		}
+		
+		public void writeTo(DataOutputStream stream) throws IOException {
+			out.flush();
+			
+			stream.writeShort(count);
+			bytes.writeTo(stream);
+		}
+	}
+	
+	private static class EntityClassLoader extends ClassLoader {
+		
+		public EntityClassLoader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		public Class<?> define(String name, byte[] bytes) {
+			Class<?> back = findLoadedClass(name);		// the prototype may have been collected
+			if (back != null) {
+				return back;
+			}
+			
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+		
+		@Override
+		protected Class<?> findClass(String name) throws ClassNotFoundException {
+			// the entity's loader may not be able to see ActiveObjects
+			return GeneratedEntity.class.getClassLoader().loadClass(name);
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>The instance cache used by {@link EntityManager} to guarantee that there
+ * is at most one entity instance for any given type and primary key.  Entities
+ * are held by soft or weak reference (depending on the manager configuration)
+ * and entries for collected entities are purged lazily using a reference
+ * queue.</p>
+ * 
+ * <p>Lookups do not block.  Creation of new instances must be guarded by the
+ * lock returned from {@link #getLock(CacheKey)}, which is striped by key so
+ * that unrelated keys may be instantiated concurrently.  Under the lock, the
+ * caller must check the map again before creating the instance.</p>
+ * 
+ * <p>Entries are grouped by entity type, so that the entities of a single
+ * type may be retrieved without walking the entire map.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class EntityIdentityMap {
+	private static final int STRIPES = 64;		// must be a power of two
+	
+	private final boolean weak;
+	
+	private final ConcurrentMap<Class<?>, ConcurrentMap<CacheKey<?>, Reference<RawEntity<?>>>> entities;
+	private final ReferenceQueue<RawEntity<?>> queue;
+	
+	private final Lock[] locks;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	/**
+	 * @param weak	If <code>true</code>, entities will be weakly referenced,
+	 * 		otherwise soft references will be used.
+	 */
+	public EntityIdentityMap(boolean weak) {
+		this.weak = weak;
+		
+		entities = new ConcurrentHashMap<Class<?>, ConcurrentMap<CacheKey<?>, Reference<RawEntity<?>>>>();
+		queue = new ReferenceQueue<RawEntity<?>>();
+		
+		locks = new Lock[STRIPES];
+		for (int i = 0; i < locks.length; i++) {
+			locks[i] = new ReentrantLock();
+		}
+	}
+	
+	/**
+	 * Retrieves the cached entity corresponding to the given key, or
+	 * <code>null</code> if there is no such entity in memory.  Successful
+	 * lookups are counted as hits.
+	 */
+	public RawEntity<?> get(CacheKey<?> key) {
+		expunge();
+		
+		Map<CacheKey<?>, Reference<RawEntity<?>>> typeEntities = entities.get(key.getType());
+		Reference<RawEntity<?>> ref = (typeEntities == null ? null : typeEntities.get(key));
+		RawEntity<?> back = (ref == null ? null : ref.get());
+		
+		if (back != null) {
+			hits.incrementAndGet();
+		}
+		
+		return back;
+	}
+	
+	public void put(CacheKey<?> key, RawEntity<?> entity) {
+		expunge();
+		
+		ConcurrentMap<CacheKey<?>, Reference<RawEntity<?>>> typeEntities = entities.get(key.getType());
+		if (typeEntities == null) {
+			typeEntities = new ConcurrentHashMap<CacheKey<?>, Reference<RawEntity<?>>>();
+			
+			ConcurrentMap<CacheKey<?>, Reference<RawEntity<?>>> existing = entities.putIfAbsent(key.getType(), typeEntities);
+			if (existing != null) {
+				typeEntities = existing;
+			}
+		}
+		
+		if (weak) {
+			typeEntities.put(key, new WeakEntityReference(key, entity, queue));
+		} else {
+			typeEntities.put(key, new SoftEntityReference(key, entity, queue));
+		}
+	}
+	
+	/**
+	 * Removes the entry for the given key, returning the entity which was
+	 * cached or <code>null</code> if there was none in memory.
+	 */
+	public RawEntity<?> remove(CacheKey<?> key) {
+		Map<CacheKey<?>, Reference<RawEntity<?>>> typeEntities = entities.get(key.getType());
+		Reference<RawEntity<?>> ref = (typeEntities == null ? null : typeEntities.remove(key));
+		
+		return ref == null ? null : ref.get();
+	}
+	
+	/**
+	 * Records a lookup which was not satisfied by an existing instance.
+	 */
+	public void miss() {
+		misses.incrementAndGet();
+	}
+	
+	/**
+	 * Returns a snapshot of all entities currently in memory.
+	 */
+	public List<RawEntity<?>> getAll() {
+		expunge();
+		
+		List<RawEntity<?>> back = new ArrayList<RawEntity<?>>();
+		
+		for (Map<CacheKey<?>, Reference<RawEntity<?>>> typeEntities : entities.values()) {
+			addEntities(back, typeEntities);
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns a snapshot of the entities of the given type currently in memory.
+	 */
+	public List<RawEntity<?>> getAll(Class<?> type) {
+		expunge();
+		
+		List<RawEntity<?>> back = new ArrayList<RawEntity<?>>();
+		
+		Map<CacheKey<?>, Reference<RawEntity<?>>> typeEntities = entities.get(type);
+		if (typeEntities != null) {
+			addEntities(back, typeEntities);
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns a snapshot of the keys of the given type currently in the map.
+	 */
+	public List<CacheKey<?>> getKeys(Class<?> type) {
+		expunge();
+		
+		Map<CacheKey<?>, Reference<RawEntity<?>>> typeEntities = entities.get(type);
+		if (typeEntities == null) {
+			return new ArrayList<CacheKey<?>>();
+		}
+		
+		return new ArrayList<CacheKey<?>>(typeEntities.keySet());
+	}
+	
+	/**
+	 * Returns the lock which must be held while creating the entity for
+	 * the given key.
+	 */
+	public Lock getLock(CacheKey<?> key) {
+		return locks[stripe(key)];
+	}
+	
+	/**
+	 * Acquires the locks for all of the given keys, in a consistent order.
+	 */
+	public void lock(Collection<? extends CacheKey<?>> keys) {
+		boolean[] stripes = getStripes(keys);
+		
+		for (int i = 0; i < stripes.length; i++) {
+			if (stripes[i]) {
+				locks[i].lock();
+			}
+		}
+	}
+	
+	public void unlock(Collection<? extends CacheKey<?>> keys) {
+		boolean[] stripes = getStripes(keys);
+		
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			if (stripes[i]) {
+				locks[i].unlock();
+			}
+		}
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of entities which have been garbage collected
+	 * (and thus removed from the map).
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	private void addEntities(List<RawEntity<?>> back, Map<CacheKey<?>, Reference<RawEntity<?>>> typeEntities) {
+		for (Reference<RawEntity<?>> ref : typeEntities.values()) {
+			RawEntity<?> entity = ref.get();
+			
+			if (entity != null) {
+				back.add(entity);
+			}
+		}
+	}
+	
+	private boolean[] getStripes(Collection<? extends CacheKey<?>> keys) {
+		boolean[] back = new boolean[STRIPES];
+		
+		for (CacheKey<?> key : keys) {
+			back[stripe(key)] = true;
+		}
+		
+		return back;
+	}
+	
+	private int stripe(CacheKey<?> key) {
+		int hash = key.hashCode();
+		hash ^= (hash >>> 20) ^ (hash >>> 12);
+		hash ^= (hash >>> 7) ^ (hash >>> 4);
+		
+		return hash & (STRIPES - 1);
+	}
+	
+	private void expunge() {
+		Reference<? extends RawEntity<?>> ref;
+		
+		while ((ref = queue.poll()) != null) {
+			CacheKey<?> key = ((EntityReference) ref).getKey();
+			ConcurrentMap<CacheKey<?>, Reference<RawEntity<?>>> typeEntities = entities.get(key.getType());
+			
+			if (typeEntities != null && typeEntities.remove(key, ref)) {
+				evictions.incrementAndGet();
+			}
+		}
+	}
+	
+	private static interface EntityReference {
+		public CacheKey<?> getKey();
+	}
+	
+	private static class SoftEntityReference extends SoftReference<RawEntity<?>> implements EntityReference {
+		private final CacheKey<?> key;
+		
+		public SoftEntityReference(CacheKey<?> key, RawEntity<?> entity, ReferenceQueue<RawEntity<?>> queue) {
+			super(entity, queue);
+			
+			this.key = key;
+		}
+		
+		public CacheKey<?> getKey() {
+			return key;
+		}
+	}
+	
+	private static class WeakEntityReference extends WeakReference<RawEntity<?>> implements EntityReference {
+		private final CacheKey<?> key;
+		
+		public WeakEntityReference(CacheKey<?> key, RawEntity<?> entity, ReferenceQueue<RawEntity<?>> queue) {
+			super(entity, queue);
+			
+			this.key = key;
+		}
+		
+		public CacheKey<?> getKey() {
+			return key;
+		}
+	}
+	
+	/**
+	 * Identifies an entity instance by type and primary key.
+	 */
+	static class CacheKey<T> {
+		private final T key;
+		private final Class<? extends RawEntity<?>> type;
+		
+		public CacheKey(T key, Class<? extends RawEntity<T>> type) {
+			this.key = key;
+			this.type = type;
+		}
+		
+		public Class<? extends RawEntity<?>> getType() {
+			return type;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * type.hashCode() + key.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
+			}
+			
+			if (obj instanceof CacheKey<?>) {
+				CacheKey<?> keyObj = (CacheKey<?>) obj;
+				
+				if (key.equals(keyObj.key) && type.equals(keyObj.type)) {
+					return true;
+				}
+			}
+			
+			return false;
+		}
+	}
+}
@@ -0,0 +1,794 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.beans.PropertyChangeListener;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.java.ao.schema.FieldNameConverter;
+import net.java.ao.schema.NotNull;
+import net.java.ao.schema.OnUpdate;
+import net.java.ao.types.DatabaseType;
+import net.java.ao.types.TypeManager;
+
+/**
+ * <p>Pre-resolved metadata for a single entity interface.  Instances are
+ * built once per type by {@link EntityManager} (on the first <code>get</code>
+ * or <code>peer</code> of that type) and shared by every {@link EntityProxy}
+ * of the type.</p>
+ * 
+ * <p>The bulk of the metadata is a dispatch table mapping each interface
+ * {@link Method} to a {@link MethodHandler} with all of the annotation
+ * parsing, name conversion and constraint resolution already done.  Thus,
+ * a call through the proxy is reduced to a single map lookup and a virtual
+ * call.  Methods which cannot be resolved eagerly (e.g. those with signatures
+ * only meaningful to an {@link Implementation} class) are resolved again on
+ * invocation, which preserves the exception semantics of the original
+ * dispatch algorithm.</p>
+ * 
+ * <p>Instances become stale when the name converters of the owning manager
+ * are changed.  Proxies are expected to check {@link #isStale()} and fetch a
+ * fresh instance from the manager when necessary.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class EntityInfo<T extends RawEntity<K>, K> {
+	private final EntityManager manager;
+	private final Class<T> type;
+	
+	private final String tableName;
+	private final Method pkAccessor;
+	private final String pkFieldName;
+	
+	private final String versionField;
+	private final int versionIncrement;
+	
+	private final Map<Method, MethodHandler<T, K>> handlers;
+	
+	private final Method[] dispatchMethods;
+	private final MethodHandler<T, K>[] indexedHandlers;
+	
+	private final Constructor<?>[] implementationConstructors;
+	private final Map<Method, Method[]> implementationMethods;
+	
+	private final LoadStrategy loadStrategy;
+	private final RowField[] rowFields;
+	private final Set<String> rowFieldNames;
+	
+	private final Map<SQLKey, Object> renderedSQL;
+	
+	private volatile boolean stale = false;
+	
+	@SuppressWarnings("unchecked")
+	EntityInfo(EntityManager manager, Class<T> type) {
+		this.manager = manager;
+		this.type = type;
+		
+		FieldNameConverter fieldNameConverter = manager.getFieldNameConverter();
+		
+		tableName = manager.getTableNameConverter().getName(type);
+		pkAccessor = Common.getPrimaryKeyAccessor(type);
+		pkFieldName = Common.getPrimaryKeyField(type, fieldNameConverter);
+		
+		Version version = type.getAnnotation(Version.class);
+		if (version != null) {
+			versionField = version.value();
+			versionIncrement = version.increment();
+		} else {
+			versionField = null;
+			versionIncrement = 0;
+		}
+		
+		handlers = new ConcurrentHashMap<Method, MethodHandler<T, K>>();
+		
+		for (Method method : type.getMethods()) {
+			try {
+				handlers.put(method, resolve(method, fieldNameConverter));
+			} catch (RuntimeException e) {
+				// unresolvable methods are retried (and fail) at invocation time
+			}
+		}
+		
+		dispatchMethods = getDispatchMethods(type);
+		indexedHandlers = new MethodHandler[dispatchMethods.length];
+		
+		for (int i = 0; i < dispatchMethods.length; i++) {
+			indexedHandlers[i] = handlers.get(dispatchMethods[i]);
+		}
+		
+		List<Constructor<?>> constructors = new ArrayList<Constructor<?>>();
+		findImplementations(type, constructors);
+		
+		implementationConstructors = constructors.toArray(new Constructor<?>[constructors.size()]);
+		implementationMethods = new ConcurrentHashMap<Method, Method[]>();
+		
+		Loading loading = type.getAnnotation(Loading.class);
+		loadStrategy = (loading == null ? null : loading.value());
+		
+		rowFields = getRowFields(handlers.values(), loading);
+		rowFieldNames = new HashSet<String>();
+		for (RowField field : rowFields) {
+			rowFieldNames.add(field.getName());
+		}
+		
+		renderedSQL = new ConcurrentHashMap<SQLKey, Object>();
+	}
+	
+	public Class<T> getType() {
+		return type;
+	}
+	
+	public String getTableName() {
+		return tableName;
+	}
+	
+	public Method getPrimaryKeyAccessor() {
+		return pkAccessor;
+	}
+	
+	public String getPrimaryKeyField() {
+		return pkFieldName;
+	}
+	
+	public String getVersionField() {
+		return versionField;
+	}
+	
+	public int getVersionIncrement() {
+		return versionIncrement;
+	}
+	
+	public MethodHandler<T, K> getHandler(Method method) {
+		MethodHandler<T, K> back = handlers.get(method);
+		
+		if (back == null) {
+			back = resolve(method, manager.getFieldNameConverter());
+			handlers.put(method, back);
+		}
+		
+		return back;
+	}
+	
+	public Method getDispatchMethod(int index) {
+		return dispatchMethods[index];
+	}
+	
+	/**
+	 * Retrieves the handler for the method at the given index of the
+	 * table returned by {@link #getDispatchMethods(Class)}.  This is the
+	 * lookup used by generated entity classes, which know their method
+	 * indexes statically.
+	 */
+	public MethodHandler<T, K> getHandler(int index) {
+		MethodHandler<T, K> back = indexedHandlers[index];
+		
+		if (back == null) {
+			back = getHandler(dispatchMethods[index]);
+			indexedHandlers[index] = back;
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns the constructors of all {@link Implementation} classes for
+	 * this type (including those inherited from super-interfaces), in the
+	 * order in which they take precedence.
+	 */
+	public Constructor<?>[] getImplementationConstructors() {
+		return implementationConstructors;
+	}
+	
+	/**
+	 * Returns the implementations of the given entity method, one element
+	 * per constructor returned by {@link #getImplementationConstructors()}
+	 * (<code>null</code> where the corresponding class does not define the
+	 * method).  If no implementation class defines the method, an empty
+	 * array is returned.
+	 */
+	public Method[] getImplementationMethods(Method method) {
+		Method[] back = implementationMethods.get(method);
+		
+		if (back == null) {
+			back = new Method[implementationConstructors.length];
+			boolean found = false;
+			
+			for (int i = 0; i < back.length; i++) {
+				try {
+					back[i] = implementationConstructors[i].getDeclaringClass().getMethod(method.getName(), method.getParameterTypes());
+					found = true;
+				} catch (NoSuchMethodException e) {
+				}
+			}
+			
+			if (!found) {
+				back = new Method[0];
+			}
+			
+			implementationMethods.put(method, back);
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns the load strategy specified by a {@link Loading} annotation on
+	 * the type, or <code>null</code> if the strategy of the manager applies.
+	 */
+	public LoadStrategy getLoadStrategy() {
+		return loadStrategy;
+	}
+	
+	/**
+	 * Returns the fields which are loaded together by {@link LoadStrategy#ROW}:
+	 * the cacheable accessor fields of the type, restricted to those named in
+	 * {@link Loading#fields()} (if any).
+	 */
+	public RowField[] getRowFields() {
+		return rowFields;
+	}
+	
+	public boolean isRowField(String field) {
+		return rowFieldNames.contains(field);
+	}
+	
+	/**
+	 * Retrieves a previously rendered SQL statement (or other rendering
+	 * result) for the given operation on this type.  The signature identifies
+	 * the variant of the operation, e.g. the field names involved, and may
+	 * contain arrays (which are compared by content).  Since the rendering
+	 * depends on the name converters, the cache goes away along with the
+	 * rest of the instance when it becomes stale.
+	 * 
+	 * @return	The cached value, or <code>null</code> if none has been stored.
+	 */
+	@SuppressWarnings("unchecked")
+	public <V> V getSQL(String operation, Object... signature) {
+		return (V) renderedSQL.get(new SQLKey(operation, signature));
+	}
+	
+	/**
+	 * Caches the rendering of an SQL statement for subsequent retrieval via
+	 * {@link #getSQL(String, Object...)}.  The signature arrays must not be
+	 * modified after the call.
+	 * 
+	 * @return	The value which was passed.
+	 */
+	public <V> V putSQL(V sql, String operation, Object... signature) {
+		renderedSQL.put(new SQLKey(operation, signature), sql);
+		
+		return sql;
+	}
+	
+	public boolean isStale() {
+		return stale;
+	}
+	
+	void markStale() {
+		stale = true;
+	}
+	
+	/**
+	 * Returns every method which an implementation of the given entity
+	 * interface must dispatch: all of the public interface methods
+	 * (one per distinct signature) followed by <code>hashCode()</code>,
+	 * <code>equals(Object)</code> and <code>toString()</code>.  The
+	 * ordering is deterministic for a given type, thus indexes into
+	 * this table are stable across instances of <code>EntityInfo</code>.
+	 */
+	static Method[] getDispatchMethods(Class<?> type) {
+		Method[] methods = type.getMethods();
+		Arrays.sort(methods, new Comparator<Method>() {
+			public int compare(Method m1, Method m2) {
+				int back = m1.getName().compareTo(m2.getName());
+				if (back == 0) {
+					back = Arrays.toString(m1.getParameterTypes()).compareTo(Arrays.toString(m2.getParameterTypes()));
+				}
+				if (back == 0) {
+					back = m1.getDeclaringClass().getName().compareTo(m2.getDeclaringClass().getName());
+				}
+				
+				return back;
+			}
+		});
+		
+		List<Method> back = new ArrayList<Method>();
+		Set<String> signatures = new HashSet<String>();
+		
+		for (Method method : methods) {
+			if (signatures.add(method.getName() + Arrays.toString(method.getParameterTypes()))) {
+				back.add(method);
+			}
+		}
+		
+		try {
+			Method[] objectMethods = {
+				Object.class.getMethod("hashCode"),
+				Object.class.getMethod("equals", Object.class),
+				Object.class.getMethod("toString")
+			};
+			
+			for (Method method : objectMethods) {
+				if (signatures.add(method.getName() + Arrays.toString(method.getParameterTypes()))) {
+					back.add(method);
+				}
+			}
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException(e);
+		}
+		
+		return back.toArray(new Method[back.size()]);
+	}
+	
+	private static RowField[] getRowFields(Collection<? extends MethodHandler<?, ?>> handlers, Loading loading) {
+		Set<String> group = null;
+		if (loading != null && loading.fields().length > 0) {
+			group = new HashSet<String>();
+			for (String field : loading.fields()) {
+				group.add(field.trim());
+			}
+		}
+		
+		Map<String, RowField> back = new LinkedHashMap<String, RowField>();
+		
+		for (MethodHandler<?, ?> handler : handlers) {
+			if (!(handler instanceof AccessorHandler<?, ?>)) {
+				continue;
+			}
+			
+			AccessorHandler<?, ?> accessor = (AccessorHandler<?, ?>) handler;
+			if (!accessor.shouldCache || (group != null && !group.contains(accessor.fieldName))) {
+				continue;
+			}
+			
+			try {
+				DatabaseType<?> dbType = TypeManager.getInstance().getType(accessor.returnType);
+				if (!dbType.shouldCache(accessor.returnType)) {
+					continue;
+				}
+			} catch (RuntimeException e) {
+				continue;		// unrecognized types fail when (and if) they are accessed
+			}
+			
+			back.put(accessor.fieldName, new RowField(accessor.fieldName, accessor.polyFieldName, accessor.returnType));
+		}
+		
+		return back.values().toArray(new RowField[back.size()]);
+	}
+	
+	private static void findImplementations(Class<?> type, List<Constructor<?>> constructors) {
+		Implementation implAnnotation = type.getAnnotation(Implementation.class);
+		
+		if (implAnnotation != null) {
+			try {
+				constructors.add(implAnnotation.value().getConstructor(type));
+			} catch (NoSuchMethodException e) {
+			}
+		}
+		
+		for (Class<?> sup : type.getInterfaces()) {
+			findImplementations(sup, constructors);
+		}
+	}
+	
+	/**
+	 * Determines the handler for the given method.  The order of the checks
+	 * in this method is significant and must match the precedence rules of
+	 * the entity method semantics: built-in methods first (by name), then
+	 * explicit annotations, then naming conventions.
+	 */
+	@SuppressWarnings("unchecked")
+	private MethodHandler<T, K> resolve(Method method, FieldNameConverter converter) {
+		String name = method.getName();
+		
+		if (name.equals("getEntityType")) {
+			return new EntityTypeHandler<T, K>();
+		} else if (name.equals(pkAccessor.getName())) {
+			return new PrimaryKeyHandler<T, K>();
+		} else if (name.equals("save")) {
+			return new SaveHandler<T, K>();
+		} else if (name.equals("getEntityManager")) {
+			return new EntityManagerHandler<T, K>();
+		} else if (name.equals("addPropertyChangeListener")) {
+			return new AddListenerHandler<T, K>();
+		} else if (name.equals("removePropertyChangeListener")) {
+			return new RemoveListenerHandler<T, K>();
+		} else if (name.equals("hashCode")) {
+			return new HashCodeHandler<T, K>();
+		} else if (name.equals("equals")) {
+			return new EqualsHandler<T, K>();
+		} else if (name.equals("toString")) {
+			return new ToStringHandler<T, K>();
+		} else if (name.equals("init")) {
+			return new NullHandler<T, K>();
+		}
+		
+		AnnotationDelegate annotations = Common.getAnnotationDelegate(converter, method);
+		
+		String notNullField = null;
+		if (annotations.getAnnotation(NotNull.class) != null) {
+			notNullField = converter.getName(method);
+		}
+		
+		Class<?> attributeType = Common.getAttributeTypeFromMethod(method);
+		String polyFieldName = null;
+		
+		if (attributeType != null) {
+			polyFieldName = (attributeType.getAnnotation(Polymorphic.class) == null ? null :
+				converter.getPolyTypeName(method));
+		}
+		
+		Mutator mutatorAnnotation = method.getAnnotation(Mutator.class);
+		Accessor accessorAnnotation = method.getAnnotation(Accessor.class);
+		OneToOne oneToOneAnnotation = method.getAnnotation(OneToOne.class);
+		OneToMany oneToManyAnnotation = method.getAnnotation(OneToMany.class);
+		ManyToMany manyToManyAnnotation = method.getAnnotation(ManyToMany.class);
+		
+		OnUpdate onUpdateAnnotation = annotations.getAnnotation(OnUpdate.class);
+		Transient transientAnnotation = annotations.getAnnotation(Transient.class);
+		
+		// check annotations first, they trump all
+		if (mutatorAnnotation != null) {
+			return new MutatorHandler<T, K>(mutatorAnnotation.value(), polyFieldName, notNullField);
+		} else if (accessorAnnotation != null) {
+			return new AccessorHandler<T, K>(accessorAnnotation.value(), polyFieldName, method.getReturnType(),
+					onUpdateAnnotation == null && transientAnnotation == null);
+		} else if (oneToOneAnnotation != null && Common.interfaceInheritsFrom(method.getReturnType(), RawEntity.class)) {
+			Class<? extends RawEntity<?>> remoteType = (Class<? extends RawEntity<?>>) method.getReturnType();
+			
+			return new OneToOneHandler<T, K>(Common.getMappingFields(converter, remoteType, type),
+					new String[] { Common.getPrimaryKeyField(remoteType, converter) },
+					(Class<? extends RawEntity>) remoteType, oneToOneAnnotation.where(),
+					Common.getPolymorphicFieldNames(converter, remoteType, type));
+		} else if (oneToManyAnnotation != null && method.getReturnType().isArray()
+				&& Common.interfaceInheritsFrom(method.getReturnType().getComponentType(), RawEntity.class)) {
+			Class<? extends RawEntity<?>> remoteType = (Class<? extends RawEntity<?>>) method.getReturnType().getComponentType();
+			
+			return new OneToManyHandler<T, K>(Common.getMappingFields(converter, remoteType, type),
+					new String[] { Common.getPrimaryKeyField(remoteType, converter) },
+					(Class<? extends RawEntity>) remoteType, oneToManyAnnotation.where(),
+					Common.getPolymorphicFieldNames(converter, remoteType, type));
+		} else if (manyToManyAnnotation != null && method.getReturnType().isArray()
+				&& Common.interfaceInheritsFrom(method.getReturnType().getComponentType(), RawEntity.class)) {
+			Class<? extends RawEntity<?>> throughType = manyToManyAnnotation.value();
+			Class<? extends RawEntity<?>> remoteType = (Class<? extends RawEntity<?>>) method.getReturnType().getComponentType();
+			
+			return new ManyToManyHandler<T, K>(Common.getMappingFields(converter, throughType, type),
+					Common.getMappingFields(converter, throughType, remoteType), throughType,
+					(Class<? extends RawEntity>) remoteType, manyToManyAnnotation.where(),
+					Common.getPolymorphicFieldNames(converter, throughType, type),
+					Common.getPolymorphicFieldNames(converter, throughType, remoteType));
+		} else if (Common.isAccessor(method)) {
+			return new AccessorHandler<T, K>(converter.getName(method), polyFieldName, method.getReturnType(),
+					onUpdateAnnotation == null && transientAnnotation == null);
+		} else if (Common.isMutator(method)) {
+			return new MutatorHandler<T, K>(converter.getName(method), polyFieldName, notNullField);
+		}
+		
+		return new UnsupportedHandler<T, K>(method, notNullField);
+	}
+	
+	/**
+	 * A field which is loaded along with the rest of the row by
+	 * {@link LoadStrategy#ROW}.
+	 */
+	static class RowField {
+		private final String name;
+		private final String polyName;
+		private final Class<?> type;
+		
+		public RowField(String name, String polyName, Class<?> type) {
+			this.name = name;
+			this.polyName = polyName;
+			this.type = type;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public String getPolyName() {
+			return polyName;
+		}
+		
+		public Class<?> getType() {
+			return type;
+		}
+	}
+	
+	private static class SQLKey {
+		private final String operation;
+		private final Object[] signature;
+		private final int hashCode;
+		
+		public SQLKey(String operation, Object[] signature) {
+			this.operation = operation;
+			this.signature = signature;
+			
+			hashCode = 31 * operation.hashCode() + Arrays.deepHashCode(signature);
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof SQLKey) {
+				SQLKey key = (SQLKey) obj;
+				
+				return key.hashCode == hashCode && key.operation.equals(operation) 
+						&& Arrays.deepEquals(key.signature, signature);
+			}
+			
+			return false;
+		}
+	}
+	
+	/**
+	 * A pre-resolved strategy for handling invocations of a single entity
+	 * method.  Handlers are stateless with respect to any particular entity
+	 * and are thus shared between all proxies of a given type.
+	 */
+	static abstract class MethodHandler<T extends RawEntity<K>, K> {
+		
+		public abstract Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable;
+		
+		/**
+		 * Whether or not calls to this method may be overridden by an
+		 * {@link Implementation} class.
+		 */
+		public boolean isImplementable() {
+			return true;
+		}
+	}
+	
+	private static void checkNotNull(String notNullField, Object[] args) {
+		if (notNullField != null && args != null && args.length > 0 && args[0] == null) {
+			throw new IllegalArgumentException("Field '" + notNullField + "' does not accept null values");
+		}
+	}
+	
+	private static class EntityTypeHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return proxy.getType();
+		}
+		
+		@Override
+		public boolean isImplementable() {
+			return false;
+		}
+	}
+	
+	private static class PrimaryKeyHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return proxy.getKey();
+		}
+	}
+	
+	private static class SaveHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable {
+			proxy.save(entity);
+			
+			return Void.TYPE;
+		}
+	}
+	
+	private static class EntityManagerHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return proxy.getManager();
+		}
+	}
+	
+	private static class AddListenerHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			proxy.addPropertyChangeListener((PropertyChangeListener) args[0]);
+			
+			return null;
+		}
+	}
+	
+	private static class RemoveListenerHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			proxy.removePropertyChangeListener((PropertyChangeListener) args[0]);
+			
+			return null;
+		}
+	}
+	
+	private static class HashCodeHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return proxy.hashCodeImpl();
+		}
+	}
+	
+	private static class EqualsHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return proxy.equalsImpl(entity, args[0]);
+		}
+	}
+	
+	private static class ToStringHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return proxy.toStringImpl();
+		}
+	}
+	
+	private static class NullHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			return null;
+		}
+	}
+	
+	private static class AccessorHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		private final String fieldName;
+		private final String polyFieldName;
+		private final Class<?> returnType;
+		private final boolean shouldCache;
+		
+		public AccessorHandler(String fieldName, String polyFieldName, Class<?> returnType, boolean shouldCache) {
+			this.fieldName = fieldName;
+			this.polyFieldName = polyFieldName;
+			this.returnType = returnType;
+			this.shouldCache = shouldCache;
+		}
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable {
+			return proxy.invokeGetter(entity, proxy.getKey(), fieldName, polyFieldName, returnType, shouldCache);
+		}
+	}
+	
+	private static class MutatorHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		private final String fieldName;
+		private final String polyFieldName;
+		private final String notNullField;
+		
+		public MutatorHandler(String fieldName, String polyFieldName, String notNullField) {
+			this.fieldName = fieldName;
+			this.polyFieldName = polyFieldName;
+			this.notNullField = notNullField;
+		}
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable {
+			checkNotNull(notNullField, args);
+			proxy.invokeSetter(entity, fieldName, args[0], polyFieldName);
+			
+			return Void.TYPE;
+		}
+	}
+	
+	/**
+	 * A handler for a relationship method (<code>@OneToOne</code>, <code>@OneToMany</code>
+	 * or <code>@ManyToMany</code>), exposing the mapping of the relationship so that
+	 * it may be loaded for many entities at once (see {@link EntityProxy#prefetchRelations(List, RelationHandler)}).
+	 */
+	@SuppressWarnings("unchecked")
+	static abstract class RelationHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		final String[] inMapFields, outMapFields;
+		final Class<? extends RawEntity<?>> throughType;
+		final Class<? extends RawEntity> remoteType;
+		final String where;
+		final String[] thisPolyNames, thatPolyNames;
+		
+		public RelationHandler(String[] inMapFields, String[] outMapFields, Class<? extends RawEntity<?>> throughType,
+				Class<? extends RawEntity> remoteType, String where, String[] thisPolyNames, String[] thatPolyNames) {
+			this.inMapFields = inMapFields;
+			this.outMapFields = outMapFields;
+			this.throughType = throughType;
+			this.remoteType = remoteType;
+			this.where = where;
+			this.thisPolyNames = thisPolyNames;
+			this.thatPolyNames = thatPolyNames;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static class OneToOneHandler<T extends RawEntity<K>, K> extends RelationHandler<T, K> {
+		
+		public OneToOneHandler(String[] inMapFields, String[] outMapFields, Class<? extends RawEntity> remoteType,
+				String where, String[] thisPolyNames) {
+			super(inMapFields, outMapFields, (Class<? extends RawEntity<?>>) remoteType, remoteType, where, thisPolyNames, null);
+		}
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable {
+			Object[] back = proxy.retrieveRelations(entity, inMapFields, outMapFields, remoteType,
+					where, thisPolyNames);
+			
+			return back.length == 0 ? null : back[0];
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static class OneToManyHandler<T extends RawEntity<K>, K> extends RelationHandler<T, K> {
+		
+		public OneToManyHandler(String[] inMapFields, String[] outMapFields, Class<? extends RawEntity> remoteType,
+				String where, String[] thisPolyNames) {
+			super(inMapFields, outMapFields, (Class<? extends RawEntity<?>>) remoteType, remoteType, where, thisPolyNames, null);
+		}
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable {
+			return proxy.retrieveRelations(entity, inMapFields, outMapFields, remoteType, where, thisPolyNames);
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private static class ManyToManyHandler<T extends RawEntity<K>, K> extends RelationHandler<T, K> {
+		
+		public ManyToManyHandler(String[] inMapFields, String[] outMapFields, Class<? extends RawEntity<?>> throughType,
+				Class<? extends RawEntity> remoteType, String where, String[] thisPolyNames, String[] thatPolyNames) {
+			super(inMapFields, outMapFields, throughType, remoteType, where, thisPolyNames, thatPolyNames);
+		}
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) throws Throwable {
+			return proxy.retrieveRelations(entity, inMapFields, outMapFields, throughType, remoteType,
+					where, thisPolyNames, thatPolyNames);
+		}
+	}
+	
+	private static class UnsupportedHandler<T extends RawEntity<K>, K> extends MethodHandler<T, K> {
+		private final Method method;
+		private final String notNullField;
+		
+		public UnsupportedHandler(Method method, String notNullField) {
+			this.method = method;
+			this.notNullField = notNullField;
+		}
+		
+		@Override
+		public Object invoke(EntityProxy<T, K> proxy, T entity, Object[] args) {
+			checkNotNull(notNullField, args);
+			
+			throw new RuntimeException("Cannot handle method with signature: " + method.toString());
+		}
+	}
+}
@@ -15,10 +15,11 @@
  */
 package net.java.ao;
 
-import java.lang.ref.Reference;
 import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.sql.Connection;
@@ -27,19 +28,26 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.WeakHashMap;
-import java.util.Map.Entry;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import net.java.ao.EntityIdentityMap.CacheKey;
 import net.java.ao.cache.Cache;
 import net.java.ao.cache.CacheLayer;
 import net.java.ao.cache.RAMCache;
@@ -48,9 +56,11 @@ import net.java.ao.cache.RelationsCache;
 import net.java.ao.schema.AutoIncrement;
 import net.java.ao.schema.CamelCaseFieldNameConverter;
 import net.java.ao.schema.CamelCaseTableNameConverter;
+import net.java.ao.schema.Default;
 import net.java.ao.schema.FieldNameConverter;
 import net.java.ao.schema.SchemaGenerator;
 import net.java.ao.schema.TableNameConverter;
+import net.java.ao.schema.ddl.DDLField;
 import net.java.ao.types.DatabaseType;
 import net.java.ao.types.TypeManager;
 
@@ -84,11 +94,7 @@ public class EntityManager {
 	
 	private final boolean weaklyCache;
 	
-	private Map<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>> proxies;
-	private final ReadWriteLock proxyLock = new ReentrantReadWriteLock(true);
-	
-	private Map<CacheKey<?>, Reference<RawEntity<?>>> entityCache;
-	private final ReadWriteLock entityCacheLock = new ReentrantReadWriteLock(true);
+	private final EntityIdentityMap identityMap;
 	
 	private Cache cache;
 	private final ReadWriteLock cacheLock = new ReentrantReadWriteLock(true);
@@ -105,7 +111,31 @@ public class EntityManager {
 	private Map<Class<? extends ValueGenerator<?>>, ValueGenerator<?>> valGenCache;
 	private final ReadWriteLock valGenCacheLock = new ReentrantReadWriteLock(true);
 	
-	private final RelationsCache relationsCache = new RAMRelationsCache();
+	private Map<Class<? extends RawEntity<?>>, EntityInfo<?, ?>> entityInfo;
+	private final ReadWriteLock entityInfoLock = new ReentrantReadWriteLock(true);
+	
+	private final EntityClassGenerator classGenerator = new EntityClassGenerator();
+	private volatile boolean generateEntityClasses = false;
+	
+	private final RAMRelationsCache relationsCache;
+	
+	private final ThreadLocal<UnitOfWork> unitOfWork = new ThreadLocal<UnitOfWork>();
+	
+	private static final int MAX_PROJECTIONS = 256;
+	
+	private volatile boolean adaptiveProjection = true;
+	private volatile LoadStrategy loadStrategy = LoadStrategy.FIELD;
+	private volatile boolean joinFetch = true;
+	private final Map<String, ProjectionProfile> projections = new LinkedHashMap<String, ProjectionProfile>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, ProjectionProfile> eldest) {
+			return size() > MAX_PROJECTIONS;
+		}
+	};
+	private final Lock projectionsLock = new ReentrantLock();
+	
+	private final AtomicLong lazyLoadCount = new AtomicLong();
+	private final AtomicLong projectionHitCount = new AtomicLong();
 	
 	/**
 	 * Creates a new instance of <code>EntityManager</code> using the specified
@@ -137,22 +167,20 @@ public class EntityManager {
 	 * @param provider	The {@link DatabaseProvider} to use in all database operations.
 	 * @param weaklyCache	Whether or not to use {@link WeakReference} in the entity
 	 * 		cache.  If <code>false</code>, then {@link SoftReference} will be used.
+	 * 		If <code>true</code>, the relations cache will also weakly reference
+	 * 		the entities from which cached relationships originate.
 	 */
 	public EntityManager(DatabaseProvider provider, boolean weaklyCache) {
 		this.provider = provider;
 		this.weaklyCache = weaklyCache;
 		
-		if (weaklyCache) {
-			proxies = new WeakHashMap<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>>();
-		} else {
-			proxies = new SoftHashMap<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>>();
-		}
-		
-		entityCache = new HashMap<CacheKey<?>, Reference<RawEntity<?>>>();
+		identityMap = new EntityIdentityMap(weaklyCache);
+		relationsCache = new RAMRelationsCache(weaklyCache);
 		
 		cache = new RAMCache();
 		
 		valGenCache = new HashMap<Class<? extends ValueGenerator<?>>, ValueGenerator<?>>();
+		entityInfo = new HashMap<Class<? extends RawEntity<?>>, EntityInfo<?, ?>>();
 		
 		tableNameConverter = new CamelCaseTableNameConverter();
 		fieldNameConverter = new CamelCaseFieldNameConverter();
@@ -207,19 +235,8 @@ public class EntityManager {
 	 * method should be used instead.
 	 */
 	public void flushAll() {
-		List<Map.Entry<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>>> toFlush = new LinkedList<Map.Entry<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>>>();
-		
-		proxyLock.readLock().lock();
-		try {
-			for (Map.Entry<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>> proxy : proxies.entrySet()) {
-				toFlush.add(proxy);
-			}
-		} finally {
-			proxyLock.readLock().unlock();
-		}
-		
-		for (Map.Entry<RawEntity<?>, EntityProxy<? extends RawEntity<?>, ?>> entry : toFlush) {
-			entry.getValue().flushCache(entry.getKey());
+		for (RawEntity<?> entity : identityMap.getAll()) {
+			getProxyForEntity(entity).flushCache(entity);
 		}
 		
 		relationsCache.flush();
@@ -234,22 +251,12 @@ public class EntityManager {
 	 */
 	public void flush(RawEntity<?>... entities) {
 		List<Class<? extends RawEntity<?>>> types = new ArrayList<Class<? extends RawEntity<?>>>(entities.length);
-		Map<RawEntity<?>, EntityProxy<?, ?>> toFlush = new HashMap<RawEntity<?>, EntityProxy<?, ?>>();
-		
-		proxyLock.readLock().lock();
-		try {
-			for (RawEntity<?> entity : entities) {
-				verify(entity);
-				
-				types.add(entity.getEntityType());
-				toFlush.put(entity, proxies.get(entity));
-			}
-		} finally {
-			proxyLock.readLock().unlock();
-		}
 		
-		for (Entry<RawEntity<?>, EntityProxy<?, ?>> entry : toFlush.entrySet()) {
-			entry.getValue().flushCache(entry.getKey());
+		for (RawEntity<?> entity : entities) {
+			verify(entity);
+			
+			types.add(entity.getEntityType());
+			getProxyForEntity(entity).flushCache(entity);
 		}
 		
 		relationsCache.remove(types.toArray(new Class[types.size()]));
@@ -262,10 +269,11 @@ public class EntityManager {
 	 * a new instance.</p>
 	 * 
 	 * <p>If the entity is known to exist in the database, then no checks are performed
-	 * and the method returns extremely quickly.  However, for any key which has not
-	 * already been verified, a query to the database is performed to determine whether
-	 * or not the entity exists.  If the entity does not exist, then <code>null</code>
-	 * is returned.</p>
+	 * and the method returns extremely quickly.  However, all keys which have not
+	 * already been verified are checked against the database (in as few queries as
+	 * possible) to determine whether or not the entities exist.  If an entity does
+	 * not exist, then <code>null</code> is returned in its place.  Any fields named in
+	 * a {@link Preload} annotation on the type are retrieved by the same queries.</p>
 	 * 
 	 * @param type		The type of the entities to retrieve.
 	 * @param keys	The primary keys corresponding to the entities to retrieve.  All
@@ -277,50 +285,179 @@ public class EntityManager {
 	 * 		primary keys.  Any entities which are non-existent will correspond to a <code>null</code>
 	 * 		value in the resulting array. 
 	 */
-	public <T extends RawEntity<K>, K> T[] get(final Class<T> type, K... keys) {
-		final String primaryKeyField = Common.getPrimaryKeyField(type, getFieldNameConverter());
-		final String tableName = getTableNameConverter().getName(type);
+	public <T extends RawEntity<K>, K> T[] get(Class<T> type, K... keys) {
+		T[] back = (T[]) Array.newInstance(type, keys.length);
 		
-		return getFromCache(type, new Function<T, K>() {
-			public T invoke(K key) {
-				T back = null;
-				Connection conn = null;
+		List<K> missing = new ArrayList<K>();
+		Set<K> missingSet = new HashSet<K>();
+		
+		for (int i = 0; i < keys.length; i++) {
+			back[i] = (T) identityMap.get(new CacheKey<K>(keys[i], type));
+			
+			if (back[i] == null && missingSet.add(keys[i])) {
+				missing.add(keys[i]);
+			}
+		}
+		
+		if (!missing.isEmpty()) {
+			Map<K, T> existing = getExisting(type, missing);
+			
+			for (int i = 0; i < keys.length; i++) {
+				if (back[i] == null) {
+					back[i] = existing.get(keys[i]);
+				}
+			}
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Determines which of the given keys correspond to existing rows, and
+	 * returns the corresponding entities.  The keys are checked using as few
+	 * <code>SELECT ... WHERE pk IN (...)</code> queries as the provider allows
+	 * (see {@link DatabaseProvider#getMaxInListSize()}).  Any fields specified
+	 * in a {@link Preload} annotation on the type are retrieved in the same
+	 * queries and cached in the resulting entities.  The keys read back
+	 * from the database are only used to determine which rows exist, since
+	 * they may differ in type or (for <code>CHAR</code> keys) padding; the
+	 * entities are created with the matching keys given by the caller.
+	 * 
+	 * @throws RuntimeException	If any of the queries fails.
+	 */
+	private <T extends RawEntity<K>, K> Map<K, T> getExisting(Class<T> type, List<K> keys) {
+		Map<K, T> back = new HashMap<K, T>();
+		
+		DatabaseProvider provider = getProvider();
+		String primaryKeyField = Common.getPrimaryKeyField(type, getFieldNameConverter());
+		String tableName = getTableNameConverter().getName(type);
+		
+		DatabaseType<K> primaryKeyType = Common.getPrimaryKeyType(type);
+		Class<K> primaryKeyClassType = Common.getPrimaryKeyClassType(type);
+		
+		List<String> preloadFields = new ArrayList<String>();
+		Preload preloadAnnotation = type.getAnnotation(Preload.class);
+		if (preloadAnnotation != null) {
+			for (String field : preloadAnnotation.value()) {
+				field = field.trim();
+				
+				if (field.equals("*")) {
+					for (DDLField ddlField : SchemaGenerator.parseFields(type, getFieldNameConverter())) {
+						if (!preloadFields.contains(ddlField.getName())) {
+							preloadFields.add(ddlField.getName());
+						}
+					}
+				} else if (!preloadFields.contains(field)) {
+					preloadFields.add(field);
+				}
+			}
+			
+			preloadFields.remove(primaryKeyField);
+		}
+		
+		int chunkSize = Math.max(1, provider.getMaxInListSize());
+		
+		Connection conn = null;
+		try {
+			conn = provider.getConnection();
+			
+			for (int start = 0; start < keys.size(); start += chunkSize) {
+				List<K> chunk = keys.subList(start, Math.min(start + chunkSize, keys.size()));
+				
+				Map<Object, K> chunkKeys = new HashMap<Object, K>();
+				for (K key : chunk) {
+					chunkKeys.put(normalizeKey(key), key);
+				}
+				
+				StringBuilder sql = new StringBuilder("SELECT ");
+				sql.append(provider.processID(primaryKeyField));
+				
+				for (String field : preloadFields) {
+					sql.append(',').append(provider.processID(field));
+				}
+				
+				sql.append(" FROM ").append(provider.processID(tableName));
+				sql.append(" WHERE ").append(provider.processID(primaryKeyField));
+				sql.append(" IN (?");
+				
+				for (int i = 1; i < chunk.size(); i++) {
+					sql.append(",?");
+				}
+				sql.append(')');
+				
+				Logger.getLogger("net.java.ao").log(Level.INFO, sql.toString());
+				PreparedStatement stmt = conn.prepareStatement(sql.toString());
+				ResultSet res = null;
 				
 				try {
-					DatabaseProvider provider = getProvider();
-					conn = provider.getConnection();
-					
-					StringBuilder sql = new StringBuilder("SELECT ");
-					sql.append(provider.processID(primaryKeyField));
-					sql.append(" FROM ").append(provider.processID(tableName));
-					sql.append(" WHERE ").append(provider.processID(primaryKeyField));
-					sql.append(" = ?");
-					
-					PreparedStatement stmt = conn.prepareStatement(sql.toString());
-					
-					DatabaseType<K> dbType = (DatabaseType<K>) TypeManager.getInstance().getType(key.getClass());
-					dbType.putToDatabase(EntityManager.this, stmt, 1, key);
-					
-					ResultSet res = stmt.executeQuery();
-					if (res.next()) {
-						back = getAndInstantiate(type, key);
+					int index = 1;
+					for (K key : chunk) {
+						DatabaseType<K> dbType = (DatabaseType<K>) TypeManager.getInstance().getType(key.getClass());
+						dbType.putToDatabase(this, stmt, index++, key);
 					}
 					
-					res.close();
-					stmt.close();
-				} catch (SQLException e) {
-				} finally {
-					if (conn != null) {
-						try {
-							conn.close();
-						} catch (SQLException e) {
+					res = stmt.executeQuery();
+					while (res.next()) {
+						K key = primaryKeyType.pullFromDatabase(this, res, primaryKeyClassType, primaryKeyField);
+						
+						K givenKey = chunkKeys.get(normalizeKey(key));
+						if (givenKey == null) {
+							continue;
+						}
+						
+						T entity = peer(type, givenKey);
+						
+						if (!preloadFields.isEmpty()) {
+							CacheLayer cacheLayer = getProxyForEntity(entity).getCacheLayer(entity);
+							
+							for (String field : preloadFields) {
+								cacheLayer.put(field, res.getObject(field));
+							}
 						}
+						
+						back.put(givenKey, entity);
 					}
+				} finally {
+					if (res != null) {
+						res.close();
+					}
+					stmt.close();
 				}
-				
-				return back;
 			}
-		}, keys);
+		} catch (SQLException e) {
+			throw new RuntimeException("Unable to query the database", e);
+		} finally {
+			if (conn != null) {
+				try {
+					conn.close();
+				} catch (SQLException e) {
+				}
+			}
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Widens integral keys to <code>Long</code> and strips the padding from
+	 * <code>CHAR</code> keys, so that keys specified by the caller can be
+	 * matched against the values returned by the database.
+	 */
+	private static Object normalizeKey(Object key) {
+		if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
+			return ((Number) key).longValue();
+		} else if (key instanceof String) {
+			String value = (String) key;
+			
+			int end = value.length();
+			while (end > 0 && value.charAt(end - 1) == ' ') {
+				end--;
+			}
+			
+			return value.substring(0, end);
+		}
+		
+		return key;
 	}
 	
 	protected <T extends RawEntity<K>, K> T[] peer(final Class<T> type, K... keys) {
@@ -336,20 +473,26 @@ public class EntityManager {
 		int index = 0;
 		
 		for (K key : keys) {
-			entityCacheLock.writeLock().lock();
-			try {	// upcast to workaround bug in javac
-				Reference<?> reference = entityCache.get(new CacheKey<K>(key, type));
-				Reference<T> ref = (Reference<T>) reference;
-				T entity = (ref == null ? null : ref.get());
+			CacheKey<K> cacheKey = new CacheKey<K>(key, type);
+			T entity = (T) identityMap.get(cacheKey);
+			
+			if (entity == null) {
+				Lock lock = identityMap.getLock(cacheKey);
 				
-				if (entity != null) {
-					back[index++] = entity;
-				} else {
-					back[index++] = create.invoke(key);
+				lock.lock();
+				try {
+					entity = (T) identityMap.get(cacheKey);
+					
+					if (entity == null) {
+						identityMap.miss();
+						entity = create.invoke(key);
+					}
+				} finally {
+					lock.unlock();
 				}
-			} finally {
-				entityCacheLock.writeLock().unlock();
 			}
+			
+			back[index++] = entity;
 		}
 		
 		return back;
@@ -367,18 +510,39 @@ public class EntityManager {
 	 *  @return An entity instance of the specified type and primary key.
 	 */
 	protected <T extends RawEntity<K>, K> T getAndInstantiate(Class<T> type, K key) {
-		EntityProxy<T, K> proxy = new EntityProxy<T, K>(this, type, key);
+		T entity = newInstance(type, key);
 		
-		T entity = (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {type}, proxy);
-
-		proxyLock.writeLock().lock();
-		try {
-			proxies.put(entity, proxy);
-		} finally {
-			proxyLock.writeLock().unlock();
+		identityMap.put(new CacheKey<K>(key, type), entity);
+		return entity;
+	}
+	
+	/**
+	 * Returns the in-memory entity of the specified type and key if there is
+	 * one, otherwise a new instance which is <i>not</i> registered in the
+	 * instance cache.  Used for read-only streaming.
+	 */
+	<T extends RawEntity<K>, K> T peerReadOnly(Class<T> type, K key) {
+		T entity = (T) identityMap.get(new CacheKey<K>(key, type));
+		
+		if (entity == null) {
+			entity = newInstance(type, key);
+		}
+		
+		return entity;
+	}
+	
+	private <T extends RawEntity<K>, K> T newInstance(Class<T> type, K key) {
+		EntityProxy<T, K> proxy = new EntityProxy<T, K>(this, getEntityInfo(type), key);
+		
+		T entity = null;
+		if (generateEntityClasses) {
+			entity = classGenerator.newInstance(type, proxy);
+		}
+		
+		if (entity == null) {
+			entity = (T) Proxy.newProxyInstance(type.getClassLoader(), new Class[] {type}, proxy);
 		}
 		
-		entityCache.put(new CacheKey<K>(key, type), createRef(entity));
 		return entity;
 	}
 	
@@ -449,31 +613,10 @@ public class EntityManager {
 		Set<DBParam> listParams = new HashSet<DBParam>();
 		listParams.addAll(Arrays.asList(params));
 		
-		fieldNameConverterLock.readLock().lock();
-		try {
-			for (Method method : MethodFinder.getInstance().findAnnotation(Generator.class, type)) {
-				Generator genAnno = method.getAnnotation(Generator.class);
-				String field = fieldNameConverter.getName(method);
-				ValueGenerator<?> generator;
-
-				valGenCacheLock.writeLock().lock();
-				try {
-					if (valGenCache.containsKey(genAnno.value())) {
-						generator = valGenCache.get(genAnno.value());
-					} else {
-						generator = genAnno.value().newInstance();
-						valGenCache.put(genAnno.value(), generator);
-					}
-				} catch (InstantiationException e) {
-					continue;
-				} catch (IllegalAccessException e) {
-					continue;
-				} finally {
-					valGenCacheLock.writeLock().unlock();
-				}
-				
-				listParams.add(new DBParam(field, generator.generateValue(this)));
-			}
+		for (Map.Entry<String, ValueGenerator<?>> entry : getValueGenerators(type).entrySet()) {
+			listParams.add(new DBParam(entry.getKey(), entry.getValue().generateValue(this)));
+		}
+		
       // <ian>
       Version version = type.getAnnotation(Version.class);
       if (version != null) {
@@ -483,9 +626,6 @@ public class EntityManager {
         listParams.add(new DBParam(field, initial));
       }
       // </ian>
-		} finally {
-			fieldNameConverterLock.readLock().unlock();
-		}
 		
 		Connection conn = getProvider().getConnection();
 		try {
@@ -498,7 +638,7 @@ public class EntityManager {
 			conn.close();
 		}
 		
-		relationsCache.remove(type);
+		invalidateRelations(type, Collections.singletonList(getRowValues(listParams)));
 		
 		back.init();
 		
@@ -528,6 +668,124 @@ public class EntityManager {
 		
 		return create(type, arrParams);
 	}
+	
+	/**
+	 * <p>Creates and INSERTs a new entity of the specified type for each of the
+	 * given arrays of initial parameters, returning the entity instances in the
+	 * same order as the parameter arrays.  This is semantically equivalent to
+	 * calling {@link #create(Class, DBParam...)} once for every row, but is
+	 * considerably faster for large numbers of entities.  Rows which specify
+	 * the same fields are sent to the database using JDBC batch execution, and
+	 * the relations cache is only invalidated once for the entire set.</p>
+	 * 
+	 * <p>Any {@link Generator} and {@link Version} values are populated for each
+	 * row just as they would be in <code>create</code>, unless the row already
+	 * specifies a value for the field in question.  The INSERTs are
+	 * delegated to {@link DatabaseProvider#insertBatchReturningKeys(EntityManager, Connection, Class, String, boolean, String, List)},
+	 * which is responsible for retrieving the primary key values in the most
+	 * efficient way supported by the database.  Unless within a transaction,
+	 * rows are committed as they are INSERTed, so a failure part way through
+	 * the list may leave some of the rows in the database.</p>
+	 * 
+	 * @param type	The type of the entities to INSERT.
+	 * @param rows	The initial values for the fields in each row.
+	 * @return	The new entity instances corresponding to the INSERTed rows, in order.
+	 * @see #create(Class, DBParam...)
+	 * @see net.java.ao.DatabaseProvider#insertBatchReturningKeys(EntityManager, Connection, Class, String, boolean, String, List)
+	 */
+	public <T extends RawEntity<K>, K> T[] createAll(Class<T> type, List<DBParam[]> rows) throws SQLException {
+		T[] back = (T[]) Array.newInstance(type, rows.size());
+		if (rows.isEmpty()) {
+			return back;
+		}
+		
+		String table = null;
+		
+		tableNameConverterLock.readLock().lock();
+		try {
+			table = tableNameConverter.getName(type);
+		} finally {
+			tableNameConverterLock.readLock().unlock();
+		}
+		
+		Map<String, ValueGenerator<?>> generators = getValueGenerators(type);
+		Version version = type.getAnnotation(Version.class);
+		
+		List<DBParam[]> fullRows = new ArrayList<DBParam[]>(rows.size());
+		for (DBParam[] row : rows) {
+			List<DBParam> listParams = new ArrayList<DBParam>(Arrays.asList(row));
+			
+			Set<String> fields = new HashSet<String>();
+			for (DBParam param : row) {
+				fields.add(param.getField().toLowerCase());
+			}
+			
+			for (Map.Entry<String, ValueGenerator<?>> entry : generators.entrySet()) {
+				if (!fields.contains(entry.getKey().toLowerCase())) {
+					listParams.add(new DBParam(entry.getKey(), entry.getValue().generateValue(this)));
+				}
+			}
+			
+			if (version != null && !fields.contains(version.value().toLowerCase())) {
+				listParams.add(new DBParam(version.value(), version.initial()));
+			}
+			
+			fullRows.add(listParams.toArray(new DBParam[listParams.size()]));
+		}
+		
+		List<K> keys;
+		Connection conn = getProvider().getConnection();
+		try {
+			Method pkMethod = Common.getPrimaryKeyMethod(type);
+			keys = provider.insertBatchReturningKeys(this, conn, 
+					Common.getPrimaryKeyClassType(type), 
+					Common.getPrimaryKeyField(type, getFieldNameConverter()), 
+					pkMethod.getAnnotation(AutoIncrement.class) != null, table, fullRows);
+		} finally {
+			conn.close();
+		}
+		
+		List<Map<String, Object>> rowValues = new ArrayList<Map<String, Object>>(fullRows.size());
+		for (DBParam[] row : fullRows) {
+			rowValues.add(getRowValues(Arrays.asList(row)));
+		}
+		invalidateRelations(type, rowValues);
+		
+		for (int i = 0; i < back.length; i++) {
+			back[i] = peer(type, keys.get(i));
+			back[i].init();
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Creates and INSERTs a new entity of the specified type for each of the
+	 * given maps of parameters.  This method merely delegates to the
+	 * {@link #createAll(Class, List)} method in the same way that 
+	 * {@link #create(Class, Map)} delegates to {@link #create(Class, DBParam...)}.
+	 * 
+	 * @param type	The type of the entities to INSERT.
+	 * @param rows	A map of parameters for each row to INSERT.
+	 * @return	The new entity instances corresponding to the INSERTed rows, in order.
+	 * @see #createAll(Class, List)
+	 */
+	public <T extends RawEntity<K>, K> T[] createAll(Class<T> type, Collection<? extends Map<String, Object>> rows) throws SQLException {
+		List<DBParam[]> listRows = new ArrayList<DBParam[]>(rows.size());
+		
+		for (Map<String, Object> params : rows) {
+			DBParam[] arrParams = new DBParam[params.size()];
+			int i = 0;
+			
+			for (String key : params.keySet()) {
+				arrParams[i++] = new DBParam(key, params.get(key));
+			}
+			
+			listRows.add(arrParams);
+		}
+		
+		return createAll(type, listRows);
+	}
 
 	/**
 	 * <p>Deletes the specified entities from the database.  DELETE statements are
@@ -546,7 +804,9 @@ public class EntityManager {
 	 * 
 	 * <p>Thus, this method scales very well for large numbers of entities grouped
 	 * into types.  However, the execution time increases linearly for each entity of
-	 * unique type.</p>
+	 * unique type.  Very large groups are split into several statements according
+	 * to {@link DatabaseProvider#getMaxInListSize()}.  The instance cache is only
+	 * locked (for the deleted keys) once the statements have been executed.</p>
 	 * 
 	 * @param entities	A varargs array of entities to delete.  Method returns immediately
 	 * 	if length == 0.
@@ -570,27 +830,40 @@ public class EntityManager {
 			organizedEntities.get(type).add(entity);
 		}
 		
-		entityCacheLock.writeLock().lock();
+		List<CacheKey<?>> cacheKeys = new ArrayList<CacheKey<?>>(entities.length);
+		for (RawEntity<?> entity : entities) {
+			cacheKeys.add(new CacheKey(Common.getPrimaryKeyValue(entity), entity.getEntityType()));
+		}
+		
+		DatabaseProvider provider = getProvider();
+		int maxInListSize = provider.getMaxInListSize();
+		
+		Connection conn = provider.getConnection();
 		try {
-			DatabaseProvider provider = getProvider();
-			Connection conn = provider.getConnection();
-			try {
-				for (Class<? extends RawEntity<?>> type : organizedEntities.keySet()) {
-					List<RawEntity<?>> entityList = organizedEntities.get(type);
+			for (Class<? extends RawEntity<?>> type : organizedEntities.keySet()) {
+				List<RawEntity<?>> entityList = organizedEntities.get(type);
+				
+				String table = null;
+				
+				tableNameConverterLock.readLock().lock();
+				try {
+					table = tableNameConverter.getName(type);
+				} finally {
+					tableNameConverterLock.readLock().unlock();
+				}
+				
+				String pkField = Common.getPrimaryKeyField(type, getFieldNameConverter());
+				
+				invalidateRelations(type, getCachedRowValues(type, entityList));
+				
+				for (int start = 0; start < entityList.size(); start += maxInListSize) {
+					List<RawEntity<?>> chunk = entityList.subList(start, Math.min(entityList.size(), start + maxInListSize));
 					
 					StringBuilder sql = new StringBuilder("DELETE FROM ");
+					sql.append(provider.processID(table));
+					sql.append(" WHERE ").append(provider.processID(pkField)).append(" IN (?");
 					
-					tableNameConverterLock.readLock().lock();
-					try {
-						sql.append(provider.processID(tableNameConverter.getName(type)));
-					} finally {
-						tableNameConverterLock.readLock().unlock();
-					}
-					
-					sql.append(" WHERE ").append(provider.processID(
-							Common.getPrimaryKeyField(type, getFieldNameConverter()))).append(" IN (?");
-					
-					for (int i = 1; i < entityList.size(); i++) {
+					for (int i = 1; i < chunk.size(); i++) {
 						sql.append(",?");
 					}
 					sql.append(')');
@@ -599,55 +872,184 @@ public class EntityManager {
 					PreparedStatement stmt = conn.prepareStatement(sql.toString());
 					
 					int index = 1;
-					for (RawEntity<?> entity : entityList) {
+					for (RawEntity<?> entity : chunk) {
 						TypeManager.getInstance().getType((Class) entity.getEntityType()).putToDatabase(this, stmt, index++, entity);
 					}
 					
-					relationsCache.remove(type);
 					stmt.executeUpdate();
 					stmt.close();
 				}
-			} finally {
-				conn.close();
-			}
-			
-			for (RawEntity<?> entity : entities) {
-				entityCache.remove(new CacheKey(Common.getPrimaryKeyValue(entity), entity.getEntityType()));
-			}
-			
-			proxyLock.writeLock().lock();
-			try {
-				for (RawEntity<?> entity : entities) {
-					proxies.remove(entity);
-				}
-			} finally {
-				proxyLock.writeLock().unlock();
 			}
 		} finally {
-			entityCacheLock.writeLock().unlock();
+			conn.close();
 		}
+		
+		evict(cacheKeys);
 	}
 	
 	/**
-	 * Returns all entities of the given type.  This actually peers the call to
-	 * the {@link #find(Class, Query)} method.
-	 * 
-	 * @param type		The type of entity to retrieve.
-	 * @return	An array of all entities which correspond to the given type.
-	 */
-	public <T extends RawEntity<K>, K> T[] find(Class<T> type) throws SQLException {
-		return find(type, Query.select());
-	}
-	
-	/**
-	 * <p>Convenience method to select all entities of the given type with the
-	 * specified, parameterized criteria.  The <code>criteria</code> String
-	 * specified is appended to the SQL prepared statement immediately
-	 * following the <code>WHERE</code>.</p>
+	 * <p>Deletes all rows of the specified type which match the WHERE clause
+	 * of the given query, without retrieving the rows or instantiating their
+	 * entities.  The WHERE clause and its parameters are used exactly as they
+	 * would be in {@link #find(Class, Query)}, however the query must not
+	 * specify any joins, grouping, limit or offset.</p>
 	 * 
-	 * <p>Example:</p>
+	 * <p>Since the deleted rows are not known, if any row was deleted then
+	 * every in-memory entity of the type is removed from the instance cache
+	 * and its cached values are cleared, without querying the database.
+	 * Subsequent retrievals of the type return new instances.  The relations
+	 * cache is flushed for the type.</p>
 	 * 
-	 * <pre>manager.find(Person.class, "name LIKE ? OR age &gt; ?", "Joe", 9);</pre>
+	 * @param type	The type of the entities to delete.
+	 * @param query	The query specifying the WHERE clause which selects the rows
+	 * 		to delete.  A query without a WHERE clause deletes every row.
+	 * @return	The number of rows deleted.
+	 * @see #delete(RawEntity...)
+	 * @see net.java.ao.DatabaseProvider#renderDelete(Class, Query, TableNameConverter)
+	 */
+	public <K> int deleteWhere(Class<? extends RawEntity<K>> type, Query query) throws SQLException {
+		int back = 0;
+		
+		String sql = null;
+		tableNameConverterLock.readLock().lock();
+		try {
+			sql = provider.renderDelete(type, query, tableNameConverter);
+		} finally {
+			tableNameConverterLock.readLock().unlock();
+		}
+		
+		relationsCache.remove(type);
+		
+		Connection conn = getProvider().getConnection();
+		try {
+			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			
+			query.setParameters(this, stmt);
+			
+			back = stmt.executeUpdate();
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		if (back > 0) {
+			evictAll(type);
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * <p>Assigns the given values to all rows of the specified type which match
+	 * the WHERE clause of the given query, using a single UPDATE statement.
+	 * None of the matching rows are retrieved or instantiated.  Any field
+	 * annotated with {@link net.java.ao.schema.OnUpdate} is maintained by the
+	 * database as usual, and if the type is annotated with {@link Version},
+	 * the version of every updated row is incremented.  The query must not
+	 * specify any joins, grouping, limit or offset.</p>
+	 * 
+	 * <p>Since the updated rows are not known, the assigned fields (and the
+	 * version field) are removed from the cache of every in-memory entity
+	 * of the type, unless the entity has unsaved changes to the field.
+	 * The relations cache is flushed for the type.</p>
+	 * 
+	 * @param type	The type of the entities to update.
+	 * @param query	The query specifying the WHERE clause which selects the rows
+	 * 		to update.  A query without a WHERE clause updates every row.
+	 * @param assignments	The fields to assign and their new values.
+	 * @return	The number of rows updated.
+	 * @see net.java.ao.DatabaseProvider#renderUpdate(Class, Query, String[], TableNameConverter)
+	 */
+	@SuppressWarnings("unchecked")
+	public <K> int updateWhere(Class<? extends RawEntity<K>> type, Query query, DBParam... assignments) throws SQLException {
+		int back = 0;
+		
+		String[] fields = new String[assignments.length];
+		for (int i = 0; i < assignments.length; i++) {
+			fields[i] = assignments[i].getField();
+		}
+		
+		String sql = null;
+		tableNameConverterLock.readLock().lock();
+		try {
+			sql = provider.renderUpdate(type, query, fields, tableNameConverter);
+		} finally {
+			tableNameConverterLock.readLock().unlock();
+		}
+		
+		relationsCache.remove(type);
+		
+		Connection conn = getProvider().getConnection();
+		try {
+			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			
+			for (int i = 0; i < assignments.length; i++) {
+				Object value = assignments[i].getValue();
+				
+				if (value == null) {
+					provider.putNull(stmt, i + 1);
+				} else {
+					Class javaType = value.getClass();
+					
+					if (value instanceof RawEntity) {
+						javaType = ((RawEntity) value).getEntityType();
+					}
+					
+					TypeManager.getInstance().getType(javaType).putToDatabase(this, stmt, i + 1, value);
+				}
+			}
+			query.setParameters(this, stmt, assignments.length + 1);
+			
+			back = stmt.executeUpdate();
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		if (back > 0) {
+			List<String> toRemove = new ArrayList<String>(Arrays.asList(fields));
+			
+			Version version = type.getAnnotation(Version.class);
+			if (version != null) {
+				toRemove.add(version.value());
+			}
+			
+			for (RawEntity<?> entity : identityMap.getAll(type)) {
+				CacheLayer cacheLayer = getProxyForEntity(entity).getCacheLayer(entity);
+				
+				for (String field : toRemove) {
+					if (!cacheLayer.dirtyContains(field)) {
+						cacheLayer.remove(field);
+					}
+				}
+			}
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns all entities of the given type.  This actually peers the call to
+	 * the {@link #find(Class, Query)} method.
+	 * 
+	 * @param type		The type of entity to retrieve.
+	 * @return	An array of all entities which correspond to the given type.
+	 */
+	public <T extends RawEntity<K>, K> T[] find(Class<T> type) throws SQLException {
+		return find(type, Query.select());
+	}
+	
+	/**
+	 * <p>Convenience method to select all entities of the given type with the
+	 * specified, parameterized criteria.  The <code>criteria</code> String
+	 * specified is appended to the SQL prepared statement immediately
+	 * following the <code>WHERE</code>.</p>
+	 * 
+	 * <p>Example:</p>
+	 * 
+	 * <pre>manager.find(Person.class, "name LIKE ? OR age &gt; ?", "Joe", 9);</pre>
 	 * 
 	 * <p>This actually delegates the call to the {@link #find(Class, Query)}
 	 * method, properly parameterizing the {@link Query} object.</p>
@@ -709,77 +1111,39 @@ public class EntityManager {
 	public <T extends RawEntity<K>, K> T[] find(Class<T> type, String field, Query query) throws SQLException {
 		List<T> back = new ArrayList<T>();
 		
-		query.resolveFields(type, getFieldNameConverter());
-		
-    // <ian>
-    Version version = type.getAnnotation(Version.class);
-    if (version != null && !version.findInitial()) {
-      // Add initial version check to exclude
-      // objects that have only been created and not saved yet.
-      if (query.getWhereClause() == null) {
-        query.where(version.value() + " != ?", version.initial());
-      } else {
-        // Preserve existing WHERE clause and parameters
-        String whereClause = new StringBuilder().append(query.getWhereClause())
-                .append(" AND ").append(version.value()).append(" != ?").toString();
-        Object[] paramsOld = query.getWhereParams();
-        Object[] paramsNew = new Object[paramsOld.length + 1];
-        System.arraycopy(paramsOld, 0, paramsNew, 0, paramsOld.length);
-        paramsNew[paramsNew.length - 1] = version.initial();
-        query.setWhereClause(whereClause);
-        query.setWhereParams(paramsNew);
-      }
-    }
-    // </ian>
-		
-		Preload preloadAnnotation = type.getAnnotation(Preload.class);
-		if (preloadAnnotation != null) {
-			if (!query.getFields()[0].equals("*") && query.getJoins().isEmpty()) {
-				String[] oldFields = query.getFields();
-				List<String> newFields = new ArrayList<String>();
-				
-				for (String newField : preloadAnnotation.value()) {
-					newField = newField.trim();
-					
-					int fieldLoc = -1;
-					for (int i = 0; i < oldFields.length; i++) {
-						if (oldFields[i].equals(newField)) {
-							fieldLoc = i;
-							break;
-						}
-					}
-					
-					if (fieldLoc < 0) {
-						newFields.add(newField);
-					} else {
-						newFields.add(oldFields[fieldLoc]);
-					}
-				}
-				
-				if (!newFields.contains("*")) {
-					for (String oldField : oldFields) {
-						if (!newFields.contains(oldField)) {
-							newFields.add(oldField);
-						}
-					}
-				}
-				
-				query.setFields(newFields.toArray(new String[newFields.size()]));
-			}
-		}
+		prepareFindQuery(type, query);
 		
 		Connection conn = getProvider().getConnection();
 		try {
 			String sql = null;
+			ProjectionProfile projection = null;
+			Set<String> projected = null;
+			
 			tableNameConverterLock.readLock().lock();
 			try {
 				sql = query.toSQL(type, provider, tableNameConverter, getFieldNameConverter(), false);
+				
+				if (adaptiveProjection && isProjectable(type, field, query)) {
+					projection = getProjection(type, sql);
+					
+					Query projectedQuery = query.copy();		// never modify the caller's query
+					projected = addFields(projectedQuery, projection.getFields());
+					
+					if (projected.isEmpty()) {
+						projected = null;
+					} else {
+						query = projectedQuery;
+						projected = Collections.unmodifiableSet(projected);
+						
+						sql = query.toSQL(type, provider, tableNameConverter, getFieldNameConverter(), false);
+					}
+				}
 			} finally {
 				tableNameConverterLock.readLock().unlock();
 			}
 			
 			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
-			PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+			PreparedStatement stmt = conn.prepareStatement(sql);
 			provider.setQueryStatementProperties(stmt, query);
 			
 			query.setParameters(this, stmt);
@@ -787,12 +1151,20 @@ public class EntityManager {
 			ResultSet res = stmt.executeQuery();
 			provider.setQueryResultSetProperties(res, query);
 			
+			String[] cacheFields = query.getCanonicalFields(type, fieldNameConverter);
 			while (res.next()) {
 				T entity = peer(type, Common.getPrimaryKeyType(type).pullFromDatabase(this, res, Common.getPrimaryKeyClassType(type), field));
-				CacheLayer cacheLayer = getProxyForEntity(entity).getCacheLayer(entity);
+				EntityProxy<T, K> proxy = getProxyForEntity(entity);
+				CacheLayer cacheLayer = proxy.getCacheLayer(entity);
 
-				for (String cacheField : query.getCanonicalFields(type, fieldNameConverter)) {
-					cacheLayer.put(cacheField, res.getObject(cacheField));
+				for (String cacheField : cacheFields) {
+					if (!cacheLayer.dirtyContains(cacheField)) {		// don't clobber unsaved values
+						cacheLayer.put(cacheField, res.getObject(cacheField));
+					}
+				}
+				
+				if (projection != null) {
+					proxy.setProjection(projection, projected);
 				}
 				
 				back.add(entity);
@@ -803,85 +1175,350 @@ public class EntityManager {
 			conn.close();
 		}
 		
-		return back.toArray((T[]) Array.newInstance(type, back.size()));
+		T[] entities = back.toArray((T[]) Array.newInstance(type, back.size()));
+		
+		String[] includes = query.getIncludes();
+		if (includes != null && includes.length > 0) {
+			prefetch(entities, includes);
+		}
+		
+		return entities;
 	}
 	
 	/**
-	 * <p>Executes the specified SQL and extracts the given key field, wrapping each
-	 * row into a instance of the specified type.  The SQL itself is executed as 
-	 * a {@link PreparedStatement} with the given parameters.</p>
+	 * <p>Loads the specified relationships for all of the given entities at
+	 * once, so that subsequent calls to the corresponding methods do not query
+	 * the database.  Each relationship is named by its method, either in full
+	 * or without the <code>get</code>/<code>is</code> prefix (e.g. <code>"pens"</code>
+	 * for <code>getPens()</code>).  It may be a {@link OneToOne}, {@link OneToMany}
+	 * or {@link ManyToMany} relationship, or an accessor returning an entity.
+	 * Nested relationships are specified using dotted paths:</p>
 	 * 
-	 *  <p>Example:</p>
-	 *  
-	 *  <pre>manager.findWithSQL(Person.class, "personID", "SELECT personID FROM chairs WHERE position &lt; ? LIMIT ?", 10, 5);</pre>
-	 *  
-	 *  <p>The SQL is not parsed or modified in any way by ActiveObjects.  As such, it is
-	 *  possible to execute database-specific queries using this method without realizing
-	 *  it.  For example, the above query will not run on MS SQL Server or Oracle, due to 
-	 *  the lack of a LIMIT clause in their SQL implementation.  As such, be extremely
-	 *  careful about what SQL is executed using this method, or else be conscious of the
-	 *  fact that you may be locking yourself to a specific DBMS.</p>
-	 *  
-	 * @param type		The type of the entities to retrieve.
-	 * @param keyField	The field value to use in the creation of the entities.  This is usually
-	 * 	the primary key field of the corresponding table.
-	 * @param sql	The SQL statement to execute.
-	 * @param parameters	A varargs array of parameters to be passed to the executed
-	 * 	prepared statement.  The length of this array <i>must</i> match the number of
-	 * 	parameters (denoted by the '?' char) in the <code>criteria</code>.
-	 * @return	An array of entities of the given type which match the specified query.
+	 * <pre>manager.prefetch(people, "pens", "company.people");</pre>
+	 * 
+	 * <p>Each relationship is loaded using a single <code>WHERE ... IN (...)</code>
+	 * query per chunk of parent keys (see {@link DatabaseProvider#getMaxInListSize()})
+	 * and stored in the {@link RelationsCache}.  The fields of the related
+	 * entities are then loaded using a second query of the same form and
+	 * stored in their caches.  Relationships mapped through more than one
+	 * field are still loaded one parent at a time.</p>
+	 * 
+	 * @param entities	The entities for which the relationships should be loaded.
+	 * @param relations	The names of the relationship methods, or dotted paths thereof.
+	 * @throws IllegalArgumentException	If a name does not correspond to a relationship
+	 * 		method of the corresponding entity type.
 	 */
-	@SuppressWarnings("unchecked")
-	public <T extends RawEntity<K>, K> T[] findWithSQL(Class<T> type, String keyField, String sql, Object... parameters) throws SQLException {
-		List<T> back = new ArrayList<T>();
+	public <T extends RawEntity<K>, K> void prefetch(T[] entities, String... relations) throws SQLException {
+		for (String relation : relations) {
+			prefetch(Arrays.asList(entities), relation.split("\\."), 0);
+		}
+	}
+	
+	private void prefetch(Collection<? extends RawEntity<?>> entities, String[] path, int index) throws SQLException {
+		Set<RawEntity<?>> children = new LinkedHashSet<RawEntity<?>>();
 		
-		Connection conn = getProvider().getConnection();
-		try {
-			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
-			PreparedStatement stmt = conn.prepareStatement(sql);
+		for (List<RawEntity<Object>> group : groupByType(entities)) {
+			Class<RawEntity<Object>> type = (Class<RawEntity<Object>>) group.get(0).getEntityType();
+			Method method = getRelationMethod(type, path[index]);
 			
-			TypeManager manager = TypeManager.getInstance();
-			for (int i = 0; i < parameters.length; i++) {
-				Class javaType = parameters[i].getClass();
-				
-				if (parameters[i] instanceof RawEntity) {
-					javaType = ((RawEntity<?>) parameters[i]).getEntityType();
+			EntityProxy<RawEntity<Object>, Object> proxy = getProxyForEntity(group.get(0));
+			EntityInfo.MethodHandler<RawEntity<Object>, Object> handler = getEntityInfo(type).getHandler(method);
+			
+			if (handler instanceof EntityInfo.RelationHandler<?, ?>) {
+				proxy.prefetchRelations(group, (EntityInfo.RelationHandler<RawEntity<Object>, Object>) handler);
+			} else if (Common.interfaceInheritsFrom(method.getReturnType(), RawEntity.class)) {
+				proxy.loadRows(group);
+			} else {
+				throw new IllegalArgumentException("Not a relationship: " + type.getName() + '.' + method.getName());
+			}
+			
+			for (RawEntity<Object> entity : group) {
+				Object value;
+				try {
+					value = method.invoke(entity);
+				} catch (IllegalAccessException e) {
+					throw new RuntimeException(e);
+				} catch (InvocationTargetException e) {
+					Throwable cause = e.getCause();
+					
+					if (cause instanceof SQLException) {
+						throw (SQLException) cause;
+					} else if (cause instanceof RuntimeException) {
+						throw (RuntimeException) cause;
+					}
+					
+					throw new RuntimeException(cause);
 				}
 				
-				manager.getType(javaType).putToDatabase(this, stmt, i + 1, parameters[i]);
+				if (value instanceof RawEntity<?>) {
+					children.add((RawEntity<?>) value);
+				} else if (value instanceof RawEntity<?>[]) {
+					children.addAll(Arrays.asList((RawEntity<?>[]) value));
+				}
 			}
-
-			ResultSet res = stmt.executeQuery();
-			while (res.next()) {
-				back.add(peer(type, Common.getPrimaryKeyType(type).pullFromDatabase(this, res, (Class<? extends K>) type, keyField)));
+		}
+		
+		for (List<RawEntity<Object>> group : groupByType(children)) {
+			getProxyForEntity(group.get(0)).loadRows(group);
+		}
+		
+		if (index + 1 < path.length && !children.isEmpty()) {
+			prefetch(children, path, index + 1);
+		}
+	}
+	
+	private List<List<RawEntity<Object>>> groupByType(Collection<? extends RawEntity<?>> entities) {
+		Map<Class<?>, List<RawEntity<Object>>> back = new LinkedHashMap<Class<?>, List<RawEntity<Object>>>();
+		
+		for (RawEntity<?> entity : entities) {
+			List<RawEntity<Object>> group = back.get(entity.getEntityType());
+			if (group == null) {
+				group = new ArrayList<RawEntity<Object>>();
+				back.put(entity.getEntityType(), group);
 			}
-			res.close();
-			stmt.close();
-		} finally {
-			conn.close();
+			
+			group.add((RawEntity<Object>) entity);
 		}
 		
-		return back.toArray((T[]) Array.newInstance(type, back.size()));
+		return new ArrayList<List<RawEntity<Object>>>(back.values());
 	}
 	
-	/**
-	 * Counts all entities of the specified type.  This method is actually
-	 * a delegate for: <code>count(Class&lt;? extends Entity&gt;, Query)</code>
-	 * 
-	 * @param type		The type of the entities which should be counted.
-	 * @return The number of entities of the specified type.
-	 */
-	public <K> int count(Class<? extends RawEntity<K>> type) throws SQLException {
-		return count(type, Query.select());
+	private Method getRelationMethod(Class<?> type, String name) {
+		String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		
+		for (Method method : type.getMethods()) {
+			if (method.getParameterTypes().length == 0 && (method.getName().equals(name) 
+					|| method.getName().equals("get" + suffix) || method.getName().equals("is" + suffix))) {
+				return method;
+			}
+		}
+		
+		throw new IllegalArgumentException("No relationship method " + name + " in " + type.getName());
 	}
 	
 	/**
-	 * Counts all entities of the specified type matching the given criteria
-	 * and parameters.  This is a convenience method for:
-	 * <code>count(type, Query.select().where(criteria, parameters))</code>
+	 * <p>Selects all entities of the specified type which match the given
+	 * <code>Query</code>, returning them in pages of at most the specified
+	 * size.  Pages are retrieved lazily as the result is iterated, each using
+	 * a separate query with keyset pagination on the primary key (see
+	 * {@link Query#after(String, Object)}) rather than an offset.  Thus, the
+	 * last page of a very large table is just as cheap to retrieve as the
+	 * first.  Entities within each page are ordered by primary key.</p>
 	 * 
-	 * @param type		The type of the entities which should be counted.
-	 * @param criteria		A parameterized WHERE statement used to determine the result
+	 * <p>The query is copied before each page is selected, so the given
+	 * instance is never modified.  It must not specify an ORDER BY clause,
+	 * limit or offset, since these are determined by the pagination, nor any
+	 * joins, since the primary key is not qualified by table.  Any
+	 * {@link SQLException} which occurs while retrieving a page is wrapped in
+	 * a <code>RuntimeException</code>.</p>
+	 * 
+	 * @param type		The type of the entities to retrieve.
+	 * @param query	The {@link Query} instance to use in determining the results.
+	 * @param pageSize	The maximum number of entities in each page.
+	 * @return	The pages of entities which match the specified query, in order.
+	 * @throws IllegalArgumentException	If the page size is not positive or the
+	 * 		query specifies joins, an ORDER BY clause, limit or offset.
+	 */
+	public <T extends RawEntity<K>, K> Iterable<T[]> findPages(Class<T> type, Query query, int pageSize) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Page size must be positive");
+		}
+		
+		if (query.getOrderClause() != null || query.getLimit() >= 0 || query.getOffset() > 0) {
+			throw new IllegalArgumentException("Paginated queries may not specify an order, limit or offset");
+		}
+		
+		if (!query.getJoins().isEmpty()) {
+			throw new IllegalArgumentException("Paginated queries may not specify joins");
+		}
+		
+		return new EntityPageIterator<T, K>(this, type, query.copy(), pageSize);
+	}
+	
+	/**
+	 * Streams all entities of the specified type which match the given
+	 * <code>Query</code>.  This method merely delegates to
+	 * {@link #stream(Class, Query, boolean)}, registering every entity in the
+	 * instance cache.
+	 * 
+	 * @param type		The type of the entities to retrieve.
+	 * @param query	The {@link Query} instance to use in determining the results.
+	 * @return	An open stream of the entities which match the specified query.
+	 * @see #stream(Class, Query, boolean)
+	 */
+	public <T extends RawEntity<K>, K> EntityStream<T> stream(Class<T> type, Query query) throws SQLException {
+		return stream(type, query, false);
+	}
+	
+	/**
+	 * <p>Selects all entities of the specified type which match the given
+	 * <code>Query</code>, returning them one at a time rather than as an array.
+	 * Unlike {@link #find(Class, Query)}, the results are read using a
+	 * forward-only cursor with a provider-specific fetch size (see
+	 * {@link DatabaseProvider#setStreamingStatementProperties(java.sql.Statement, Query)}),
+	 * so that very large result sets never have to be held in memory.  The
+	 * fields selected by the query (and any {@link Preload} fields) are cached
+	 * in each entity as with <code>find</code>.</p>
+	 * 
+	 * <p>The returned stream holds a database connection and result set open
+	 * until it is exhausted or {@link EntityStream#close()} is called, thus it
+	 * should always be closed in a <code>finally</code> block.  Consider using
+	 * {@link #stream(Class, Query, boolean, EntityStreamCallback)}, which
+	 * handles this automatically.  The stream uses its own connection, since
+	 * some drivers (notably MySQL) do not allow other statements to be
+	 * executed on a connection while a result set is being streamed.  Thus
+	 * entities may be lazily loaded in the middle of a stream, however
+	 * streams cannot be opened within a {@link Transaction}, whose uncommitted
+	 * changes would not be visible to the stream.</p>
+	 * 
+	 * <p>If <code>readOnly</code> is <code>true</code>, entities which are not
+	 * already in memory are not registered in the instance cache, allowing
+	 * them to be garbage collected as soon as they have been processed.  Such
+	 * entities remain fully functional, however they are not guaranteed to be
+	 * the same instances as those returned by other methods for the same row.</p>
+	 * 
+	 * @param type		The type of the entities to retrieve.
+	 * @param query	The {@link Query} instance to use in determining the results.
+	 * @param readOnly	If <code>true</code>, new entities will not be
+	 * 		registered in the instance cache.
+	 * @return	An open stream of the entities which match the specified query.
+	 * @throws IllegalStateException	If a transaction is in progress on the
+	 * 		current thread.
+	 */
+	public <T extends RawEntity<K>, K> EntityStream<T> stream(Class<T> type, Query query, boolean readOnly) throws SQLException {
+		String field = Common.getPrimaryKeyField(type, getFieldNameConverter());
+		
+		prepareFindQuery(type, query);
+		
+		String sql = null;
+		tableNameConverterLock.readLock().lock();
+		try {
+			sql = query.toSQL(type, provider, tableNameConverter, getFieldNameConverter(), false);
+		} finally {
+			tableNameConverterLock.readLock().unlock();
+		}
+		
+		return new EntityStream<T>(this, type, field, query, sql, readOnly);
+	}
+	
+	/**
+	 * Streams all entities of the specified type which match the given
+	 * <code>Query</code> to the specified callback.  This method merely
+	 * delegates to {@link #stream(Class, Query, boolean, EntityStreamCallback)},
+	 * registering every entity in the instance cache.
+	 * 
+	 * @param type		The type of the entities to retrieve.
+	 * @param query	The {@link Query} instance to use in determining the results.
+	 * @param callback	The callback to invoke for each entity.
+	 * @see #stream(Class, Query, boolean, EntityStreamCallback)
+	 */
+	public <T extends RawEntity<K>, K> void stream(Class<T> type, Query query, EntityStreamCallback<T> callback) throws SQLException {
+		stream(type, query, false, callback);
+	}
+	
+	/**
+	 * Streams all entities of the specified type which match the given
+	 * <code>Query</code> to the specified callback, in the same manner as
+	 * {@link #stream(Class, Query, boolean)}.  The stream is always closed
+	 * before this method returns, even if the callback throws an exception.
+	 * 
+	 * @param type		The type of the entities to retrieve.
+	 * @param query	The {@link Query} instance to use in determining the results.
+	 * @param readOnly	If <code>true</code>, new entities will not be
+	 * 		registered in the instance cache.
+	 * @param callback	The callback to invoke for each entity.
+	 * @see #stream(Class, Query, boolean)
+	 */
+	public <T extends RawEntity<K>, K> void stream(Class<T> type, Query query, boolean readOnly, 
+			EntityStreamCallback<T> callback) throws SQLException {
+		EntityStream<T> stream = stream(type, query, readOnly);
+		try {
+			T entity;
+			while ((entity = stream.fetch()) != null) {
+				callback.onRowRead(entity);
+			}
+		} finally {
+			stream.close();
+		}
+	}
+	
+	/**
+	 * <p>Executes the specified SQL and extracts the given key field, wrapping each
+	 * row into a instance of the specified type.  The SQL itself is executed as 
+	 * a {@link PreparedStatement} with the given parameters.</p>
+	 * 
+	 *  <p>Example:</p>
+	 *  
+	 *  <pre>manager.findWithSQL(Person.class, "personID", "SELECT personID FROM chairs WHERE position &lt; ? LIMIT ?", 10, 5);</pre>
+	 *  
+	 *  <p>The SQL is not parsed or modified in any way by ActiveObjects.  As such, it is
+	 *  possible to execute database-specific queries using this method without realizing
+	 *  it.  For example, the above query will not run on MS SQL Server or Oracle, due to 
+	 *  the lack of a LIMIT clause in their SQL implementation.  As such, be extremely
+	 *  careful about what SQL is executed using this method, or else be conscious of the
+	 *  fact that you may be locking yourself to a specific DBMS.</p>
+	 *  
+	 * @param type		The type of the entities to retrieve.
+	 * @param keyField	The field value to use in the creation of the entities.  This is usually
+	 * 	the primary key field of the corresponding table.
+	 * @param sql	The SQL statement to execute.
+	 * @param parameters	A varargs array of parameters to be passed to the executed
+	 * 	prepared statement.  The length of this array <i>must</i> match the number of
+	 * 	parameters (denoted by the '?' char) in the <code>criteria</code>.
+	 * @return	An array of entities of the given type which match the specified query.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends RawEntity<K>, K> T[] findWithSQL(Class<T> type, String keyField, String sql, Object... parameters) throws SQLException {
+		List<T> back = new ArrayList<T>();
+		
+		Connection conn = getProvider().getConnection();
+		try {
+			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			provider.setQueryStatementProperties(stmt, Query.select());		// provider defaults only
+			
+			TypeManager manager = TypeManager.getInstance();
+			for (int i = 0; i < parameters.length; i++) {
+				Class javaType = parameters[i].getClass();
+				
+				if (parameters[i] instanceof RawEntity) {
+					javaType = ((RawEntity<?>) parameters[i]).getEntityType();
+				}
+				
+				manager.getType(javaType).putToDatabase(this, stmt, i + 1, parameters[i]);
+			}
+
+			ResultSet res = stmt.executeQuery();
+			while (res.next()) {
+				back.add(peer(type, Common.getPrimaryKeyType(type).pullFromDatabase(this, res, (Class<? extends K>) type, keyField)));
+			}
+			res.close();
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		return back.toArray((T[]) Array.newInstance(type, back.size()));
+	}
+	
+	/**
+	 * Counts all entities of the specified type.  This method is actually
+	 * a delegate for: <code>count(Class&lt;? extends Entity&gt;, Query)</code>
+	 * 
+	 * @param type		The type of the entities which should be counted.
+	 * @return The number of entities of the specified type.
+	 */
+	public <K> int count(Class<? extends RawEntity<K>> type) throws SQLException {
+		return count(type, Query.select());
+	}
+	
+	/**
+	 * Counts all entities of the specified type matching the given criteria
+	 * and parameters.  This is a convenience method for:
+	 * <code>count(type, Query.select().where(criteria, parameters))</code>
+	 * 
+	 * @param type		The type of the entities which should be counted.
+	 * @param criteria		A parameterized WHERE statement used to determine the result
 	 * 	set which will be counted.
 	 * @param parameters	A varargs array of parameters to be passed to the executed
 	 * 	prepared statement.  The length of this array <i>must</i> match the number of
@@ -934,6 +1571,86 @@ public class EntityManager {
 		return back;
 	}
 	
+	/**
+	 * <p>Begins a unit of work for the current thread.  Until the unit of work
+	 * is flushed, calls to {@link RawEntity#save()} on this thread do not
+	 * execute any SQL.  Instead, the saved entities are remembered and their
+	 * dirty fields are written when {@link #flushUnitOfWork()} is called.
+	 * This allows the UPDATEs for large numbers of modified entities to be
+	 * sent to the database in a few JDBC batches rather than one round-trip
+	 * per entity.</p>
+	 * 
+	 * <p>Values which have been set but not yet flushed are visible through
+	 * the entity accessors, but not to queries (e.g. {@link #find(Class, Query)}).
+	 * Only one unit of work may be in progress per thread.</p>
+	 * 
+	 * <p>The unit of work is bound to the current thread until it is flushed
+	 * or discarded, thus it should always be ended in a <code>finally</code>
+	 * block.  Otherwise, an exception thrown before the flush would leave
+	 * every subsequent save on the thread (e.g. a pooled request thread)
+	 * queued indefinitely:</p>
+	 * 
+	 * <pre>manager.beginUnitOfWork();
+	 * try {
+	 *     // ...
+	 *     manager.flushUnitOfWork();
+	 * } finally {
+	 *     manager.discardUnitOfWork();
+	 * }</pre>
+	 * 
+	 * @throws IllegalStateException	If a unit of work is already in progress
+	 * 		on the current thread.
+	 * @see #flushUnitOfWork()
+	 * @see #discardUnitOfWork()
+	 */
+	public void beginUnitOfWork() {
+		if (unitOfWork.get() != null) {
+			throw new IllegalStateException("Unit of work already in progress");
+		}
+		
+		unitOfWork.set(new UnitOfWork());
+	}
+	
+	/**
+	 * <p>Writes the dirty fields of all entities saved since the call to
+	 * {@link #beginUnitOfWork()} and ends the unit of work.  UPDATEs with the
+	 * same table and set of dirty fields are executed as a single JDBC batch.
+	 * {@link java.beans.PropertyChangeListener}s are notified once the batch
+	 * containing the entity has been executed.</p>
+	 * 
+	 * <p>If any versioned entity (see {@link Version}) turns out to be stale,
+	 * an exception is thrown after all of the batches have been executed.  The
+	 * exceptions for any further stale entities are chained to the first.  The
+	 * unit of work is ended even if the flush fails.</p>
+	 * 
+	 * @throws IllegalStateException	If no unit of work is in progress on the
+	 * 		current thread.
+	 * @see #beginUnitOfWork()
+	 */
+	public void flushUnitOfWork() throws SQLException {
+		UnitOfWork work = unitOfWork.get();
+		if (work == null) {
+			throw new IllegalStateException("No unit of work in progress");
+		}
+		
+		unitOfWork.remove();
+		work.flush(this);
+	}
+	
+	/**
+	 * Ends the unit of work in progress on the current thread (if any)
+	 * without writing anything to the database.  The entities saved within
+	 * the unit of work retain their unsaved values, which will be written
+	 * by their next {@link RawEntity#save()}.  This method does nothing if
+	 * the unit of work has already been flushed, thus it may be called
+	 * unconditionally in a <code>finally</code> block.
+	 * 
+	 * @see #beginUnitOfWork()
+	 */
+	public void discardUnitOfWork() {
+		unitOfWork.remove();
+	}
+	
 	/**
 	 * <p>Specifies the {@link TableNameConverter} instance to use for
 	 * name conversion of all entity types.  Name conversion is the process
@@ -951,6 +1668,8 @@ public class EntityManager {
 		} finally {
 			tableNameConverterLock.writeLock().unlock();
 		}
+		
+		flushEntityInfo();
 	}
 	
 	/**
@@ -985,6 +1704,8 @@ public class EntityManager {
 		} finally {
 			fieldNameConverterLock.writeLock().unlock();
 		}
+		
+		flushEntityInfo();
 	}
 	
 	/**
@@ -1042,6 +1763,27 @@ public class EntityManager {
 		}
 	}
 	
+	/**
+	 * <p>Specifies whether entity instances should be implemented by classes
+	 * generated at runtime rather than by {@link Proxy}.  Generated classes
+	 * dispatch directly to the pre-resolved method handlers without
+	 * reflection or a <code>Method</code> lookup on each call, which
+	 * significantly reduces the overhead of calling entity accessors.  The
+	 * semantics of the entities are otherwise identical.</p>
+	 * 
+	 * <p>Entity types for which a class cannot be generated (e.g. non-public
+	 * interfaces) will silently continue to use dynamic proxies.  Note that
+	 * this only affects <i>new</i> entity instances.  By default, dynamic
+	 * proxies are used for all entities.</p>
+	 */
+	public void setGenerateEntityClasses(boolean generateEntityClasses) {
+		this.generateEntityClasses = generateEntityClasses;
+	}
+	
+	public boolean isGenerateEntityClasses() {
+		return generateEntityClasses;
+	}
+	
 	/**
 	 * Sets the cache implementation to be used by all entities
 	 * controlled by this manager.  Note that this only affects
@@ -1087,66 +1829,589 @@ public class EntityManager {
 		return provider;
 	}
 
+	/**
+	 * <p>Specifies whether {@link #find(Class, String, Query)} should adaptively
+	 * select the fields which are actually used.  When enabled, the fields which
+	 * are lazily loaded from the entities returned by a query are recorded against
+	 * the "shape" of that query (the entity type and the rendered SELECT).  Later
+	 * finds with the same shape select those fields as well, caching the values
+	 * in the returned entities rather than loading each field with a separate
+	 * query per entity.  This complements the {@link Preload} annotation and
+	 * {@link Query#preload(String...)}, which specify the fields up front.</p>
+	 * 
+	 * <p>Queries which select all fields, use joins, DISTINCT or GROUP BY, or which
+	 * do not select from the table of the entity type by its primary key are never
+	 * modified.  By default, adaptive projection is enabled.</p>
+	 * 
+	 * @see #getLazyLoadCount()
+	 * @see #getProjectionHitCount()
+	 */
+	public void setAdaptiveProjection(boolean adaptiveProjection) {
+		this.adaptiveProjection = adaptiveProjection;
+	}
+	
+	public boolean isAdaptiveProjection() {
+		return adaptiveProjection;
+	}
+	
+	/**
+	 * Specifies how entities load field values which are not yet cached.  This
+	 * may be overridden for individual types using the {@link Loading} annotation.
+	 * By default, {@link LoadStrategy#FIELD} is used, which loads only the requested
+	 * field.  {@link LoadStrategy#ROW} loads all of the cacheable fields of the
+	 * row in the same query, which saves a query for each further field read
+	 * from the entity at the cost of transferring fields which may be unused.
+	 */
+	public void setLoadStrategy(LoadStrategy loadStrategy) {
+		this.loadStrategy = loadStrategy;
+	}
+	
+	public LoadStrategy getLoadStrategy() {
+		return loadStrategy;
+	}
+	
+	/**
+	 * Specifies whether {@link ManyToMany} relationships mapped through a
+	 * single field should select the columns of the related entities along
+	 * with their ids, joining the intermediate table against the table of the
+	 * related type.  This is the query used for types annotated with {@link Preload},
+	 * extended to the fields which would be loaded by {@link LoadStrategy#ROW}.
+	 * If disabled, relationships to types without the {@link Preload} annotation
+	 * only retrieve ids and each field is loaded when it is first accessed.
+	 * Relationships to polymorphic types are never join fetched.  By default,
+	 * join fetching is enabled.
+	 */
+	public void setJoinFetch(boolean joinFetch) {
+		this.joinFetch = joinFetch;
+	}
+	
+	public boolean isJoinFetch() {
+		return joinFetch;
+	}
+	
+	/**
+	 * Returns the number of queries which have been executed by entity
+	 * accessors because the requested value was not cached.
+	 */
+	public long getLazyLoadCount() {
+		return lazyLoadCount.get();
+	}
+	
+	/**
+	 * Returns the number of entity accessor calls which were satisfied by a
+	 * value selected due to adaptive projection (see {@link #setAdaptiveProjection(boolean)}),
+	 * each of which would otherwise have required a separate query.
+	 */
+	public long getProjectionHitCount() {
+		return projectionHitCount.get();
+	}
+	
+	void countLazyLoad() {
+		lazyLoadCount.incrementAndGet();
+	}
+	
+	void countProjectionHit() {
+		projectionHitCount.incrementAndGet();
+	}
+	
+	/**
+	 * Returns the number of entity lookups (through {@link #get(Class, Object...)}
+	 * and related methods) which were satisfied by an instance already in memory.
+	 */
+	public long getEntityCacheHitCount() {
+		return identityMap.getHitCount();
+	}
+	
+	/**
+	 * Returns the number of entity lookups which required a new instance
+	 * to be created (and possibly a database query).
+	 */
+	public long getEntityCacheMissCount() {
+		return identityMap.getMissCount();
+	}
+	
+	/**
+	 * Returns the number of entity instances which have been removed from the
+	 * instance cache due to garbage collection.  This depends on the caching
+	 * mode selected in {@link #EntityManager(DatabaseProvider, boolean)}.
+	 */
+	public long getEntityCacheEvictionCount() {
+		return identityMap.getEvictionCount();
+	}
+	
+	/**
+	 * Limits the number of relationships (results of {@link OneToOne}, {@link OneToMany}
+	 * and {@link ManyToMany} methods) held in memory.  Once the limit is
+	 * exceeded, the least-recently-used relationships are evicted.  Specify
+	 * <code>-1</code> (the default) for no limit.
+	 */
+	public void setRelationsCacheMaximumSize(int maximumSize) {
+		relationsCache.setMaximumSize(maximumSize);
+	}
+	
+	/**
+	 * Limits the estimated memory (in bytes) used by the relationships held
+	 * in memory, not including the related entities themselves.  Specify
+	 * <code>-1</code> (the default) for no limit.
+	 * 
+	 * @see RAMRelationsCache#setMaximumWeight(long)
+	 */
+	public void setRelationsCacheMaximumWeight(long maximumWeight) {
+		relationsCache.setMaximumWeight(maximumWeight);
+	}
+	
+	/**
+	 * Specifies the time after which relationships held in memory are
+	 * reloaded from the database, or <code>-1</code> (the default) to keep
+	 * them until they are invalidated or evicted.
+	 */
+	public void setRelationsCacheExpiration(long duration, TimeUnit unit) {
+		relationsCache.setExpiration(duration, unit);
+	}
+	
+	/**
+	 * Returns the number of relationships which have been evicted from
+	 * memory, either due to the limits (see {@link #setRelationsCacheMaximumSize(int)})
+	 * or because the originating entity was garbage collected.
+	 */
+	public long getRelationsCacheEvictionCount() {
+		return relationsCache.getEvictionCount();
+	}
+	
+	/**
+	 * Returns the number of relationships which have been removed from
+	 * memory because they expired (see {@link #setRelationsCacheExpiration(long, TimeUnit)}).
+	 */
+	public long getRelationsCacheExpirationCount() {
+		return relationsCache.getExpirationCount();
+	}
+
+	/**
+	 * Removes the cached relationships which may be affected by the INSERT or
+	 * DELETE of rows of the given type.  These are the relationships through
+	 * the type which originate from the entities referenced by the mapping
+	 * fields of the rows (see {@link Common#getMappingFields(FieldNameConverter, Class, Class)}).
+	 * If the referenced entities cannot be determined for any of the rows,
+	 * all relationships through the type are removed.
+	 * 
+	 * @param rows	The values of each row keyed by lower-case field name, or
+	 * 		<code>null</code> for rows whose values are unknown.
+	 */
+	private void invalidateRelations(Class<? extends RawEntity<?>> type, List<Map<String, Object>> rows) {
+		Map<String, Class<? extends RawEntity<?>>> mappingFields = getMappingFields(type);
+		Set<String> defaultFields = getDefaultFields(type);
+		
+		Map<Class<? extends RawEntity<?>>, Set<Object>> referenced = new HashMap<Class<? extends RawEntity<?>>, Set<Object>>();
+		
+		for (Map<String, Object> row : rows) {
+			if (row == null) {
+				relationsCache.remove(type);
+				return;
+			}
+			
+			for (Map.Entry<String, Class<? extends RawEntity<?>>> entry : mappingFields.entrySet()) {
+				String field = entry.getKey().toLowerCase();
+				Object value = row.get(field);
+				
+				if (value == null) {
+					if (!row.containsKey(field) && defaultFields.contains(field)) {
+						relationsCache.remove(type);		// value assigned by the database
+						return;
+					}
+					
+					continue;
+				}
+				
+				if (value instanceof RawEntity<?>) {
+					value = Common.getPrimaryKeyValue((RawEntity<?>) value);
+				}
+				
+				Set<Object> keys = referenced.get(entry.getValue());
+				if (keys == null) {
+					keys = new HashSet<Object>();
+					referenced.put(entry.getValue(), keys);
+				}
+				keys.add(value);
+			}
+		}
+		
+		for (Map.Entry<Class<? extends RawEntity<?>>, Set<Object>> entry : referenced.entrySet()) {
+			relationsCache.remove(type, entry.getKey(), entry.getValue());
+		}
+	}
+	
+	/**
+	 * Returns the fields of the given type which reference other entities,
+	 * along with the (most general) type referenced by each.
+	 */
+	private Map<String, Class<? extends RawEntity<?>>> getMappingFields(Class<? extends RawEntity<?>> type) {
+		FieldNameConverter converter = getFieldNameConverter();
+		Map<String, Class<? extends RawEntity<?>>> back = new HashMap<String, Class<? extends RawEntity<?>>>();
+		
+		Set<Class<? extends RawEntity<?>>> referencedTypes = new HashSet<Class<? extends RawEntity<?>>>();
+		for (Method method : type.getMethods()) {
+			Class<?> attributeType = Common.getAttributeTypeFromMethod(method);
+			
+			if (attributeType != null && Common.interfaceInheritsFrom(attributeType, RawEntity.class)) {
+				referencedTypes.add((Class<? extends RawEntity<?>>) attributeType);
+			}
+		}
+		
+		for (Class<? extends RawEntity<?>> referencedType : referencedTypes) {
+			for (String field : Common.getMappingFields(converter, type, referencedType)) {
+				Class<? extends RawEntity<?>> existing = back.get(field);
+				
+				if (existing == null || referencedType.isAssignableFrom(existing)) {
+					back.put(field, referencedType);
+				}
+			}
+		}
+		
+		return back;
+	}
+	
+	private Set<String> getDefaultFields(Class<? extends RawEntity<?>> type) {
+		FieldNameConverter converter = getFieldNameConverter();
+		Set<String> back = new HashSet<String>();
+		
+		for (Method method : type.getMethods()) {
+			if (method.getAnnotation(Default.class) != null && (Common.isAccessor(method) || Common.isMutator(method))) {
+				back.add(converter.getName(method).toLowerCase());
+			}
+		}
+		
+		return back;
+	}
+	
+	private Map<String, Object> getRowValues(Collection<DBParam> params) {
+		Map<String, Object> back = new HashMap<String, Object>();
+		
+		for (DBParam param : params) {
+			back.put(param.getField().toLowerCase(), param.getValue());
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns the values of the mapping fields of the given entities as they
+	 * are cached in memory, or <code>null</code> for entities which do not
+	 * have all of the values cached (or have unsaved values).
+	 */
+	private List<Map<String, Object>> getCachedRowValues(Class<? extends RawEntity<?>> type, List<RawEntity<?>> entities) {
+		Set<String> fields = getMappingFields(type).keySet();
+		List<Map<String, Object>> back = new ArrayList<Map<String, Object>>(entities.size());
+		
+		for (RawEntity<?> entity : entities) {
+			CacheLayer cacheLayer = getProxyForEntity(entity).getCacheLayer(entity);
+			Map<String, Object> row = new HashMap<String, Object>();
+			
+			for (String field : fields) {
+				if (!cacheLayer.contains(field) || cacheLayer.dirtyContains(field)) {
+					row = null;
+					break;
+				}
+				
+				row.put(field.toLowerCase(), cacheLayer.get(field));
+			}
+			
+			back.add(row);
+		}
+		
+		return back;
+	}
+	
 	<T extends RawEntity<K>, K> EntityProxy<T, K> getProxyForEntity(T entity) {
-		proxyLock.readLock().lock();
+		EntityProxy<?, ?> back = null;
+		
+		if (entity instanceof GeneratedEntity) {
+			back = ((GeneratedEntity) entity).getHandler();
+		} else if (Proxy.isProxyClass(entity.getClass())) {
+			InvocationHandler handler = Proxy.getInvocationHandler(entity);
+			
+			if (handler instanceof EntityProxy<?, ?>) {
+				back = (EntityProxy<?, ?>) handler;
+			}
+		}
+		
+		if (back == null || back.getManager() != this) {
+			return null;
+		}
+		
+		return (EntityProxy<T, K>) back;
+	}
+
+	/**
+	 * Retrieves the pre-resolved metadata (including the method dispatch table)
+	 * for the given entity type, building it if this is the first time the type
+	 * has been encountered by this manager.
+	 */
+	<T extends RawEntity<K>, K> EntityInfo<T, K> getEntityInfo(Class<T> type) {
+		entityInfoLock.readLock().lock();
+		try {
+			EntityInfo<T, K> back = (EntityInfo<T, K>) entityInfo.get(type);
+			if (back != null) {
+				return back;
+			}
+		} finally {
+			entityInfoLock.readLock().unlock();
+		}
+		
+		entityInfoLock.writeLock().lock();
 		try {
-			return (EntityProxy<T, K>) proxies.get(entity);
+			EntityInfo<T, K> back = (EntityInfo<T, K>) entityInfo.get(type);
+			if (back == null) {
+				back = new EntityInfo<T, K>(this, type);
+				entityInfo.put(type, back);
+			}
+			
+			return back;
 		} finally {
-			proxyLock.readLock().unlock();
+			entityInfoLock.writeLock().unlock();
+		}
+	}
+	
+	private void flushEntityInfo() {
+		entityInfoLock.writeLock().lock();
+		try {
+			for (EntityInfo<?, ?> info : entityInfo.values()) {
+				info.markStale();
+			}
+			
+			entityInfo.clear();
+		} finally {
+			entityInfoLock.writeLock().unlock();
 		}
 	}
 
 	RelationsCache getRelationsCache() {
 		return relationsCache;
 	}
+	
+	UnitOfWork getUnitOfWork() {
+		return unitOfWork.get();
+	}
 
-	private Reference<RawEntity<?>> createRef(RawEntity<?> entity) {
-		if (weaklyCache) {
-			return new WeakReference<RawEntity<?>>(entity);
+	/**
+	 * Resolves the {@link ValueGenerator} instances for all of the
+	 * {@link Generator} fields of the specified type, keyed by field name.
+	 * Generators which cannot be instantiated are ignored.
+	 */
+	private Map<String, ValueGenerator<?>> getValueGenerators(Class<? extends RawEntity<?>> type) {
+		Map<String, ValueGenerator<?>> back = new LinkedHashMap<String, ValueGenerator<?>>();
+		
+		fieldNameConverterLock.readLock().lock();
+		try {
+			for (Method method : MethodFinder.getInstance().findAnnotation(Generator.class, type)) {
+				Generator genAnno = method.getAnnotation(Generator.class);
+				String field = fieldNameConverter.getName(method);
+				ValueGenerator<?> generator;
+
+				valGenCacheLock.writeLock().lock();
+				try {
+					if (valGenCache.containsKey(genAnno.value())) {
+						generator = valGenCache.get(genAnno.value());
+					} else {
+						generator = genAnno.value().newInstance();
+						valGenCache.put(genAnno.value(), generator);
+					}
+				} catch (InstantiationException e) {
+					continue;
+				} catch (IllegalAccessException e) {
+					continue;
+				} finally {
+					valGenCacheLock.writeLock().unlock();
+				}
+				
+				back.put(field, generator);
+			}
+		} finally {
+			fieldNameConverterLock.readLock().unlock();
 		}
 		
-		return new SoftReference<RawEntity<?>>(entity);
+		return back;
 	}
 	
-	private void verify(RawEntity<?> entity) {
-		if (entity.getEntityManager() != this) {
-			throw new RuntimeException("Entities can only be used with a single EntityManager instance");
+	/**
+	 * Adds the {@link Version} and {@link Preload} handling for the specified
+	 * type to a query which is about to be used to select entities.
+	 */
+	private <T extends RawEntity<K>, K> void prepareFindQuery(Class<T> type, Query query) {
+		query.resolveFields(type, getFieldNameConverter());
+		
+    // <ian>
+    Version version = type.getAnnotation(Version.class);
+    if (version != null && !version.findInitial()) {
+      // Add initial version check to exclude
+      // objects that have only been created and not saved yet.
+      if (query.getWhereClause() == null) {
+        query.where(version.value() + " != ?", version.initial());
+      } else {
+        // Preserve existing WHERE clause and parameters
+        String whereClause = new StringBuilder().append(query.getWhereClause())
+                .append(" AND ").append(version.value()).append(" != ?").toString();
+        Object[] paramsOld = query.getWhereParams();
+        Object[] paramsNew = new Object[paramsOld.length + 1];
+        System.arraycopy(paramsOld, 0, paramsNew, 0, paramsOld.length);
+        paramsNew[paramsNew.length - 1] = version.initial();
+        query.setWhereClause(whereClause);
+        query.setWhereParams(paramsNew);
+      }
+    }
+    // </ian>
+		
+		Preload preloadAnnotation = type.getAnnotation(Preload.class);
+		if (preloadAnnotation != null) {
+			if (!query.getFields()[0].equals("*") && query.getJoins().isEmpty()) {
+				String[] oldFields = query.getFields();
+				List<String> newFields = new ArrayList<String>();
+				
+				for (String newField : preloadAnnotation.value()) {
+					newField = newField.trim();
+					
+					int fieldLoc = -1;
+					for (int i = 0; i < oldFields.length; i++) {
+						if (oldFields[i].equals(newField)) {
+							fieldLoc = i;
+							break;
+						}
+					}
+					
+					if (fieldLoc < 0) {
+						newFields.add(newField);
+					} else {
+						newFields.add(oldFields[fieldLoc]);
+					}
+				}
+				
+				if (!newFields.contains("*")) {
+					for (String oldField : oldFields) {
+						if (!newFields.contains(oldField)) {
+							newFields.add(oldField);
+						}
+					}
+				}
+				
+				query.setFields(newFields.toArray(new String[newFields.size()]));
+			}
+		}
+		
+		String[] preloadFields = query.getPreloadFields();
+		if (preloadFields != null && !query.getFields()[0].equals("*") && query.getJoins().isEmpty()) {
+			addFields(query, Arrays.asList(preloadFields));
 		}
 	}
 	
-	private static interface Function<R, F> {
-		public R invoke(F formals);
+	/**
+	 * Appends the given fields to the SELECT of the query, skipping any which
+	 * are already selected.
+	 * 
+	 * @return	The fields which were added.
+	 */
+	private Set<String> addFields(Query query, Collection<String> fields) {
+		Set<String> back = new LinkedHashSet<String>();
+		
+		List<String> oldFields = Arrays.asList(query.getFields());
+		for (String field : fields) {
+			field = field.trim();
+			
+			if (!oldFields.contains(field)) {
+				back.add(field);
+			}
+		}
+		
+		if (!back.isEmpty()) {
+			List<String> newFields = new ArrayList<String>(oldFields);
+			newFields.addAll(back);
+			
+			query.setFields(newFields.toArray(new String[newFields.size()]));
+		}
+		
+		return back;
 	}
 	
-	private static class CacheKey<T> {
-		private T key;
-		private Class<? extends RawEntity<?>> type;
+	/**
+	 * Determines whether the fields selected by the query can be safely
+	 * extended by adaptive projection.
+	 */
+	private boolean isProjectable(Class<? extends RawEntity<?>> type, String field, Query query) {
+		String[] fields = query.getFields();
 		
-		public CacheKey(T key, Class<? extends RawEntity<T>> type) {
-			this.key = key;
-			this.type = type;
+		if (fields.length == 0 || fields[0].equals("*") || !query.getJoins().isEmpty()
+				|| query.isDistinct() || query.getGroupClause() != null || query.getTable() != null) {
+			return false;
 		}
 		
-		@Override
-		public int hashCode() {
-			return (type.hashCode() + key.hashCode()) % (2 << 15);
+		if (query.getTableType() != null && !query.getTableType().equals(type)) {
+			return false;
 		}
 		
-		@Override
-		public boolean equals(Object obj) {
-			if (obj == this) {
-				return true;
+		return field.equals(Common.getPrimaryKeyField(type, getFieldNameConverter()));
+	}
+	
+	private ProjectionProfile getProjection(Class<?> type, String sql) {
+		String key = type.getName() + ':' + sql;
+		
+		projectionsLock.lock();
+		try {
+			ProjectionProfile back = projections.get(key);
+			if (back == null) {
+				back = new ProjectionProfile();
+				projections.put(key, back);
 			}
 			
-			if (obj instanceof CacheKey<?>) {
-				CacheKey<T> keyObj = (CacheKey<T>) obj;
+			return back;
+		} finally {
+			projectionsLock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the given keys from the instance cache.  The locks for the keys
+	 * are only held for the removal itself, never while accessing the database.
+	 */
+	private void evict(List<CacheKey<?>> cacheKeys) {
+		identityMap.lock(cacheKeys);
+		try {
+			for (CacheKey<?> key : cacheKeys) {
+				identityMap.remove(key);
+			}
+		} finally {
+			identityMap.unlock(cacheKeys);
+		}
+	}
+	
+	/**
+	 * Removes every in-memory entity of the specified type from the instance
+	 * cache and clears its cached values.  Used when the affected rows are not
+	 * known, thus the database is never queried.  Entities of the type which
+	 * are retrieved afterwards will be new instances, checked for existence
+	 * as usual.
+	 */
+	private void evictAll(Class<? extends RawEntity<?>> type) {
+		List<CacheKey<?>> cacheKeys = identityMap.getKeys(type);
+		
+		identityMap.lock(cacheKeys);
+		try {
+			for (CacheKey<?> key : cacheKeys) {
+				RawEntity<?> entity = identityMap.remove(key);
 				
-				if (key.equals(keyObj.key) && type.equals(keyObj.type)) {
-					return true;
+				if (entity != null) {
+					getProxyForEntity(entity).flushCache(entity);
 				}
 			}
-			
-			return false;
+		} finally {
+			identityMap.unlock(cacheKeys);
+		}
+	}
+	
+	private void verify(RawEntity<?> entity) {
+		if (entity.getEntityManager() != this) {
+			throw new RuntimeException("Entities can only be used with a single EntityManager instance");
 		}
 	}
+	
+	private static interface Function<R, F> {
+		public R invoke(F formals);
+	}
 }
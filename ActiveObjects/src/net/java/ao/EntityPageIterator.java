@@ -0,0 +1,99 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Iterates over all of the entities matched by a query one page at a
+ * time, using keyset pagination on the primary key (see
+ * {@link Query#after(String, Object)}).  Each page is selected by a separate
+ * query which starts after the primary key of the last entity in the
+ * previous page, thus the cost of retrieving a page does not depend on how
+ * many pages precede it.</p>
+ * 
+ * <p>Any {@link SQLException} which occurs while retrieving a page is
+ * wrapped in a {@link RuntimeException}.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class EntityPageIterator<T extends RawEntity<K>, K> implements Iterator<T[]>, Iterable<T[]> {
+	private final EntityManager manager;
+	private final Class<T> type;
+	private final Query query;
+	private final int pageSize;
+	
+	private final String pkField;
+	
+	private Object lastKey;
+	private T[] next;
+	private boolean done;
+	
+	public EntityPageIterator(EntityManager manager, Class<T> type, Query query, int pageSize) {
+		this.manager = manager;
+		this.type = type;
+		this.query = query;
+		this.pageSize = pageSize;
+		
+		pkField = Common.getPrimaryKeyField(type, manager.getFieldNameConverter());
+	}
+	
+	public boolean hasNext() {
+		if (next == null && !done) {
+			Query page = query.copy().after(pkField, lastKey).limit(pageSize);
+			
+			try {
+				next = manager.find(type, pkField, page);
+			} catch (SQLException e) {
+				done = true;
+				throw new RuntimeException(e);
+			}
+			
+			if (next.length < pageSize) {
+				done = true;
+			}
+			
+			if (next.length == 0) {
+				next = null;
+			} else {
+				lastKey = Common.getPrimaryKeyValue(next[next.length - 1]);
+			}
+		}
+		
+		return next != null;
+	}
+	
+	public T[] next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		
+		T[] back = next;
+		next = null;
+		
+		return back;
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	public Iterator<T[]> iterator() {
+		return this;
+	}
+}
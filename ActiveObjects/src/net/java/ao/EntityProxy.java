@@ -25,9 +25,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -41,8 +45,6 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import net.java.ao.cache.CacheLayer;
-import net.java.ao.schema.NotNull;
-import net.java.ao.schema.OnUpdate;
 import net.java.ao.types.DatabaseType;
 import net.java.ao.types.TypeManager;
 
@@ -54,8 +56,16 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 	
 	static boolean ignorePreload = false;	// hack for testing
 	
+	// values returned by primitive accessors for NULL fields
+	private static final Character NULL_CHAR = ' ';
+	private static final Integer NULL_INT = 0;
+	private static final Short NULL_SHORT = 0;
+	private static final Long NULL_LONG = 0L;
+	private static final Float NULL_FLOAT = 0F;
+	private static final Double NULL_DOUBLE = 0D;
+	private static final Byte NULL_BYTE = 0;
+	
 	private final K key;
-	private final Method pkAccessor;
 	private final String pkFieldName;
 	private final Class<T> type;
 
@@ -65,6 +75,7 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
   // </ian>
 
 	private final EntityManager manager;
+	private EntityInfo<T, K> info;
 	
 	private CacheLayer layer;
 	
@@ -73,24 +84,26 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 	
 	private ImplementationWrapper<T> implementation;
 	private List<PropertyChangeListener> listeners;
+	
+	private volatile ProjectionProfile projection;
+	private Set<String> projected;
+	private Set<String> projectedRead;
 
 	public EntityProxy(EntityManager manager, Class<T> type, K key) {
+		this(manager, manager.getEntityInfo(type), key);
+	}
+	
+	EntityProxy(EntityManager manager, EntityInfo<T, K> info, K key) {
 		this.key = key;
-		this.type = type;
+		this.type = info.getType();
 		this.manager = manager;
+		this.info = info;
 		
-		pkAccessor = Common.getPrimaryKeyAccessor(type);
-		pkFieldName = Common.getPrimaryKeyField(type, getManager().getFieldNameConverter());
+		pkFieldName = info.getPrimaryKeyField();
 		
     // <ian>
-    Version version = type.getAnnotation(Version.class);
-    if (version != null) {
-      versionField = version.value();
-      versionIncrement = version.increment();
-    } else {
-      versionField = null;
-      versionIncrement = 0;
-    }
+    versionField = info.getVersionField();
+    versionIncrement = info.getVersionIncrement();
     // </ian>
 
 		locks = new HashMap<String, ReadWriteLock>();
@@ -100,119 +113,56 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 
 	@SuppressWarnings("unchecked")
 	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
-		if (method.getName().equals("getEntityType")) {
-			return type;
-		}
-
-		if (implementation == null) {
-			implementation = new ImplementationWrapper<T>();
-			implementation.init((T) proxy);
-		}
-
-		MethodImplWrapper methodImpl = implementation.getMethod(method.getName(), method.getParameterTypes());
-		if (methodImpl != null) {
-			final Class<?> declaringClass = methodImpl.getMethod().getDeclaringClass();
-			if (!Object.class.equals(declaringClass)) {
-				final Class<?> callingClass = Common.getCallingClass(1);
-				if (callingClass == null || !callingClass.equals(declaringClass)) {
-					return methodImpl.getMethod().invoke(methodImpl.getInstance(), args);
-				}
-			}
-		}
-
-		if (method.getName().equals(pkAccessor.getName())) {
-			return getKey();
-		} else if (method.getName().equals("save")) {
-			save((RawEntity<K>) proxy);
-
-			return Void.TYPE;
-		} else if (method.getName().equals("getEntityManager")) {
-			return getManager();
-		} else if (method.getName().equals("addPropertyChangeListener")) {
-			addPropertyChangeListener((PropertyChangeListener) args[0]);
-			return null;
-		} else if (method.getName().equals("removePropertyChangeListener")) {
-			removePropertyChangeListener((PropertyChangeListener) args[0]);
-			return null;
-		} else if (method.getName().equals("hashCode")) {
-			return hashCodeImpl();
-		} else if (method.getName().equals("equals")) {
-			return equalsImpl((RawEntity<K>) proxy, args[0]);
-		} else if (method.getName().equals("toString")) {
-			return toStringImpl();
-		} else if (method.getName().equals("init")) {
-			return null;
+		if (info.isStale()) {
+			info = getManager().getEntityInfo(type);
 		}
 		
-		checkConstraints(method, args);
-
-		String tableName = getManager().getTableNameConverter().getName(type);
-
-		Class<?> attributeType = Common.getAttributeTypeFromMethod(method);
-		String polyFieldName = null;
-		
-		if (attributeType != null) {
-			polyFieldName = (attributeType.getAnnotation(Polymorphic.class) == null ? null : 
-				getManager().getFieldNameConverter().getPolyTypeName(method));
+		return dispatch((T) proxy, method, info.getHandler(method), args);
+	}
+	
+	/**
+	 * Entry point for generated entity classes (see {@link GeneratedEntity}),
+	 * which address their methods by index into
+	 * {@link EntityInfo#getDispatchMethods(Class)} rather than by
+	 * {@link Method}.
+	 */
+	Object invoke(T entity, int index, Object[] args) throws Throwable {
+		if (info.isStale()) {
+			info = getManager().getEntityInfo(type);
 		}
 		
-		Mutator mutatorAnnotation = method.getAnnotation(Mutator.class);
-		Accessor accessorAnnotation = method.getAnnotation(Accessor.class);
-		OneToOne oneToOneAnnotation = method.getAnnotation(OneToOne.class);
-		OneToMany oneToManyAnnotation = method.getAnnotation(OneToMany.class);
-		ManyToMany manyToManyAnnotation = method.getAnnotation(ManyToMany.class);
-		
-		AnnotationDelegate annotations = Common.getAnnotationDelegate(getManager().getFieldNameConverter(), method);
-		
-		OnUpdate onUpdateAnnotation = annotations.getAnnotation(OnUpdate.class);
-		Transient transientAnnotation = annotations.getAnnotation(Transient.class);
-
-		// check annotations first, they trump all
-		if (mutatorAnnotation != null) {
-			invokeSetter((T) proxy, mutatorAnnotation.value(), args[0], onUpdateAnnotation != null, polyFieldName);
-			return Void.TYPE;
-		} else if (accessorAnnotation != null) {
-			return invokeGetter((RawEntity<?>) proxy, getKey(), tableName, accessorAnnotation.value(), polyFieldName, 
-					method.getReturnType(), onUpdateAnnotation == null && transientAnnotation == null);
-		} else if (oneToOneAnnotation != null && Common.interfaceInheritsFrom(method.getReturnType(), RawEntity.class)) {
-			Class<? extends RawEntity<?>> type = (Class<? extends RawEntity<?>>) method.getReturnType();
-
-			Object[] back = retrieveRelations((RawEntity<K>) proxy, new String[0], 
-					new String[] { Common.getPrimaryKeyField(type, getManager().getFieldNameConverter()) }, 
-					(Class<? extends RawEntity>) type, oneToOneAnnotation.where(), 
-					Common.getPolymorphicFieldNames(getManager().getFieldNameConverter(), type, this.type));
+		return dispatch(entity, info.getDispatchMethod(index), info.getHandler(index), args);
+	}
+	
+	Method getDispatchMethod(int index) {
+		return info.getDispatchMethod(index);
+	}
+	
+	private Object dispatch(T entity, Method method, EntityInfo.MethodHandler<T, K> handler, Object[] args) throws Throwable {
+		if (handler.isImplementable()) {
+			Method[] implMethods = info.getImplementationMethods(method);
 			
-			return back.length == 0 ? null : back[0];
-		} else if (oneToManyAnnotation != null && method.getReturnType().isArray() 
-				&& Common.interfaceInheritsFrom(method.getReturnType().getComponentType(), RawEntity.class)) {
-			Class<? extends RawEntity<?>> type = (Class<? extends RawEntity<?>>) method.getReturnType().getComponentType();
-
-			return retrieveRelations((RawEntity<K>) proxy, new String[0], 
-					new String[] { Common.getPrimaryKeyField(type, getManager().getFieldNameConverter()) }, 
-					(Class<? extends RawEntity>) type, oneToManyAnnotation.where(), 
-					Common.getPolymorphicFieldNames(getManager().getFieldNameConverter(), type, this.type));
-		} else if (manyToManyAnnotation != null && method.getReturnType().isArray() 
-				&& Common.interfaceInheritsFrom(method.getReturnType().getComponentType(), RawEntity.class)) {
-			Class<? extends RawEntity<?>> throughType = manyToManyAnnotation.value();
-			Class<? extends RawEntity<?>> type = (Class<? extends RawEntity<?>>) method.getReturnType().getComponentType();
-
-			return retrieveRelations((RawEntity<K>) proxy, null, 
-					Common.getMappingFields(getManager().getFieldNameConverter(), 
-							throughType, type), throughType, (Class<? extends RawEntity>) type, 
-							manyToManyAnnotation.where(),
-							Common.getPolymorphicFieldNames(getManager().getFieldNameConverter(), throughType, this.type), 
-							Common.getPolymorphicFieldNames(getManager().getFieldNameConverter(), throughType, type));
-		} else if (Common.isAccessor(method)) {
-			return invokeGetter((RawEntity<?>) proxy, getKey(), tableName, getManager().getFieldNameConverter().getName(method), 
-					polyFieldName, method.getReturnType(), onUpdateAnnotation == null && transientAnnotation == null);
-		} else if (Common.isMutator(method)) {
-			invokeSetter((T) proxy, getManager().getFieldNameConverter().getName(method), args[0], 
-					onUpdateAnnotation == null, polyFieldName);
-
-			return Void.TYPE;
+			if (implMethods.length > 0) {
+				if (implementation == null) {
+					implementation = new ImplementationWrapper<T>(entity, info.getImplementationConstructors());
+				}
+				
+				for (int i = 0; i < implMethods.length; i++) {
+					Object instance = implementation.getInstance(i);
+					
+					if (implMethods[i] != null && instance != null) {
+						final Class<?> declaringClass = implMethods[i].getDeclaringClass();
+						if (!Object.class.equals(declaringClass) && !ImplementationWrapper.isExecuting(declaringClass)) {
+							return implementation.invoke(instance, implMethods[i], args);
+						}
+						
+						break;
+					}
+				}
+			}
 		}
-
-		throw new RuntimeException("Cannot handle method with signature: " + method.toString());
+		
+		return handler.invoke(this, entity, args);
 	}
 
 	public K getKey() {
@@ -239,13 +189,52 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
   }
   // </ian>
 
-	@SuppressWarnings("unchecked")
 	public void save(RawEntity entity) throws SQLException {
+		UnitOfWork work = getManager().getUnitOfWork();
+		if (work != null) {
+			work.register(entity);
+			return;
+		}
+		
+		PendingUpdate update = prepareUpdate(entity);
+		if (update == null) {
+			return;
+		}
+		
+		Connection conn = getConnectionImpl();
+		try {
+			Logger.getLogger("net.java.ao").log(Level.INFO, update.getSQL());
+			PreparedStatement stmt = conn.prepareStatement(update.getSQL());
+			
+			update.bind(stmt);
+
+      // <ian>
+			//stmt.executeUpdate();
+      int result = stmt.executeUpdate();
+      // </ian>
+			
+			stmt.close();
+			
+			update.complete(result);
+		} finally {
+			closeConnectionImpl(conn);
+		}
+	}
+	
+	/**
+	 * Renders the UPDATE statement and parameter values for all of the dirty
+	 * fields of the entity, returning <code>null</code> if there is nothing to
+	 * save.  The relations cache is invalidated for the affected fields as a
+	 * side-effect.  The returned update must be executed and then
+	 * {@link PendingUpdate#complete(int) completed} to clear the dirty fields.
+	 */
+	@SuppressWarnings("unchecked")
+	PendingUpdate prepareUpdate(RawEntity entity) throws SQLException {
 		CacheLayer cacheLayer = getCacheLayer(entity);
 		String[] dirtyFields = cacheLayer.getDirtyFields();
 		
 		if (dirtyFields.length == 0) {
-			return;
+			return null;
 		}
 
     // <ian>
@@ -259,109 +248,119 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
     }
     // </ian>
 
-		String table = getManager().getTableNameConverter().getName(type);
+		String table = info.getTableName();
 		TypeManager manager = TypeManager.getInstance();
-		Connection conn = getConnectionImpl();
 		DatabaseProvider provider = getManager().getProvider();
 		
-		try {
-			StringBuilder sql = new StringBuilder("UPDATE " + provider.processID(table) + " SET ");
-
-			for (String field : dirtyFields) {
-				sql.append(provider.processID(field));
-
-				if (cacheLayer.contains(field)) {
-					sql.append(" = ?,");
+		boolean[] nullFields = new boolean[dirtyFields.length];
+		for (int i = 0; i < dirtyFields.length; i++) {
+			nullFields[i] = !cacheLayer.contains(dirtyFields[i]);
+		}
+		
+		String sql = info.getSQL("update", dirtyFields, nullFields);
+		
+		if (sql == null) {
+			StringBuilder builder = new StringBuilder("UPDATE " + provider.processID(table) + " SET ");
+			
+			for (int i = 0; i < dirtyFields.length; i++) {
+				builder.append(provider.processID(dirtyFields[i]));
+			
+				if (nullFields[i]) {
+					builder.append(" = NULL,");
 				} else {
-					sql.append(" = NULL,");
+					builder.append(" = ?,");
 				}
 			}
 			
       // <ian>
       if (versionField != null) {
-        sql.append(versionField).append(" = ").append(versionField).append(" + ").append(versionIncrement).append(',');
+        builder.append(versionField).append(" = ").append(versionField).append(" + ").append(versionIncrement).append(',');
       }
       // </ian>
-
-			if (sql.charAt(sql.length() - 1) == ',') {
-				sql.setLength(sql.length() - 1);
+			
+			if (builder.charAt(builder.length() - 1) == ',') {
+				builder.setLength(builder.length() - 1);
 			}
-
-			sql.append(" WHERE ").append(provider.processID(pkFieldName)).append(" = ?");
-
+			
+			builder.append(" WHERE ").append(provider.processID(pkFieldName)).append(" = ?");
+			
       // <ian>
       if (versionField != null) {
-        sql.append(" AND ").append(versionField).append(" = ?");
+        builder.append(" AND ").append(versionField).append(" = ?");
       }
       // </ian>
+			
+			sql = info.putSQL(builder.toString(), "update", dirtyFields, nullFields);
+		}
 
-			Logger.getLogger("net.java.ao").log(Level.INFO, sql.toString());
-			PreparedStatement stmt = conn.prepareStatement(sql.toString());
+		List<Object> values = new ArrayList<Object>(dirtyFields.length + 2);
+		List<DatabaseType> types = new ArrayList<DatabaseType>(dirtyFields.length + 2);
+		List<PropertyChangeEvent> events = new LinkedList<PropertyChangeEvent>();
+		
+		for (int i = 0; i < dirtyFields.length; i++) {
+			String field = dirtyFields[i];
+			
+			if (nullFields[i]) {
+				continue;
+			}
+			
+			Object value = cacheLayer.get(field);
+			events.add(new PropertyChangeEvent(entity, field, null, value));
+			
+			if (value == null) {
+				values.add(null);
+				types.add(null);
+			} else {
+				Class javaType = value.getClass();
 
-			List<PropertyChangeEvent> events = new LinkedList<PropertyChangeEvent>();
-			int index = 1;
-			for (String field : dirtyFields) {
-				if (!cacheLayer.contains(field)) {
-					continue;
+				if (value instanceof RawEntity) {
+					javaType = ((RawEntity) value).getEntityType();
 				}
-				
-				Object value = cacheLayer.get(field);
-				events.add(new PropertyChangeEvent(entity, field, null, value));
-				
-				if (value == null) {
-					getManager().getProvider().putNull(stmt, index++);
-				} else {
-					Class javaType = value.getClass();
-
-					if (value instanceof RawEntity) {
-						javaType = ((RawEntity) value).getEntityType();
-					}
 
-					DatabaseType dbType = manager.getType(javaType);
-					dbType.putToDatabase(getManager(), stmt, index++, value);
-					
-					if (!dbType.shouldCache(javaType)) {
-						cacheLayer.remove(field);
-					}
+				DatabaseType dbType = manager.getType(javaType);
+				values.add(value);
+				types.add(dbType);
+				
+				if (!dbType.shouldCache(javaType)) {
+					cacheLayer.remove(field);
 				}
 			}
-			((DatabaseType) Common.getPrimaryKeyType(type)).putToDatabase(getManager(), stmt, index++, key);
+		}
+		values.add(key);
+		types.add(Common.getPrimaryKeyType(type));
 
       // <ian>
       if (versionField != null) {
-        DatabaseType dbType = manager.getType(Integer.class);
-        dbType.putToDatabase(getManager(), stmt, index++, version);
+        values.add(version);
+        types.add(manager.getType(Integer.class));
       }
       // </ian>
 
-			getManager().getRelationsCache().remove(cacheLayer.getToFlush());
-			cacheLayer.clearFlush();
-
-			getManager().getRelationsCache().remove(entity, dirtyFields);
-
-      // <ian>
-			//stmt.executeUpdate();
-      int result = stmt.executeUpdate();
-      // </ian>
+		getManager().getRelationsCache().remove(cacheLayer.getToFlush());
+		cacheLayer.clearFlush();
 
-			for (PropertyChangeListener l : listeners) {
-				for (PropertyChangeEvent evt : events) {
-					l.propertyChange(evt);
-				}
+		getManager().getRelationsCache().remove(entity, dirtyFields);
+		
+		return new PendingUpdate(this, entity, sql, values.toArray(), types.toArray(new DatabaseType[types.size()]), events);
+	}
+	
+	private void completeUpdate(PendingUpdate update, int result) throws SQLException {
+		for (PropertyChangeListener l : listeners) {
+			for (PropertyChangeEvent evt : update.events) {
+				l.propertyChange(evt);
 			}
+		}
 
-			cacheLayer.clearDirty();
-
-			stmt.close();
+		getCacheLayer(update.entity).clearDirty();
 
       // <ian>
       if (versionField != null && result == 0) {
-        throw new SQLException("Stale object [entity=" + entity.getEntityType().getSimpleName() + ",id=" + key + "]");
+        throw new SQLException("Stale object [entity=" + update.entity.getEntityType().getSimpleName() + ",id=" + key + "]");
+      } else if (versionField != null && result == Statement.SUCCESS_NO_INFO) {
+        throw new SQLException("Unable to determine whether object is stale, no update count [entity=" 
+            + update.entity.getEntityType().getSimpleName() + ",id=" + key + "]");
       }
       // </ian>
-		} finally {
-			closeConnectionImpl(conn);
-		}
 	}
 
 	public void addPropertyChangeListener(PropertyChangeListener listener) {
@@ -394,7 +393,7 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 	}
 
 	public String toStringImpl() {
-		return getManager().getTableNameConverter().getName(type) + " {" + pkFieldName + " = " + key.toString() + "}";
+		return info.getTableName() + " {" + pkFieldName + " = " + key.toString() + "}";
 	}
 
 	@Override
@@ -437,7 +436,7 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 		getCacheLayer(entity).clear();
 	}
 	
-	private EntityManager getManager() {
+	EntityManager getManager() {
 		return manager;
 	}
 
@@ -465,7 +464,35 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 		}
 	}
 
-	private <V> V invokeGetter(RawEntity<?> entity, K key, String table, String name, String polyName, Class<V> type, 
+	/**
+	 * Associates the entity with the projection profile of the query which
+	 * returned it.  Any fields subsequently loaded by {@link #invokeGetter(RawEntity, Object, String, String, Class, boolean)}
+	 * will be recorded in the profile.
+	 * 
+	 * @param projected	The fields which were selected by the query only due to the
+	 * 		profile, or <code>null</code> if there are none.  The set is shared by
+	 * 		all entities returned from the query and must not be modified.
+	 */
+	synchronized void setProjection(ProjectionProfile projection, Set<String> projected) {
+		this.projection = projection;
+		this.projected = projected;
+		
+		projectedRead = null;
+	}
+	
+	private synchronized void readProjected(String name) {
+		if (projected != null && projected.contains(name)) {
+			if (projectedRead == null) {
+				projectedRead = new HashSet<String>();
+			}
+			
+			if (projectedRead.add(name)) {
+				getManager().countProjectionHit();
+			}
+		}
+	}
+	
+	<V> V invokeGetter(RawEntity<?> entity, K key, String name, String polyName, Class<V> type, 
 			boolean shouldCache) throws Throwable {
 		V back = null;
 		CacheLayer cacheLayer = getCacheLayer(entity);
@@ -480,47 +507,72 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 				Object value = cacheLayer.get(name);
 	
 				if (instanceOf(value, type)) {
+					readProjected(name);
 					return handleNullReturn((V) value, type);
 				} else if (Common.interfaceInheritsFrom(type, RawEntity.class) 
 						&& instanceOf(value, Common.getPrimaryKeyClassType((Class<? extends RawEntity<K>>) type))) {
 					value = getManager().peer((Class<? extends RawEntity<Object>>) type, value);
 	
 					cacheLayer.put(name, value);
+					readProjected(name);
 					return handleNullReturn((V) value, type);
 				} else {
 					cacheLayer.remove(name); // invalid cached value
 				}
 			}
 			
+			boolean loadRow = shouldCache && info.isRowField(name) && getLoadStrategy() == LoadStrategy.ROW;
+			
 			Connection conn = getConnectionImpl();
 			DatabaseProvider provider = getManager().getProvider();
 			try {
-				StringBuilder sql = new StringBuilder("SELECT ");
+				String sql = loadRow ? getRowSQL(provider) : info.<String>getSQL("select", name, polyName);
 				
-				sql.append(provider.processID(name));
-				if (polyName != null) {
-					sql.append(',').append(provider.processID(polyName));
+				if (sql == null) {
+					StringBuilder builder = new StringBuilder("SELECT ");
+					
+					builder.append(provider.processID(name));
+					if (polyName != null) {
+						builder.append(',').append(provider.processID(polyName));
+					}
+					
+					builder.append(" FROM ").append(provider.processID(info.getTableName())).append(" WHERE ");
+					builder.append(provider.processID(pkFieldName)).append(" = ?");
+					
+					sql = info.putSQL(builder.toString(), "select", name, polyName);
 				}
 	
-				sql.append(" FROM ").append(provider.processID(table)).append(" WHERE ");
-				sql.append(provider.processID(pkFieldName)).append(" = ?");
-	
-				Logger.getLogger("net.java.ao").log(Level.INFO, sql.toString());
-				PreparedStatement stmt = conn.prepareStatement(sql.toString());
+				Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+				PreparedStatement stmt = conn.prepareStatement(sql);
 				Common.getPrimaryKeyType(this.type).putToDatabase(getManager(), stmt, 1, key);
 	
 				ResultSet res = stmt.executeQuery();
 				if (res.next()) {
 					back = convertValue(res, name, polyName, type);
+					
+					if (loadRow) {
+						cacheRow(res, cacheLayer, name);
+					}
 				}
 				res.close();
 				stmt.close();
 			} finally {
 				closeConnectionImpl(conn);
 			}
+			
+			getManager().countLazyLoad();
 	
 			if (shouldCache) {
 				cacheLayer.put(name, back);
+				
+				ProjectionProfile projection = this.projection;
+				if (projection != null) {
+					projection.record(name);
+					
+					if (polyName != null) {
+						projection.record(polyName);
+					}
+				}
 			}
 	
 			return handleNullReturn(back, type);
@@ -529,6 +581,54 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 		}
 	}
 
+	private LoadStrategy getLoadStrategy() {
+		LoadStrategy back = info.getLoadStrategy();
+		if (back == null) {
+			back = getManager().getLoadStrategy();
+		}
+		
+		return back;
+	}
+	
+	private String getRowSQL(DatabaseProvider provider) {
+		String sql = info.getSQL("selectRow");
+		
+		if (sql == null) {
+			StringBuilder builder = new StringBuilder("SELECT ");
+			appendRowFields(builder, provider);
+			
+			builder.append(" FROM ").append(provider.processID(info.getTableName())).append(" WHERE ");
+			builder.append(provider.processID(pkFieldName)).append(" = ?");
+			
+			sql = info.putSQL(builder.toString(), "selectRow");
+		}
+		
+		return sql;
+	}
+	
+	private void appendRowFields(StringBuilder builder, DatabaseProvider provider) {
+		for (EntityInfo.RowField field : info.getRowFields()) {
+			builder.append(provider.processID(field.getName())).append(',');
+			
+			if (field.getPolyName() != null) {
+				builder.append(provider.processID(field.getPolyName())).append(',');
+			}
+		}
+		builder.setLength(builder.length() - 1);
+	}
+	
+	/**
+	 * Caches the values of the row fields other than the one which was
+	 * requested.  Fields with unsaved values are left alone.
+	 */
+	private void cacheRow(ResultSet res, CacheLayer cacheLayer, String requested) throws SQLException {
+		for (EntityInfo.RowField field : info.getRowFields()) {
+			if (!field.getName().equals(requested) && !cacheLayer.dirtyContains(field.getName())) {
+				cacheLayer.put(field.getName(), convertValue(res, field.getName(), field.getPolyName(), field.getType()));
+			}
+		}
+	}
+	
 	private <V> V handleNullReturn(V back, Class<V> type) {
 		if (back != null) {
 			return back;
@@ -536,28 +636,28 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 		
 		if (type.isPrimitive()) {
 			if (type.equals(boolean.class)) {
-				return (V) new Boolean(false);
+				return (V) Boolean.FALSE;
 			} else if (type.equals(char.class)) {
-				return (V) new Character(' ');
+				return (V) NULL_CHAR;
 			} else if (type.equals(int.class)) {
-				return (V) new Integer(0);
+				return (V) NULL_INT;
 			} else if (type.equals(short.class)) {
-				return (V) new Short("0");
+				return (V) NULL_SHORT;
 			} else if (type.equals(long.class)) {
-				return (V) new Long("0");
+				return (V) NULL_LONG;
 			} else if (type.equals(float.class)) {
-				return (V) new Float("0");
+				return (V) NULL_FLOAT;
 			} else if (type.equals(double.class)) {
-				return (V) new Double("0");
+				return (V) NULL_DOUBLE;
 			} else if (type.equals(byte.class)) {
-				return (V) new Byte("0");
+				return (V) NULL_BYTE;
 			}
 		}
 
 		return null;
 	}
 
-	private void invokeSetter(T entity, String name, Object value, boolean shouldCache, String polyName) throws Throwable {
+	void invokeSetter(T entity, String name, Object value, String polyName) throws Throwable {
 		CacheLayer cacheLayer = getCacheLayer(entity);
 		
 		getLock(name).writeLock().lock();
@@ -584,321 +684,656 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 		}
 	}
 
-	private <V extends RawEntity<K>> V[] retrieveRelations(RawEntity<K> entity, String[] inMapFields, 
+	<V extends RawEntity<K>> V[] retrieveRelations(RawEntity<K> entity, String[] inMapFields, 
 			String[] outMapFields, Class<V> type, String where, String[] thisPolyNames) throws SQLException {
 		return retrieveRelations(entity, inMapFields, outMapFields, type, type, where, thisPolyNames, null);
 	}
 
-	private <V extends RawEntity<K>> V[] retrieveRelations(RawEntity<K> entity, String[] inMapFields, 
+	<V extends RawEntity<K>> V[] retrieveRelations(RawEntity<K> entity, String[] inMapFields, 
 			String[] outMapFields, Class<? extends RawEntity<?>> type, Class<V> finalType, String where, 
 					String[] thisPolyNames, String[] thatPolyNames) throws SQLException {
-		if (inMapFields == null || inMapFields.length == 0) {
-			inMapFields = Common.getMappingFields(getManager().getFieldNameConverter(), type, this.type);
-		}
-		String[] fields = getFields(Common.getPrimaryKeyField(finalType, getManager().getFieldNameConverter()), 
-				inMapFields, outMapFields, where);
+		RelationQuery query = getRelationQuery(inMapFields, outMapFields, type, finalType, where, 
+				thisPolyNames, thatPolyNames);
 		
-		V[] cached = getManager().getRelationsCache().get(entity, finalType, type, fields);
+		V[] cached = getManager().getRelationsCache().get(entity, finalType, type, query.fields);
 		if (cached != null) {
 			return cached;
 		}
 		
 		List<V> back = new ArrayList<V>();
 		List<RawEntity<?>> throughValues = new ArrayList<RawEntity<?>>();
-		List<String> resPolyNames = new ArrayList<String>(thatPolyNames == null ? 0 : thatPolyNames.length);
 		
-		String table = getManager().getTableNameConverter().getName(type);
-		boolean oneToMany = type.equals(finalType);
-		Preload preloadAnnotation = finalType.getAnnotation(Preload.class);
+		String returnField = query.returnField;
+		String throughField = query.throughField;
+		int numParams = query.numParams;
+		
+		Set<String> selectFields = query.selectFields;
+		List<String> resPolyNames = query.resPolyNames;
 		
 		Connection conn = getConnectionImpl();
-		DatabaseProvider provider = getManager().getProvider();
 
 		try {
-			StringBuilder sql = new StringBuilder();
-			String returnField;
-			String throughField = null;
-			int numParams = 0;
+			Logger.getLogger("net.java.ao").log(Level.INFO, query.sql);
+			PreparedStatement stmt = conn.prepareStatement(query.sql);
+			
+			DatabaseType<K> dbType = (DatabaseType<K>) TypeManager.getInstance().getType(key.getClass());
+			int index = 0;
+			for (; index < numParams; index++) {
+				dbType.putToDatabase(getManager(), stmt, index + 1, key);
+			}
 			
-			Set<String> selectFields = new LinkedHashSet<String>();
+			int newLength = numParams + (thisPolyNames == null ? 0 : thisPolyNames.length);
+			String typeValue = getManager().getPolymorphicTypeMapper().convert(this.type);
+			for (; index < newLength; index++) {
+				stmt.setString(index + 1, typeValue);
+			}
+
+			dbType = Common.getPrimaryKeyType(finalType);
+			DatabaseType<Object> throughDBType = Common.getPrimaryKeyType((Class<? extends RawEntity<Object>>) type);
 			
-			if (oneToMany && inMapFields.length == 1 && outMapFields.length == 1 
-					&& preloadAnnotation != null && !ignorePreload) {
-				sql.append("SELECT ");		// one-to-many preload
-				
-				selectFields.add(outMapFields[0]);
-				selectFields.addAll(Arrays.asList(preloadAnnotation.value()));
+			ResultSet res = stmt.executeQuery();
+			while (res.next()) {
+				K returnValue = dbType.pullFromDatabase(getManager(), res, (Class<? extends K>) type, returnField);
+				Class<V> backType = finalType;
 				
-				if (selectFields.contains("*")) {
-					sql.append('*');
-				} else {
-					for (String field : selectFields) {
-						sql.append(provider.processID(field)).append(',');
+				for (String polyName : resPolyNames) {
+					if ((typeValue = res.getString(polyName)) != null) {
+						backType = (Class<V>) getManager().getPolymorphicTypeMapper().invert(finalType, typeValue);
+						break;
 					}
-					sql.setLength(sql.length() - 1);
 				}
 				
-				sql.append(" FROM ").append(provider.processID(table));
-				
-				sql.append(" WHERE ").append(provider.processID(inMapFields[0])).append(" = ?");
-				
-				if (!where.trim().equals("")) {
-					sql.append(" AND (").append(provider.processID(where)).append(")");
-				}
-				
-				if (thisPolyNames != null) {
-					for (String name : thisPolyNames) {
-						sql.append(" AND ").append(provider.processID(name)).append(" = ?");
-					}
+				if (backType.equals(this.type) && returnValue.equals(key)) {
+					continue;
 				}
 				
-				numParams++;
-				returnField = outMapFields[0];
-			} else if (!oneToMany && inMapFields.length == 1 && outMapFields.length == 1 
-					&& preloadAnnotation != null && !ignorePreload) {
-				String finalTable = getManager().getTableNameConverter().getName(finalType);		// many-to-many preload
-				
-				returnField = finalTable + "__aointernal__id";
-				throughField = table + "__aointernal__id";
-				
-				sql.append("SELECT ");
-				
-				String finalPKField = Common.getPrimaryKeyField(finalType, getManager().getFieldNameConverter());
-				
-				selectFields.add(finalPKField);
-				selectFields.addAll(Arrays.asList(preloadAnnotation.value()));
-				
-				if (selectFields.contains("*")) {
-					returnField = finalPKField;
-				} else {
-					sql.append(provider.processID(finalTable)).append('.').append(provider.processID(finalPKField));
-					sql.append(" AS ").append(provider.processID(returnField)).append(',');
-					
-					selectFields.remove(finalPKField);
+				if (throughField != null) {
+					throughValues.add(getManager().peer((Class<? extends RawEntity<Object>>) type, 
+							throughDBType.pullFromDatabase(getManager(), res, type, throughField)));
 				}
-				
-				sql.append(provider.processID(table)).append('.').append(
-						provider.processID(Common.getPrimaryKeyField(type, getManager().getFieldNameConverter())));
-				sql.append(" AS ").append(provider.processID(throughField)).append(',');
+
+				V returnValueEntity = getManager().peer(backType, returnValue);
+				CacheLayer returnLayer = getManager().getProxyForEntity(returnValueEntity).getCacheLayer(returnValueEntity);
 				
 				for (String field : selectFields) {
-					sql.append(provider.processID(finalTable)).append('.').append(provider.processID(field)).append(',');
-				}
-				sql.setLength(sql.length() - 1);
-				
-				if (thatPolyNames != null) {
-					for (String name : thatPolyNames) {
-						String toAppend = table + '.' + name;
-						
-						resPolyNames.add(toAppend);
-						sql.append(',').append(provider.processID(toAppend));
+					if (!resPolyNames.contains(field) && !returnLayer.dirtyContains(field)) {
+						returnLayer.put(field, res.getObject(field));
 					}
 				}
 				
-				sql.append(" FROM ").append(provider.processID(table)).append(" INNER JOIN ");
-				sql.append(provider.processID(finalTable)).append(" ON ");
-				sql.append(provider.processID(table)).append('.').append(provider.processID(outMapFields[0]));
-				sql.append(" = ").append(provider.processID(finalTable)).append('.').append(provider.processID(finalPKField));
-				
-				sql.append(" WHERE ").append(provider.processID(table)).append('.').append(
-						provider.processID(inMapFields[0])).append(" = ?");
-				
-				if (!where.trim().equals("")) {
-					sql.append(" AND (").append(where).append(")");
+				if (query.joinFetch) {
+					((EntityProxy<V, K>) getManager().getProxyForEntity(returnValueEntity)).cacheRow(res, returnLayer, null);
 				}
 				
-				if (thisPolyNames != null) {
-					for (String name : thisPolyNames) {
-						sql.append(" AND ").append(provider.processID(name)).append(" = ?");
-					}
-				}
+				back.add(returnValueEntity);
+			}
+			res.close();
+			stmt.close();
+		} finally {
+			closeConnectionImpl(conn);
+		}
+		
+		cached = back.toArray((V[]) Array.newInstance(finalType, back.size()));
 
-				numParams++;
-			} else if (inMapFields.length == 1 && outMapFields.length == 1) {	// 99% case (1-* & *-*)
-				sql.append("SELECT ").append(provider.processID(outMapFields[0]));
-				selectFields.add(outMapFields[0]);
-				
-				if (!oneToMany) {
-					throughField = Common.getPrimaryKeyField(type, getManager().getFieldNameConverter());
-					
-					sql.append(',').append(provider.processID(throughField));
-					selectFields.add(throughField);
-				}
-				
-				if (thatPolyNames != null) {
-					for (String name : thatPolyNames) {
-						resPolyNames.add(name);
-						sql.append(',').append(provider.processID(name));
-						selectFields.add(name);
-					}
-				}
-				
-				sql.append(" FROM ").append(provider.processID(table));
-				sql.append(" WHERE ").append(provider.processID(inMapFields[0])).append(" = ?");
+		getManager().getRelationsCache().put(entity, 
+				(throughValues.size() > 0 ? throughValues.toArray(new RawEntity[throughValues.size()]) : cached), 
+				type, cached, finalType, query.fields);
+		
+		return cached;
+	}
+	
+	/**
+	 * Loads the given relationship for all of the specified entities (which
+	 * must be of this proxy's type) using a single <code>WHERE inMap IN (...)</code>
+	 * query per chunk of keys (see {@link DatabaseProvider#getMaxInListSize()}).
+	 * The results are stored in the {@link net.java.ao.cache.RelationsCache}
+	 * exactly as {@link #retrieveRelations(RawEntity, String[], String[], Class, Class, String, String[], String[])}
+	 * would have stored them, so subsequent invocations of the relationship
+	 * method on any of the entities do not hit the database.  Entities for
+	 * which the relationship is already cached are skipped.  Relationships
+	 * mapped through more than one field are not loaded here; they are
+	 * left to be retrieved one entity at a time.
+	 */
+	void prefetchRelations(List<? extends RawEntity<K>> entities, EntityInfo.RelationHandler<T, K> handler) throws SQLException {
+		Class<? extends RawEntity<?>> type = handler.throughType;
+		Class<? extends RawEntity<Object>> finalType = (Class<? extends RawEntity<Object>>) handler.remoteType;
+		
+		String[] inMapFields = handler.inMapFields;
+		if (inMapFields == null || inMapFields.length == 0) {
+			inMapFields = Common.getMappingFields(getManager().getFieldNameConverter(), type, this.type);
+		}
+		
+		if (inMapFields.length != 1 || handler.outMapFields.length != 1) {
+			return;
+		}
+		
+		RelationQuery query = getRelationQuery(handler.inMapFields, handler.outMapFields, type, finalType, 
+				handler.where, handler.thisPolyNames, handler.thatPolyNames);
+		
+		Map<K, RawEntity<K>> parents = new LinkedHashMap<K, RawEntity<K>>();
+		for (RawEntity<K> entity : entities) {
+			if (getManager().getRelationsCache().get(entity, finalType, type, query.fields) == null) {
+				parents.put(Common.getPrimaryKeyValue(entity), entity);
+			}
+		}
+		
+		if (parents.isEmpty()) {
+			return;
+		}
+		
+		DatabaseProvider provider = getManager().getProvider();
+		String table = getManager().getTableNameConverter().getName(type);
+		
+		String inMapField = inMapFields[0];
+		String returnField = handler.outMapFields[0];
+		String throughField = null;
+		
+		if (!type.equals(finalType)) {
+			throughField = Common.getPrimaryKeyField(type, getManager().getFieldNameConverter());
+		}
+		
+		StringBuilder select = new StringBuilder("SELECT ");
+		select.append(provider.processID(returnField)).append(',').append(provider.processID(inMapField));
+		
+		if (throughField != null) {
+			select.append(',').append(provider.processID(throughField));
+		}
+		
+		if (handler.thatPolyNames != null) {
+			for (String name : handler.thatPolyNames) {
+				select.append(',').append(provider.processID(name));
+			}
+		}
+		
+		select.append(" FROM ").append(provider.processID(table));
+		select.append(" WHERE ").append(provider.processID(inMapField)).append(" IN (");
+		
+		StringBuilder conditions = new StringBuilder(")");
+		if (!handler.where.trim().equals("")) {
+			conditions.append(" AND (").append(provider.processID(handler.where)).append(")");
+		}
+		
+		if (handler.thisPolyNames != null) {
+			for (String name : handler.thisPolyNames) {
+				conditions.append(" AND ").append(provider.processID(name)).append(" = ?");
+			}
+		}
+		
+		String typeValue = getManager().getPolymorphicTypeMapper().convert(this.type);
+		
+		DatabaseType<K> keyType = Common.getPrimaryKeyType(this.type);
+		Class<K> keyClassType = Common.getPrimaryKeyClassType(this.type);
+		DatabaseType<Object> returnType = Common.getPrimaryKeyType(finalType);
+		Class<Object> returnClassType = Common.getPrimaryKeyClassType(finalType);
+		DatabaseType<Object> throughType = Common.getPrimaryKeyType((Class<? extends RawEntity<Object>>) type);
+		Class<Object> throughClassType = Common.getPrimaryKeyClassType((Class<? extends RawEntity<Object>>) type);
+		
+		Map<K, List<RawEntity<?>>> results = new HashMap<K, List<RawEntity<?>>>();
+		Map<K, List<RawEntity<?>>> throughResults = new HashMap<K, List<RawEntity<?>>>();
+		
+		List<K> keys = new ArrayList<K>(parents.keySet());
+		int chunkSize = Math.max(1, provider.getMaxInListSize());
+		
+		Connection conn = getConnectionImpl();
+		try {
+			for (int start = 0; start < keys.size(); start += chunkSize) {
+				List<K> chunk = keys.subList(start, Math.min(start + chunkSize, keys.size()));
 				
-				if (!where.trim().equals("")) {
-					sql.append(" AND (").append(where).append(")");
+				StringBuilder sql = new StringBuilder(select).append('?');
+				for (int i = 1; i < chunk.size(); i++) {
+					sql.append(",?");
 				}
+				sql.append(conditions);
 				
-				if (thisPolyNames != null) {
-					for (String name : thisPolyNames) {
-						sql.append(" AND ").append(provider.processID(name)).append(" = ?");
-					}
-				}
+				Logger.getLogger("net.java.ao").log(Level.INFO, sql.toString());
+				PreparedStatement stmt = conn.prepareStatement(sql.toString());
 				
-				numParams++;
-				returnField = outMapFields[0];
-			} else {
-				sql.append("SELECT DISTINCT a.outMap AS outMap");
-				selectFields.add("outMap");
+				int index = 1;
+				for (K key : chunk) {
+					keyType.putToDatabase(getManager(), stmt, index++, key);
+				}
 				
-				if (thatPolyNames != null) {
-					for (String name : thatPolyNames) {
-						resPolyNames.add(name);
-						sql.append(',').append("a.").append(provider.processID(name)).append(" AS ").append(
-								provider.processID(name));
-						selectFields.add(name);
+				if (handler.thisPolyNames != null) {
+					for (int i = 0; i < handler.thisPolyNames.length; i++) {
+						stmt.setString(index++, typeValue);
 					}
 				}
 				
-				sql.append(" FROM (");
-				returnField = "outMap";
-				
-				for (String outMap : outMapFields) {
-					for (String inMap : inMapFields) {
-						sql.append("SELECT ");
-						sql.append(provider.processID(outMap));
-						sql.append(" AS outMap,");
-						sql.append(provider.processID(inMap));
-						sql.append(" AS inMap");
-						
-						if (thatPolyNames != null) {
-							for (String name : thatPolyNames) {
-								sql.append(',').append(provider.processID(name));
-							}
-						}
-						
-						if (thisPolyNames != null) {
-							for (String name : thisPolyNames) {
-								sql.append(',').append(provider.processID(name));
+				ResultSet res = stmt.executeQuery();
+				while (res.next()) {
+					K parentKey = keyType.pullFromDatabase(getManager(), res, keyClassType, inMapField);
+					Object returnValue = returnType.pullFromDatabase(getManager(), res, returnClassType, returnField);
+					Class<? extends RawEntity<Object>> backType = finalType;
+					
+					if (handler.thatPolyNames != null) {
+						for (String polyName : handler.thatPolyNames) {
+							String polyValue = res.getString(polyName);
+							
+							if (polyValue != null) {
+								backType = (Class<? extends RawEntity<Object>>) getManager().getPolymorphicTypeMapper().invert(finalType, polyValue);
+								break;
 							}
 						}
-						
-						sql.append(" FROM ").append(provider.processID(table));
-						sql.append(" WHERE ");
-						sql.append(provider.processID(inMap)).append(" = ?");
-						
-						if (!where.trim().equals("")) {
-							sql.append(" AND (").append(where).append(")");
-						}
-						
-						sql.append(" UNION ");
-
-						numParams++;
 					}
-				}
-
-				sql.setLength(sql.length() - " UNION ".length());
-				sql.append(") a");
-				
-				if (thatPolyNames != null) {
-					if (thatPolyNames.length > 0) {
-						sql.append(" WHERE (");
+					
+					if (backType.equals(this.type) && returnValue.equals(parentKey)) {
+						continue;
 					}
 					
-					for (String name : thatPolyNames) {
-						sql.append("a.").append(provider.processID(name)).append(" = ?").append(" OR ");
+					List<RawEntity<?>> back = results.get(parentKey);
+					if (back == null) {
+						back = new ArrayList<RawEntity<?>>();
+						results.put(parentKey, back);
 					}
+					back.add(getManager().peer(backType, returnValue));
 					
-					if (thatPolyNames.length > 0) {
-						sql.setLength(sql.length() - " OR ".length());
-						sql.append(')');
+					if (throughField != null) {
+						List<RawEntity<?>> through = throughResults.get(parentKey);
+						if (through == null) {
+							through = new ArrayList<RawEntity<?>>();
+							throughResults.put(parentKey, through);
+						}
+						
+						through.add(getManager().peer((Class<? extends RawEntity<Object>>) type, 
+								throughType.pullFromDatabase(getManager(), res, throughClassType, throughField)));
 					}
 				}
+				res.close();
+				stmt.close();
+			}
+		} finally {
+			closeConnectionImpl(conn);
+		}
+		
+		for (Map.Entry<K, RawEntity<K>> entry : parents.entrySet()) {
+			List<RawEntity<?>> back = results.get(entry.getKey());
+			List<RawEntity<?>> through = throughResults.get(entry.getKey());
+			
+			RawEntity<?>[] cached = (RawEntity<?>[]) Array.newInstance(finalType, back == null ? 0 : back.size());
+			if (back != null) {
+				cached = back.toArray(cached);
+			}
+			
+			getManager().getRelationsCache().put(entry.getValue(), 
+					(through != null ? through.toArray(new RawEntity[through.size()]) : cached), 
+					type, cached, finalType, query.fields);
+		}
+	}
+	
+	/**
+	 * Loads the row fields (see {@link EntityInfo#getRowFields()}) of all of
+	 * the specified entities, which must be of this proxy's type, using a
+	 * single <code>WHERE pk IN (...)</code> query per chunk of keys.  Entities
+	 * which already have all of their row fields cached are skipped, as are
+	 * fields with unsaved values.
+	 */
+	void loadRows(List<? extends RawEntity<K>> entities) throws SQLException {
+		EntityInfo.RowField[] rowFields = info.getRowFields();
+		if (rowFields.length == 0) {
+			return;
+		}
+		
+		Map<K, CacheLayer> layers = new LinkedHashMap<K, CacheLayer>();
+		for (RawEntity<K> entity : entities) {
+			CacheLayer cacheLayer = getManager().getProxyForEntity(entity).getCacheLayer(entity);
+			
+			for (EntityInfo.RowField field : rowFields) {
+				if (!cacheLayer.contains(field.getName())) {
+					layers.put(Common.getPrimaryKeyValue(entity), cacheLayer);
+					break;
+				}
+			}
+		}
+		
+		if (layers.isEmpty()) {
+			return;
+		}
+		
+		DatabaseProvider provider = getManager().getProvider();
+		DatabaseType<K> keyType = Common.getPrimaryKeyType(this.type);
+		Class<K> keyClassType = Common.getPrimaryKeyClassType(this.type);
+		
+		StringBuilder select = new StringBuilder("SELECT ");
+		select.append(provider.processID(pkFieldName)).append(',');
+		appendRowFields(select, provider);
+		
+		select.append(" FROM ").append(provider.processID(info.getTableName())).append(" WHERE ");
+		select.append(provider.processID(pkFieldName)).append(" IN (");
+		
+		List<K> keys = new ArrayList<K>(layers.keySet());
+		int chunkSize = Math.max(1, provider.getMaxInListSize());
+		
+		Connection conn = getConnectionImpl();
+		try {
+			for (int start = 0; start < keys.size(); start += chunkSize) {
+				List<K> chunk = keys.subList(start, Math.min(start + chunkSize, keys.size()));
+				
+				StringBuilder sql = new StringBuilder(select).append('?');
+				for (int i = 1; i < chunk.size(); i++) {
+					sql.append(",?");
+				}
+				sql.append(')');
 				
-				if (thisPolyNames != null) {
-					if (thisPolyNames.length > 0) {
-						if (thatPolyNames == null) {
-							sql.append(" WHERE (");
-						} else {
-							sql.append(" AND (");
-						}
-					}
+				Logger.getLogger("net.java.ao").log(Level.INFO, sql.toString());
+				PreparedStatement stmt = conn.prepareStatement(sql.toString());
+				
+				int index = 1;
+				for (K key : chunk) {
+					keyType.putToDatabase(getManager(), stmt, index++, key);
+				}
+				
+				ResultSet res = stmt.executeQuery();
+				while (res.next()) {
+					CacheLayer cacheLayer = layers.get(keyType.pullFromDatabase(getManager(), res, keyClassType, pkFieldName));
 					
-					for (String name : thisPolyNames) {
-						sql.append("a.").append(provider.processID(name)).append(" = ?").append(" OR ");
+					if (cacheLayer != null) {
+						cacheRow(res, cacheLayer, null);
 					}
+				}
+				res.close();
+				stmt.close();
+			}
+		} finally {
+			closeConnectionImpl(conn);
+		}
+	}
+	
+	private RelationQuery getRelationQuery(String[] inMapFields, String[] outMapFields, Class<? extends RawEntity<?>> type, 
+			Class<? extends RawEntity<?>> finalType, String where, String[] thisPolyNames, String[] thatPolyNames) {
+		boolean joinFetch = getManager().isJoinFetch();
+		
+		RelationQuery query = info.getSQL("relations", type, finalType, inMapFields, outMapFields, where, 
+				thisPolyNames, thatPolyNames, ignorePreload, joinFetch);
+		if (query == null) {
+			query = info.putSQL(renderRelations(inMapFields, outMapFields, type, finalType, where, thisPolyNames, 
+					thatPolyNames, joinFetch), "relations", type, finalType, inMapFields, outMapFields, where, 
+					thisPolyNames, thatPolyNames, ignorePreload, joinFetch);
+		}
+		
+		return query;
+	}
+	
+	/**
+	 * Renders the query used by {@link #retrieveRelations(RawEntity, String[], String[], Class, Class, String, String[], String[])}
+	 * for the given relationship.  The result only depends on the relationship
+	 * signature, thus it is cached in the {@link EntityInfo}.  Many-to-many
+	 * relationships to non-polymorphic types are join fetched if enabled (see
+	 * {@link EntityManager#setJoinFetch(boolean)}), selecting the row fields of
+	 * the related type along with any preloaded fields.
+	 */
+	private RelationQuery renderRelations(String[] inMapFields, String[] outMapFields, Class<? extends RawEntity<?>> type, 
+			Class<? extends RawEntity<?>> finalType, String where, String[] thisPolyNames, String[] thatPolyNames, 
+			boolean joinFetch) {
+		if (inMapFields == null || inMapFields.length == 0) {
+			inMapFields = Common.getMappingFields(getManager().getFieldNameConverter(), type, this.type);
+		}
+		String[] fields = getFields(Common.getPrimaryKeyField(finalType, getManager().getFieldNameConverter()), 
+				inMapFields, outMapFields, where);
+		
+		String table = getManager().getTableNameConverter().getName(type);
+		boolean oneToMany = type.equals(finalType);
+		Preload preloadAnnotation = ignorePreload ? null : finalType.getAnnotation(Preload.class);
+		
+		joinFetch = joinFetch && !oneToMany && (thatPolyNames == null || thatPolyNames.length == 0);
+		
+		DatabaseProvider provider = getManager().getProvider();
+		
+		StringBuilder sql = new StringBuilder();
+		String returnField;
+		String throughField = null;
+		int numParams = 0;
+		boolean rowFetched = false;
+		
+		Set<String> selectFields = new LinkedHashSet<String>();
+		List<String> resPolyNames = new ArrayList<String>(thatPolyNames == null ? 0 : thatPolyNames.length);
+		
+		if (oneToMany && inMapFields.length == 1 && outMapFields.length == 1 && preloadAnnotation != null) {
+			sql.append("SELECT ");		// one-to-many preload
+			
+			selectFields.add(outMapFields[0]);
+			selectFields.addAll(Arrays.asList(preloadAnnotation.value()));
+			
+			if (selectFields.contains("*")) {
+				sql.append('*');
+			} else {
+				for (String field : selectFields) {
+					sql.append(provider.processID(field)).append(',');
+				}
+				sql.setLength(sql.length() - 1);
+			}
+			
+			sql.append(" FROM ").append(provider.processID(table));
+			
+			sql.append(" WHERE ").append(provider.processID(inMapFields[0])).append(" = ?");
+			
+			if (!where.trim().equals("")) {
+				sql.append(" AND (").append(provider.processID(where)).append(")");
+			}
+			
+			if (thisPolyNames != null) {
+				for (String name : thisPolyNames) {
+					sql.append(" AND ").append(provider.processID(name)).append(" = ?");
+				}
+			}
+			
+			numParams++;
+			returnField = outMapFields[0];
+		} else if (!oneToMany && inMapFields.length == 1 && outMapFields.length == 1 
+				&& (preloadAnnotation != null || joinFetch)) {
+			String finalTable = getManager().getTableNameConverter().getName(finalType);		// many-to-many preload
+			
+			returnField = finalTable + "__aointernal__id";
+			throughField = table + "__aointernal__id";
+			
+			sql.append("SELECT ");
+			
+			String finalPKField = Common.getPrimaryKeyField(finalType, getManager().getFieldNameConverter());
+			
+			selectFields.add(finalPKField);
+			if (preloadAnnotation != null) {
+				selectFields.addAll(Arrays.asList(preloadAnnotation.value()));
+			}
+			
+			Set<String> rowFields = new LinkedHashSet<String>();
+			if (joinFetch) {
+				rowFetched = true;
+				
+				for (EntityInfo.RowField field : getManager().getEntityInfo(
+						(Class<? extends RawEntity<Object>>) finalType).getRowFields()) {
+					rowFields.add(field.getName());
 					
-					if (thisPolyNames.length > 0) {
-						sql.setLength(sql.length() - " OR ".length());
-						sql.append(')');
+					if (field.getPolyName() != null) {
+						rowFields.add(field.getPolyName());
 					}
 				}
 			}
-
-			Logger.getLogger("net.java.ao").log(Level.INFO, sql.toString());
-			PreparedStatement stmt = conn.prepareStatement(sql.toString());
 			
-			DatabaseType<K> dbType = (DatabaseType<K>) TypeManager.getInstance().getType(key.getClass());
-			int index = 0;
-			for (; index < numParams; index++) {
-				dbType.putToDatabase(getManager(), stmt, index + 1, key);
+			if (selectFields.contains("*")) {
+				returnField = finalPKField;
+			} else {
+				sql.append(provider.processID(finalTable)).append('.').append(provider.processID(finalPKField));
+				sql.append(" AS ").append(provider.processID(returnField)).append(',');
+				
+				selectFields.remove(finalPKField);
 			}
 			
-			int newLength = numParams + (thisPolyNames == null ? 0 : thisPolyNames.length);
-			String typeValue = getManager().getPolymorphicTypeMapper().convert(this.type);
-			for (; index < newLength; index++) {
-				stmt.setString(index + 1, typeValue);
+			sql.append(provider.processID(table)).append('.').append(
+					provider.processID(Common.getPrimaryKeyField(type, getManager().getFieldNameConverter())));
+			sql.append(" AS ").append(provider.processID(throughField)).append(',');
+			
+			for (String field : selectFields) {
+				sql.append(provider.processID(finalTable)).append('.').append(provider.processID(field)).append(',');
+			}
+			
+			if (!selectFields.contains("*")) {
+				rowFields.removeAll(selectFields);
+				
+				for (String field : rowFields) {
+					sql.append(provider.processID(finalTable)).append('.').append(provider.processID(field)).append(',');
+				}
+			}
+			sql.setLength(sql.length() - 1);
+			
+			if (thatPolyNames != null) {
+				for (String name : thatPolyNames) {
+					String toAppend = table + '.' + name;
+					
+					resPolyNames.add(toAppend);
+					sql.append(',').append(provider.processID(toAppend));
+				}
+			}
+			
+			sql.append(" FROM ");
+			
+			if (where.trim().equals("")) {
+				sql.append(provider.processID(table));
+			} else {
+				// the unqualified where clause applies to the mapping table only
+				sql.append("(SELECT * FROM ").append(provider.processID(table));
+				sql.append(" WHERE ").append(provider.processID(where)).append(") ");
+				sql.append(provider.processID(table));
+			}
+			
+			sql.append(" INNER JOIN ");
+			sql.append(provider.processID(finalTable)).append(" ON ");
+			sql.append(provider.processID(table)).append('.').append(provider.processID(outMapFields[0]));
+			sql.append(" = ").append(provider.processID(finalTable)).append('.').append(provider.processID(finalPKField));
+			
+			sql.append(" WHERE ").append(provider.processID(table)).append('.').append(
+					provider.processID(inMapFields[0])).append(" = ?");
+			
+			if (thisPolyNames != null) {
+				for (String name : thisPolyNames) {
+					sql.append(" AND ").append(provider.processID(table)).append('.').append(
+							provider.processID(name)).append(" = ?");
+				}
 			}
 
-			dbType = Common.getPrimaryKeyType(finalType);
-			DatabaseType<Object> throughDBType = Common.getPrimaryKeyType((Class<? extends RawEntity<Object>>) type);
+			numParams++;
+		} else if (inMapFields.length == 1 && outMapFields.length == 1) {	// 99% case (1-* & *-*)
+			sql.append("SELECT ").append(provider.processID(outMapFields[0]));
+			selectFields.add(outMapFields[0]);
 			
-			ResultSet res = stmt.executeQuery();
-			while (res.next()) {
-				K returnValue = dbType.pullFromDatabase(getManager(), res, (Class<? extends K>) type, returnField);
-				Class<V> backType = finalType;
+			if (!oneToMany) {
+				throughField = Common.getPrimaryKeyField(type, getManager().getFieldNameConverter());
 				
-				for (String polyName : resPolyNames) {
-					if ((typeValue = res.getString(polyName)) != null) {
-						backType = (Class<V>) getManager().getPolymorphicTypeMapper().invert(finalType, typeValue);
-						break;
+				sql.append(',').append(provider.processID(throughField));
+				selectFields.add(throughField);
+			}
+			
+			if (thatPolyNames != null) {
+				for (String name : thatPolyNames) {
+					resPolyNames.add(name);
+					sql.append(',').append(provider.processID(name));
+					selectFields.add(name);
+				}
+			}
+			
+			sql.append(" FROM ").append(provider.processID(table));
+			sql.append(" WHERE ").append(provider.processID(inMapFields[0])).append(" = ?");
+			
+			if (!where.trim().equals("")) {
+				sql.append(" AND (").append(where).append(")");
+			}
+			
+			if (thisPolyNames != null) {
+				for (String name : thisPolyNames) {
+					sql.append(" AND ").append(provider.processID(name)).append(" = ?");
+				}
+			}
+			
+			numParams++;
+			returnField = outMapFields[0];
+		} else {
+			sql.append("SELECT DISTINCT a.outMap AS outMap");
+			selectFields.add("outMap");
+			
+			if (thatPolyNames != null) {
+				for (String name : thatPolyNames) {
+					resPolyNames.add(name);
+					sql.append(',').append("a.").append(provider.processID(name)).append(" AS ").append(
+							provider.processID(name));
+					selectFields.add(name);
+				}
+			}
+			
+			sql.append(" FROM (");
+			returnField = "outMap";
+			
+			for (String outMap : outMapFields) {		// one subselect per out field, matching any of the in fields
+				sql.append("SELECT ");
+				sql.append(provider.processID(outMap));
+				sql.append(" AS outMap");
+				
+				if (thatPolyNames != null) {
+					for (String name : thatPolyNames) {
+						sql.append(',').append(provider.processID(name));
 					}
 				}
 				
-				if (backType.equals(this.type) && returnValue.equals(key)) {
-					continue;
+				if (thisPolyNames != null) {
+					for (String name : thisPolyNames) {
+						sql.append(',').append(provider.processID(name));
+					}
 				}
 				
-				if (throughField != null) {
-					throughValues.add(getManager().peer((Class<? extends RawEntity<Object>>) type, 
-							throughDBType.pullFromDatabase(getManager(), res, type, throughField)));
+				sql.append(" FROM ").append(provider.processID(table));
+				sql.append(" WHERE (");
+				
+				for (String inMap : inMapFields) {
+					sql.append(provider.processID(inMap)).append(" = ? OR ");
+					numParams++;
+				}
+				sql.setLength(sql.length() - " OR ".length());
+				sql.append(')');
+				
+				if (!where.trim().equals("")) {
+					sql.append(" AND (").append(where).append(")");
 				}
+				
+				sql.append(" UNION ");
+			}
 
-				V returnValueEntity = getManager().peer(backType, returnValue);
-				CacheLayer returnLayer = getManager().getProxyForEntity(returnValueEntity).getCacheLayer(returnValueEntity);
+			sql.setLength(sql.length() - " UNION ".length());
+			sql.append(") a");
+			
+			if (thatPolyNames != null) {
+				if (thatPolyNames.length > 0) {
+					sql.append(" WHERE (");
+				}
 				
-				for (String field : selectFields) {
-					if (!resPolyNames.contains(field)) {
-						returnLayer.put(field, res.getObject(field));
+				for (String name : thatPolyNames) {
+					sql.append("a.").append(provider.processID(name)).append(" = ?").append(" OR ");
+				}
+				
+				if (thatPolyNames.length > 0) {
+					sql.setLength(sql.length() - " OR ".length());
+					sql.append(')');
+				}
+			}
+			
+			if (thisPolyNames != null) {
+				if (thisPolyNames.length > 0) {
+					if (thatPolyNames == null) {
+						sql.append(" WHERE (");
+					} else {
+						sql.append(" AND (");
 					}
 				}
 				
-				back.add(returnValueEntity);
+				for (String name : thisPolyNames) {
+					sql.append("a.").append(provider.processID(name)).append(" = ?").append(" OR ");
+				}
+				
+				if (thisPolyNames.length > 0) {
+					sql.setLength(sql.length() - " OR ".length());
+					sql.append(')');
+				}
 			}
-			res.close();
-			stmt.close();
-		} finally {
-			closeConnectionImpl(conn);
 		}
 		
-		cached = back.toArray((V[]) Array.newInstance(finalType, back.size()));
-
-		getManager().getRelationsCache().put(entity, 
-				(throughValues.size() > 0 ? throughValues.toArray(new RawEntity[throughValues.size()]) : cached), 
-				type, cached, finalType, fields);
-		
-		return cached;
+		return new RelationQuery(fields, sql.toString(), returnField, throughField, numParams, 
+				Collections.unmodifiableSet(selectFields), Collections.unmodifiableList(resPolyNames), rowFetched);
 	}
 	
 	private String[] getFields(String pkField, String[] inMapFields, String[] outMapFields, String where) {
@@ -971,16 +1406,92 @@ class EntityProxy<T extends RawEntity<K>, K> implements InvocationHandler {
 
 		return false;
 	}
-
-	private void checkConstraints(Method method, Object[] args) {
-		AnnotationDelegate annotations = Common.getAnnotationDelegate(getManager().getFieldNameConverter(), method);
+	
+	/**
+	 * A rendered but not yet executed UPDATE of the dirty fields of a single
+	 * entity.  Updates with the same SQL may be executed together as a JDBC
+	 * batch (see {@link UnitOfWork}).
+	 */
+	static class PendingUpdate {
+		private final EntityProxy<?, ?> proxy;
+		private final RawEntity<?> entity;
+		private final String sql;
 		
-		NotNull notNullAnnotation = annotations.getAnnotation(NotNull.class);
-		if (notNullAnnotation != null && args != null && args.length > 0) {
-			if (args[0] == null) {
-				String name = getManager().getFieldNameConverter().getName(method);
-				throw new IllegalArgumentException("Field '" + name + "' does not accept null values");
+		private final Object[] values;
+		private final DatabaseType<?>[] types;
+		private final List<PropertyChangeEvent> events;
+		
+		private PendingUpdate(EntityProxy<?, ?> proxy, RawEntity<?> entity, String sql, Object[] values, 
+				DatabaseType<?>[] types, List<PropertyChangeEvent> events) {
+			this.proxy = proxy;
+			this.entity = entity;
+			this.sql = sql;
+			this.values = values;
+			this.types = types;
+			this.events = events;
+		}
+		
+		public String getSQL() {
+			return sql;
+		}
+		
+		/**
+		 * Determines whether the update count is needed to complete the update,
+		 * i.e. whether the entity is versioned.
+		 */
+		public boolean isVersioned() {
+			return proxy.versionField != null;
+		}
+		
+		@SuppressWarnings("unchecked")
+		public void bind(PreparedStatement stmt) throws SQLException {
+			EntityManager manager = proxy.getManager();
+			
+			for (int i = 0; i < values.length; i++) {
+				if (values[i] == null) {
+					manager.getProvider().putNull(stmt, i + 1);
+				} else {
+					((DatabaseType<Object>) types[i]).putToDatabase(manager, stmt, i + 1, values[i]);
+				}
 			}
 		}
+		
+		/**
+		 * Fires the property change events for the update and clears the dirty
+		 * fields of the entity, throwing an exception if the entity is versioned
+		 * and the UPDATE didn't match any rows (or the driver didn't report
+		 * whether it did).
+		 * 
+		 * @param result	The update count for the executed statement.
+		 */
+		public void complete(int result) throws SQLException {
+			proxy.completeUpdate(this, result);
+		}
+	}
+	
+	private static class RelationQuery {
+		private final String[] fields;
+		private final String sql;
+		
+		private final String returnField;
+		private final String throughField;
+		private final int numParams;
+		
+		private final Set<String> selectFields;
+		private final List<String> resPolyNames;
+		
+		private final boolean joinFetch;
+		
+		public RelationQuery(String[] fields, String sql, String returnField, String throughField, int numParams, 
+				Set<String> selectFields, List<String> resPolyNames, boolean joinFetch) {
+			this.fields = fields;
+			this.sql = sql;
+			this.returnField = returnField;
+			this.throughField = throughField;
+			this.numParams = numParams;
+			this.selectFields = selectFields;
+			this.resPolyNames = resPolyNames;
+			this.joinFetch = joinFetch;
+		}
 	}
 }
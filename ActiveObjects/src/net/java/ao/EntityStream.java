@@ -0,0 +1,224 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.java.ao.cache.CacheLayer;
+import net.java.ao.types.DatabaseType;
+
+/**
+ * <p>An open, forward-only cursor over the entities selected by a query, as
+ * returned from {@link EntityManager#stream(Class, Query, boolean)}.  Rows are
+ * read from the database only as the stream is iterated, thus arbitrarily
+ * large result sets may be processed in constant memory.</p>
+ * 
+ * <p>The stream holds a connection, statement and result set open until the
+ * last entity has been read or {@link #close()} is called.  The connection
+ * is dedicated to the stream rather than bound to the current thread, so
+ * entities may be lazily loaded while iterating even on drivers (such as
+ * MySQL) which block the streaming connection.  Streams must always be
+ * closed once they are no longer needed, usually in a <code>finally</code>
+ * block.  Streams are not thread-safe and should only be used on the thread
+ * which created them.</p>
+ * 
+ * <p>Since {@link Iterator} methods cannot throw checked exceptions, any
+ * {@link SQLException} which occurs while reading a row is wrapped in a
+ * {@link RuntimeException} (after closing the stream).</p>
+ * 
+ * @author Daniel Spiewak
+ */
+public class EntityStream<T extends RawEntity<?>> implements Iterator<T>, Iterable<T> {
+	private final EntityManager manager;
+	private final Class<T> type;
+	private final String field;
+	private final Class<Object> pkClassType;
+	private final DatabaseType<Object> pkType;
+	private final String[] cacheFields;
+	private final boolean readOnly;
+	
+	private final DelegateConnection conn;
+	private final boolean autoCommit;
+	
+	private PreparedStatement stmt;
+	private ResultSet res;
+	
+	private T next;
+	private boolean closed;
+	
+	@SuppressWarnings("unchecked")
+	EntityStream(EntityManager manager, Class<T> type, String field, Query query, String sql, boolean readOnly) throws SQLException {
+		this.manager = manager;
+		this.type = type;
+		this.field = field;
+		this.readOnly = readOnly;
+		
+		pkClassType = Common.getPrimaryKeyClassType((Class) type);
+		pkType = Common.getPrimaryKeyType((Class) type);
+		cacheFields = query.getCanonicalFields(type, manager.getFieldNameConverter());
+		
+		DatabaseProvider provider = manager.getProvider();
+		if (provider.isTransactionInProgress()) {
+			throw new IllegalStateException("Entities cannot be streamed within a transaction");
+		}
+		
+		conn = provider.getDetachedConnection();
+		
+		autoCommit = provider.isStreamingTransactionRequired() && conn.getAutoCommit();
+		
+		try {
+			if (autoCommit) {
+				conn.setAutoCommit(false);
+			}
+			
+			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+			stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			provider.setStreamingStatementProperties(stmt, query);
+			
+			query.setParameters(manager, stmt);
+			
+			res = stmt.executeQuery();
+			provider.setStreamingResultSetProperties(res, query);
+		} catch (SQLException e) {
+			closeQuietly();
+			throw e;
+		} catch (RuntimeException e) {
+			closeQuietly();
+			throw e;
+		}
+	}
+	
+	public boolean hasNext() {
+		if (next == null && !closed) {
+			try {
+				next = fetch();
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		return next != null;
+	}
+	
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		
+		T back = next;
+		next = null;
+		
+		return back;
+	}
+	
+	/**
+	 * Unsupported, entities must be removed using {@link EntityManager#delete(RawEntity...)}.
+	 * 
+	 * @throws UnsupportedOperationException	Always.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	/**
+	 * Returns this stream, allowing it to be used in a <code>for</code> loop.
+	 * Note that the stream can only be iterated once.
+	 */
+	public Iterator<T> iterator() {
+		return this;
+	}
+	
+	/**
+	 * Closes the result set and statement and releases the connection.  If
+	 * auto-commit was disabled for the stream, it is re-enabled.  Calling
+	 * this method on a closed stream has no effect.
+	 */
+	public void close() throws SQLException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		next = null;
+		
+		try {
+			if (res != null) {
+				res.close();
+			}
+			
+			if (stmt != null) {
+				stmt.close();
+			}
+			
+			if (autoCommit) {
+				conn.commit();
+				conn.setAutoCommit(true);
+			}
+		} finally {
+			conn.close();
+		}
+	}
+	
+	/**
+	 * Reads the next row, returning <code>null</code> (and closing the
+	 * stream) once the result set has been exhausted.
+	 */
+	@SuppressWarnings("unchecked")
+	T fetch() throws SQLException {
+		if (closed) {
+			return null;
+		}
+		
+		try {
+			if (!res.next()) {
+				close();
+				return null;
+			}
+			
+			Object key = pkType.pullFromDatabase(manager, res, pkClassType, field);
+			
+			RawEntity entity;
+			if (readOnly) {
+				entity = manager.peerReadOnly((Class) type, key);
+			} else {
+				entity = manager.peer((Class) type, key);
+			}
+			
+			CacheLayer cacheLayer = manager.getProxyForEntity(entity).getCacheLayer(entity);
+			for (String cacheField : cacheFields) {
+				cacheLayer.put(cacheField, res.getObject(cacheField));
+			}
+			
+			return (T) entity;
+		} catch (SQLException e) {
+			closeQuietly();
+			throw e;
+		}
+	}
+	
+	private void closeQuietly() {
+		try {
+			close();
+		} catch (SQLException e) {
+		}
+	}
+}
@@ -1,47 +1,33 @@
-/*
- * Copyright 2007 Daniel Spiewak
- * 
- * Licensed under the Apache License, Version 2.0 (the "License"); 
- * you may not use this file except in compliance with the License. 
- * You may obtain a copy of the License at
- * 
- *	    http://www.apache.org/licenses/LICENSE-2.0 
- * 
- * Unless required by applicable law or agreed to in writing, software 
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package net.java.ao;
-
-import java.lang.reflect.Method;
-
-/**
- * @author Daniel Spiewak
- */
-class MethodImplWrapper {
-	private Object instance;
-	private Method method;
-	
-	public MethodImplWrapper(Object instance, Method method) {
-		this.instance = instance;
-		this.method = method;
-	}
-
-	public Object getInstance() {
-		return instance;
-	}
-
-	public void setInstance(Object instance) {
-		this.instance = instance;
-	}
-
-	public Method getMethod() {
-		return method;
-	}
-
-	public void setMethod(Method method) {
-		this.method = method;
-	}
-}
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+/**
+ * Callback interface used to process the results of
+ * {@link EntityManager#stream(Class, Query, boolean, EntityStreamCallback)}
+ * one entity at a time.
+ * 
+ * @author Daniel Spiewak
+ */
+public interface EntityStreamCallback<T extends RawEntity<?>> {
+	
+	/**
+	 * Called once for every row in the result set, in order.
+	 * 
+	 * @param entity	The entity corresponding to the current row.
+	 */
+	public void onRowRead(T entity);
+}
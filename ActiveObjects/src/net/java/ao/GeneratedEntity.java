@@ -0,0 +1,110 @@
+/*
+ * Copyright 2008 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+
+/**
+ * <p>WARNING: <i>Not</i> part of the public API.  This class is public only
+ * to allow runtime-generated entity classes (which are defined in their own
+ * class loader) to extend it.</p>
+ * 
+ * <p>The superclass of all entity implementations generated by
+ * {@link EntityClassGenerator}.  Each generated method simply boxes its
+ * arguments (if any) and calls {@link #$dispatch(int, Object[])} with an
+ * index which was determined when the class was generated.  This avoids
+ * the <code>Method</code> lookup and reflective overhead of
+ * {@link java.lang.reflect.Proxy}, while preserving exactly the same
+ * semantics as the proxy-based entities.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+public abstract class GeneratedEntity {
+	private EntityProxy<?, ?> handler;
+	
+	protected GeneratedEntity() {
+	}
+	
+	/**
+	 * Creates a new (unbound) instance of the concrete generated class.
+	 * Used in place of reflective instantiation.
+	 */
+	protected abstract GeneratedEntity $create();
+	
+	void bind(EntityProxy<?, ?> handler) {
+		this.handler = handler;
+	}
+	
+	EntityProxy<?, ?> getHandler() {
+		return handler;
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected final Object $dispatch(int index, Object[] args) throws Throwable {
+		EntityProxy<RawEntity<Object>, Object> handler = (EntityProxy<RawEntity<Object>, Object>) this.handler;
+		
+		try {
+			return handler.invoke((RawEntity<Object>) this, index, args);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			Method method = handler.getDispatchMethod(index);
+			
+			for (Class<?> declared : method.getExceptionTypes()) {
+				if (declared.isInstance(t)) {
+					throw t;
+				}
+			}
+			
+			throw new UndeclaredThrowableException(t);
+		}
+	}
+	
+	protected static boolean $boolean(Object value) {
+		return (Boolean) value;
+	}
+	
+	protected static byte $byte(Object value) {
+		return (Byte) value;
+	}
+	
+	protected static char $char(Object value) {
+		return (Character) value;
+	}
+	
+	protected static short $short(Object value) {
+		return (Short) value;
+	}
+	
+	protected static int $int(Object value) {
+		return (Integer) value;
+	}
+	
+	protected static long $long(Object value) {
+		return (Long) value;
+	}
+	
+	protected static float $float(Object value) {
+		return (Float) value;
+	}
+	
+	protected static double $double(Object value) {
+		return (Double) value;
+	}
+}
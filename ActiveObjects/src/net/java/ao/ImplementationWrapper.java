@@ -17,59 +17,77 @@ package net.java.ao;
 
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * <p>Holds the {@link Implementation} instances for a single entity.  The
+ * classes (and constructors) to instantiate are resolved once per type by
+ * {@link EntityInfo}; this class only creates the instances and invokes
+ * the implementation methods.</p>
+ * 
+ * <p>Calls made to an entity from within one of its implementation
+ * classes must not be dispatched back to that same implementation (this
+ * would usually lead to infinite recursion).  Rather than inspecting the
+ * stack on each call, every invocation of an implementation method marks
+ * its declaring class as executing on the current thread for the duration
+ * of the call.  See {@link #isExecuting(Class)}.</p>
+ * 
  * @author Daniel Spiewak
  */
 class ImplementationWrapper<T extends RawEntity<?>> {
-	private List<Object> implementations;
-	private boolean initialized = false;
-	
-	public ImplementationWrapper() {
-		implementations = new ArrayList<Object>();
-	}
+	private static final ThreadLocal<List<Class<?>>> executing = new ThreadLocal<List<Class<?>>>() {
+		@Override
+		protected List<Class<?>> initialValue() {
+			return new ArrayList<Class<?>>();
+		}
+	};
 	
-	public void init(T instance) {
-		init(instance, instance.getEntityType());
-		initialized = true;
-	}
+	private final Object[] implementations;
 	
-	private void init(T instance, Class<? extends RawEntity<?>> clazz) {
-		Implementation implAnnotation = clazz.getAnnotation(Implementation.class);
+	/**
+	 * @param constructors	The implementation constructors in dispatch order,
+	 * 		as resolved by {@link EntityInfo#getImplementationConstructors()}.
+	 */
+	public ImplementationWrapper(T instance, Constructor<?>[] constructors) {
+		implementations = new Object[constructors.length];
 		
-		if (implAnnotation != null) {
+		for (int i = 0; i < constructors.length; i++) {
 			try {
-				Constructor<Object> con = (Constructor<Object>) implAnnotation.value().getConstructor(clazz);
-				implementations.add(con.newInstance(instance));
-			} catch (SecurityException e) {
-			} catch (NoSuchMethodException e) {
+				implementations[i] = constructors[i].newInstance(instance);
 			} catch (IllegalArgumentException e) {
 			} catch (InstantiationException e) {
 			} catch (IllegalAccessException e) {
 			} catch (InvocationTargetException e) {
 			}
 		}
-		
-		for (Class<?> sup : clazz.getInterfaces()) {
-			init(instance, (Class<? extends RawEntity<?>>) sup);
-		}
 	}
 	
-	public MethodImplWrapper getMethod(String name, Class<?>... parameterTypes) {
-		if (!initialized) {
-			return null;
-		}
+	/**
+	 * Returns the implementation instance at the given index, or
+	 * <code>null</code> if it could not be instantiated.
+	 */
+	public Object getInstance(int index) {
+		return implementations[index];
+	}
+	
+	public Object invoke(Object instance, Method method, Object[] args) throws IllegalAccessException, InvocationTargetException {
+		List<Class<?>> classes = executing.get();
 		
-		for (Object obj : implementations) {
-			try {
-				return new MethodImplWrapper(obj, obj.getClass().getMethod(name, parameterTypes));
-			} catch (SecurityException e) {
-			} catch (NoSuchMethodException e) {
-			}
+		classes.add(method.getDeclaringClass());
+		try {
+			return method.invoke(instance, args);
+		} finally {
+			classes.remove(classes.size() - 1);
 		}
-		
-		return null;
+	}
+	
+	/**
+	 * Determines whether a method declared by the given implementation
+	 * class is currently executing on this thread.
+	 */
+	public static boolean isExecuting(Class<?> implementation) {
+		return executing.get().contains(implementation);
 	}
 }
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+/**
+ * Determines how an entity loads the value of a field when an accessor is
+ * called and the value is not yet cached.  The strategy may be specified
+ * for all entities of a manager (see {@link EntityManager#setLoadStrategy(LoadStrategy)})
+ * or for a single type using the {@link Loading} annotation.
+ * 
+ * @author Daniel Spiewak
+ */
+public enum LoadStrategy {
+	
+	/**
+	 * Only the requested field is selected.  This is the default.
+	 */
+	FIELD,
+	
+	/**
+	 * All of the cacheable fields of the row (or only those listed in
+	 * {@link Loading#fields()}) are selected by a single query and
+	 * cached along with the requested field.  Fields which are never
+	 * cached (e.g. those of type <code>InputStream</code> or annotated
+	 * with {@link Transient}) are still loaded individually.
+	 */
+	ROW
+}
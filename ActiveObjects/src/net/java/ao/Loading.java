@@ -0,0 +1,50 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * <p>Specifies the {@link LoadStrategy} used by entities of the annotated
+ * type, overriding the strategy of the {@link EntityManager}.  For example,
+ * the following will load the name, email and company of a person together
+ * the first time any one of them is accessed:</p>
+ * 
+ * <pre>@Loading(value=LoadStrategy.ROW, fields={"name", "email", "companyID"})
+ * public interface Person extends Entity {
+ *     // ...
+ * }</pre>
+ * 
+ * @author Daniel Spiewak
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Loading {
+	
+	/**
+	 * The strategy used to load fields of the type.
+	 */
+	LoadStrategy value();
+	
+	/**
+	 * The fields which are loaded together when using {@link LoadStrategy#ROW}.
+	 * By default, all cacheable fields of the type are loaded.
+	 */
+	String[] fields() default {};
+}
@@ -21,6 +21,7 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.List;
 import java.util.Set;
 
 import net.java.ao.schema.TableNameConverter;
@@ -93,6 +94,22 @@ public abstract class PoolProvider extends DatabaseProvider {
 		return delegate.renderQuery(query, converter, count);
 	}
 	
+	/**
+	 * @see net.java.ao.DatabaseProvider#renderDelete(Class, Query, TableNameConverter)
+	 */
+	@Override
+	public String renderDelete(Class<? extends RawEntity<?>> type, Query query, TableNameConverter converter) {
+		return delegate.renderDelete(type, query, converter);
+	}
+	
+	/**
+	 * @see net.java.ao.DatabaseProvider#renderUpdate(Class, Query, String[], TableNameConverter)
+	 */
+	@Override
+	public String renderUpdate(Class<? extends RawEntity<?>> type, Query query, String[] fields, TableNameConverter converter) {
+		return delegate.renderUpdate(type, query, fields, converter);
+	}
+	
 	/**
 	 * @see net.java.ao.DatabaseProvider#setQueryStatementProperties(Statement, Query)
 	 */
@@ -109,6 +126,37 @@ public abstract class PoolProvider extends DatabaseProvider {
 		delegate.setQueryResultSetProperties(res, query);
 	}
 	
+	/**
+	 * @see net.java.ao.DatabaseProvider#setStreamingStatementProperties(Statement, Query)
+	 */
+	@Override
+	public void setStreamingStatementProperties(Statement stmt, Query query) throws SQLException {
+		delegate.setStreamingStatementProperties(stmt, query);
+	}
+	
+	/**
+	 * @see net.java.ao.DatabaseProvider#setStreamingResultSetProperties(ResultSet, Query)
+	 */
+	@Override
+	public void setStreamingResultSetProperties(ResultSet res, Query query) throws SQLException {
+		delegate.setStreamingResultSetProperties(res, query);
+	}
+	
+	@Override
+	public int getQueryFetchSize() {
+		return delegate.getQueryFetchSize();
+	}
+	
+	@Override
+	public int getStreamingFetchSize() {
+		return delegate.getStreamingFetchSize();
+	}
+	
+	@Override
+	public boolean isStreamingTransactionRequired() {
+		return delegate.isStreamingTransactionRequired();
+	}
+	
 	/**
 	 * @see net.java.ao.DatabaseProvider#getTables(Connection)
 	 */
@@ -150,6 +198,32 @@ public abstract class PoolProvider extends DatabaseProvider {
 		return delegate.isCaseSensetive();
 	}
 	
+	@Override
+	public int getMaxInListSize() {
+		return delegate.getMaxInListSize();
+	}
+	
+	@Override
+	public <T> List<T> insertBatchReturningKeys(EntityManager manager, Connection conn, Class<T> pkType, 
+			String pkField, boolean pkIdentity, String table, List<DBParam[]> rows) throws SQLException {
+		return delegate.insertBatchReturningKeys(manager, conn, pkType, pkField, pkIdentity, table, rows);
+	}
+	
+	@Override
+	protected boolean isBatchGeneratedKeysSupported() {
+		return delegate.isBatchGeneratedKeysSupported();
+	}
+	
+	@Override
+	public int getMaxBatchSize() {
+		return delegate.getMaxBatchSize();
+	}
+	
+	@Override
+	public boolean isBatchUpdateCountSupported() {
+		return delegate.isBatchUpdateCountSupported();
+	}
+	
 	/**
 	 * <p>Should release all resources held by the pool.  This is especially important
 	 * to implement for pool providers, as conection pools may have connections
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * <p>The fields which have been lazily loaded (see
+ * {@link EntityProxy#invokeGetter(RawEntity, Object, String, String, Class, boolean)})
+ * from entities returned by a particular query "shape" (a given entity type
+ * and SELECT statement).  Entities returned by {@link EntityManager#find(Class, String, Query)}
+ * hold a reference to the profile of their query, allowing subsequent finds with
+ * the same shape to select these fields up front rather than loading them
+ * one query per entity and field.</p>
+ * 
+ * <p>Fields are only ever added to a profile.  As such, the set of fields
+ * changes very rarely and is read on every find, thus a copy-on-write set
+ * is used.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class ProjectionProfile {
+	private final Set<String> fields = new CopyOnWriteArraySet<String>();
+	
+	public void record(String field) {
+		fields.add(field);
+	}
+	
+	public Set<String> getFields() {
+		return fields;
+	}
+}
@@ -55,6 +55,16 @@ public class Query implements Serializable {
 	private int limit = -1;
 	private int offset = -1;
 	
+	private String afterField;
+	private Object afterValue;
+	
+	private int fetchSize = -1;
+	private int maxRows = -1;
+	private int timeout = -1;
+	
+	private String[] preloadFields;
+	private String[] includes;
+	
 	private Map<Class<? extends RawEntity<?>>, String> joins;
 	
 	private static final long serialVersionUID = 1l;
@@ -130,6 +140,7 @@ public class Query implements Serializable {
 	
 	public Query order(String clause) {
 		orderClause = clause;
+		checkKeyset();
 		
 		return this;
 	}
@@ -152,14 +163,129 @@ public class Query implements Serializable {
 		return this;
 	}
 	
+	/**
+	 * <p>Restricts the query to rows whose value for the given field is greater
+	 * than the specified value, and orders the results by that field (unless
+	 * an ORDER BY clause is explicitly specified).  This allows keyset (or
+	 * "seek") pagination: rather than using an offset, each page is selected
+	 * by passing the value of the field from the last row of the previous
+	 * page, which the database can resolve using an index on the field.</p>
+	 * 
+	 * <p>The field should be unique (e.g. the primary key), otherwise rows
+	 * with the same value may be skipped between pages.  A <code>null</code>
+	 * value selects the first page.  An explicit ORDER BY clause must order
+	 * ascending by the same field, and the query may not specify any joins
+	 * (the field is not qualified by table).</p>
+	 * 
+	 * <pre>Query.select().after("id", lastPage[lastPage.length - 1].getID()).limit(100)</pre>
+	 * 
+	 * @throws IllegalStateException	If the query is ordered by a different
+	 * 		field or specifies joins.
+	 * @see EntityManager#findPages(Class, Query, int)
+	 */
+	public Query after(String field, Object value) {
+		afterField = field;
+		checkKeyset();
+		
+		if (value instanceof RawEntity<?>) {
+			value = Common.getPrimaryKeyValue((RawEntity<?>) value);
+		}
+		afterValue = value;
+		
+		return this;
+	}
+	
+	/**
+	 * Ensures that a keyset predicate (see {@link #after(String, Object)})
+	 * is consistent with the order and joins of the query, whichever was
+	 * specified first.
+	 */
+	private void checkKeyset() {
+		if (afterField == null) {
+			return;
+		}
+		
+		if (orderClause != null) {
+			String order = orderClause.replaceAll("[\"`]", "").trim();
+			
+			if (!order.matches("(?i)\\Q" + afterField + "\\E(\\s+ASC)?")) {
+				throw new IllegalStateException("Keyset pagination requires the query to be ordered by " + afterField);
+			}
+		}
+		
+		if (!joins.isEmpty()) {
+			throw new IllegalStateException("Keyset pagination cannot be combined with joins");
+		}
+	}
+	
+	/**
+	 * Specifies fields which should be selected along with the query fields
+	 * and cached in the returned entities, in the same manner as fields
+	 * named in a {@link Preload} annotation.  Subsequent calls to the
+	 * corresponding accessors will not query the database.
+	 * 
+	 * <pre>manager.find(Person.class, Query.select().where("age &gt; ?", 21).preload("firstName", "lastName"))</pre>
+	 */
+	public Query preload(String... fields) {
+		preloadFields = fields;
+		
+		return this;
+	}
+	
+	/**
+	 * Specifies relationships which should be loaded for all of the returned
+	 * entities at once, as if by {@link EntityManager#prefetch(RawEntity[], String...)}.
+	 * Nested relationships may be specified using dotted paths.
+	 * 
+	 * <pre>manager.find(Person.class, Query.select().include("pens", "company.people"))</pre>
+	 */
+	public Query include(String... relations) {
+		includes = relations;
+		
+		return this;
+	}
+	
+	/**
+	 * Hints the number of rows which should be fetched from the database in
+	 * each round trip while reading the results of the query.  If unspecified,
+	 * the provider default is used (see {@link DatabaseProvider#getQueryFetchSize()}).
+	 */
+	public Query fetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+		
+		return this;
+	}
+	
+	/**
+	 * Limits the number of rows which the JDBC driver will return for the
+	 * query.  Unlike {@link #limit(int)}, this is not rendered into the SQL.
+	 */
+	public Query maxRows(int maxRows) {
+		this.maxRows = maxRows;
+		
+		return this;
+	}
+	
+	/**
+	 * Specifies the number of seconds the JDBC driver will wait for the
+	 * query to execute before cancelling it.
+	 */
+	public Query timeout(int timeout) {
+		this.timeout = timeout;
+		
+		return this;
+	}
+	
 	public Query join(Class<? extends RawEntity<?>> join, String on) {
 		joins.put(join, on);
+		checkKeyset();
 		
 		return this;
 	}
 	
 	public Query join(Class<? extends RawEntity<?>> join) {
 		joins.put(join, null);
+		checkKeyset();
 		
 		return this;
 	}
@@ -218,6 +344,7 @@ public class Query implements Serializable {
 
 	public void setOrderClause(String orderClause) {
 		this.orderClause = orderClause;
+		checkKeyset();
 	}
 
 	public String getGroupClause() {
@@ -244,6 +371,46 @@ public class Query implements Serializable {
 		this.offset = offset;
 	}
 
+	public String getAfterField() {
+		return afterField;
+	}
+	
+	public Object getAfterValue() {
+		return afterValue;
+	}
+
+	public String[] getPreloadFields() {
+		return preloadFields;
+	}
+	
+	public String[] getIncludes() {
+		return includes;
+	}
+
+	public int getFetchSize() {
+		return fetchSize;
+	}
+
+	public void setFetchSize(int fetchSize) {
+		this.fetchSize = fetchSize;
+	}
+
+	public int getMaxRows() {
+		return maxRows;
+	}
+
+	public void setMaxRows(int maxRows) {
+		this.maxRows = maxRows;
+	}
+
+	public int getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
 	public Map<Class<? extends RawEntity<?>>, String> getJoins() {
 		return joins;
 	}
@@ -285,14 +452,18 @@ public class Query implements Serializable {
 		return provider.renderQuery(this, converter, count);
 	}
 
-	@SuppressWarnings("unchecked")
 	protected void setParameters(EntityManager manager, PreparedStatement stmt) throws SQLException {
+		setParameters(manager, stmt, 1);
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void setParameters(EntityManager manager, PreparedStatement stmt, int startIndex) throws SQLException {
+		TypeManager typeManager = TypeManager.getInstance();
+		
 		if (whereParams != null) {
-			TypeManager typeManager = TypeManager.getInstance();
-			
 			for (int i = 0; i < whereParams.length; i++) {
 				if (whereParams[i] == null) {
-					manager.getProvider().putNull(stmt, i + 1);
+					manager.getProvider().putNull(stmt, startIndex + i);
 				} else {
 					Class javaType = whereParams[i].getClass();
 					
@@ -300,10 +471,44 @@ public class Query implements Serializable {
 						javaType = ((RawEntity) whereParams[i]).getEntityType();
 					}
 					
-					typeManager.getType(javaType).putToDatabase(manager, stmt, i + 1, whereParams[i]);
+					typeManager.getType(javaType).putToDatabase(manager, stmt, startIndex + i, whereParams[i]);
 				}
 			}
 		}
+		
+		if (afterField != null && afterValue != null) {
+			int index = startIndex + (whereParams == null ? 0 : whereParams.length);
+			typeManager.getType((Class) afterValue.getClass()).putToDatabase(manager, stmt, index, afterValue);
+		}
+	}
+
+	/**
+	 * Creates a copy of this query, such that modifications to either query
+	 * (including those made internally when the query is executed) do not
+	 * affect the other.
+	 */
+	Query copy() {
+		Query back = new Query(type, fields);
+		
+		back.distinct = distinct;
+		back.tableType = tableType;
+		back.table = table;
+		back.whereClause = whereClause;
+		back.whereParams = (whereParams == null ? null : whereParams.clone());
+		back.orderClause = orderClause;
+		back.groupClause = groupClause;
+		back.limit = limit;
+		back.offset = offset;
+		back.afterField = afterField;
+		back.afterValue = afterValue;
+		back.fetchSize = fetchSize;
+		back.maxRows = maxRows;
+		back.timeout = timeout;
+		back.preloadFields = preloadFields;
+		back.includes = includes;
+		back.joins = new HashMap<Class<? extends RawEntity<?>>, String>(joins);
+		
+		return back;
 	}
 
 	public static Query select() {
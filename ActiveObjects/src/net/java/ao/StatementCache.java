@@ -0,0 +1,295 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>A least-recently-used cache of idle {@link PreparedStatement} instances
+ * for a single connection.  Statements are keyed by their SQL text along with
+ * the result set type, concurrency and generated key options with which they
+ * were prepared.  The cache lives only as long as the connection; all idle
+ * statements are closed along with it.</p>
+ * 
+ * <p>Statements handed out by the cache are wrapped in a proxy.  Calling
+ * <code>close()</code> on the proxy clears the statement state and returns the
+ * underlying statement to the cache rather than closing it.  A statement is
+ * only ever held by one caller at a time; if the same SQL is prepared again
+ * while a previous statement is still open (e.g. when nesting queries), a
+ * second statement is prepared.  Statements evicted from the cache or
+ * returned while an idle statement for the same key is already cached are
+ * closed for real.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class StatementCache {
+	private final Connection connection;
+	private final Connection delegate;
+	
+	private final Statistics statistics;
+	private final Map<String, PreparedStatement> statements;
+	private final Lock statementsLock = new ReentrantLock();
+	
+	public StatementCache(Connection connection, Connection delegate, final int size, Statistics statistics) {
+		this.connection = connection;
+		this.delegate = delegate;
+		this.statistics = statistics;
+		
+		statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+				if (size() > size) {
+					StatementCache.this.statistics.evictions.incrementAndGet();
+					closeQuietly(eldest.getValue());
+					
+					return true;
+				}
+				
+				return false;
+			}
+		};
+	}
+	
+	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		return prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+	}
+	
+	public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException {
+		String key = resultSetType + ":" + resultSetConcurrency + ":" + sql;
+		
+		PreparedStatement back = checkOut(key);
+		if (back == null) {
+			back = delegate.prepareStatement(sql, resultSetType, resultSetConcurrency);
+		}
+		
+		return wrap(key, back);
+	}
+	
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		String key = "keys:" + autoGeneratedKeys + ":" + sql;
+		
+		PreparedStatement back = checkOut(key);
+		if (back == null) {
+			back = delegate.prepareStatement(sql, autoGeneratedKeys);
+		}
+		
+		return wrap(key, back);
+	}
+	
+	public PreparedStatement prepareStatement(String sql, String[] columnNames) throws SQLException {
+		StringBuilder key = new StringBuilder("columns:");
+		for (String column : columnNames) {
+			key.append(column).append(',');
+		}
+		key.append(':').append(sql);
+		
+		PreparedStatement back = checkOut(key.toString());
+		if (back == null) {
+			back = delegate.prepareStatement(sql, columnNames);
+		}
+		
+		return wrap(key.toString(), back);
+	}
+	
+	/**
+	 * Closes all idle statements held by the cache.  Statements which are
+	 * currently checked out are closed for real when they are returned.
+	 */
+	public void clear() {
+		statementsLock.lock();
+		try {
+			Iterator<PreparedStatement> iterator = statements.values().iterator();
+			while (iterator.hasNext()) {
+				closeQuietly(iterator.next());
+				iterator.remove();
+			}
+		} finally {
+			statementsLock.unlock();
+		}
+	}
+	
+	private PreparedStatement checkOut(String key) {
+		PreparedStatement back;
+		
+		statementsLock.lock();
+		try {
+			back = statements.remove(key);
+		} finally {
+			statementsLock.unlock();
+		}
+		
+		if (back == null) {
+			statistics.misses.incrementAndGet();
+		} else {
+			statistics.hits.incrementAndGet();
+		}
+		
+		return back;
+	}
+	
+	private void checkIn(String key, PreparedStatement stmt) {
+		statementsLock.lock();
+		try {
+			if (!statements.containsKey(key)) {
+				statements.put(key, stmt);
+				return;
+			}
+		} finally {
+			statementsLock.unlock();
+		}
+		
+		closeQuietly(stmt);
+	}
+	
+	private PreparedStatement wrap(String key, PreparedStatement stmt) {
+		return (PreparedStatement) Proxy.newProxyInstance(StatementCache.class.getClassLoader(),
+				new Class[] {PreparedStatement.class}, new CachedStatementHandler(key, stmt));
+	}
+	
+	private static void closeQuietly(PreparedStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+		}
+	}
+	
+	/**
+	 * Hit, miss and eviction counters shared by all of the statement caches
+	 * for a single {@link DatabaseProvider}.
+	 */
+	static class Statistics {
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		private final AtomicLong evictions = new AtomicLong();
+		
+		public long getHitCount() {
+			return hits.get();
+		}
+		
+		public long getMissCount() {
+			return misses.get();
+		}
+		
+		public long getEvictionCount() {
+			return evictions.get();
+		}
+	}
+	
+	private class CachedStatementHandler implements InvocationHandler {
+		private final String key;
+		private final PreparedStatement delegate;
+		
+		private final List<ResultSet> results = new ArrayList<ResultSet>(1);
+		
+		private boolean batched, limited, reusable = true;
+		private boolean closed;
+		
+		public CachedStatementHandler(String key, PreparedStatement delegate) {
+			this.key = key;
+			this.delegate = delegate;
+		}
+		
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			int params = method.getParameterTypes().length;
+			
+			if (name.equals("close") && params == 0) {
+				if (!closed) {
+					closed = true;
+					release();
+				}
+				
+				return null;
+			} else if (name.equals("isClosed") && params == 0) {
+				return closed;
+			} else if (name.equals("getConnection") && params == 0) {
+				return connection;
+			} else if (name.equals("addBatch")) {
+				batched = true;
+			} else if (name.equals("setMaxRows") || name.equals("setFetchSize")
+					|| name.equals("setQueryTimeout") || name.equals("setMaxFieldSize")) {
+				limited = true;
+			} else if (name.startsWith("set") && params == 1) {
+				reusable = false;		// fetch direction, cursor name, escape processing, etc
+			} else if (name.equals("equals") && params == 1) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode") && params == 0) {
+				return System.identityHashCode(proxy);
+			}
+			
+			Object back;
+			try {
+				back = method.invoke(delegate, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+			
+			if (back instanceof ResultSet) {
+				results.add((ResultSet) back);
+			}
+			
+			return back;
+		}
+		
+		private void release() throws SQLException {
+			for (ResultSet res : results) {
+				res.close();
+			}
+			results.clear();
+			
+			if (!reusable || connection.isClosed()) {
+				delegate.close();
+				return;
+			}
+			
+			try {
+				delegate.clearParameters();
+				delegate.clearWarnings();
+				
+				if (batched) {
+					delegate.clearBatch();
+				}
+				
+				if (limited) {
+					delegate.setMaxRows(0);
+					delegate.setFetchSize(0);
+					delegate.setQueryTimeout(0);
+					delegate.setMaxFieldSize(0);
+				}
+			} catch (SQLException e) {
+				delegate.close();
+				throw e;
+			}
+			
+			checkIn(key, delegate);
+		}
+	}
+}
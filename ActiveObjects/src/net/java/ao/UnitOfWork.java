@@ -0,0 +1,138 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import net.java.ao.EntityProxy.PendingUpdate;
+
+/**
+ * <p>Collects the entities saved on a single thread between
+ * {@link EntityManager#beginUnitOfWork()} and {@link EntityManager#flushUnitOfWork()}
+ * so that their UPDATEs can be sent to the database together.  When flushed,
+ * the dirty fields of every registered entity are rendered and the updates
+ * are grouped by their SQL (i.e. by table and dirty field signature).  Each
+ * group is executed as a single JDBC batch.</p>
+ * 
+ * <p>Property change events are fired and dirty fields are cleared once the
+ * batch containing the entity has been executed.  Stale versioned entities
+ * are detected from the batch update counts, however the exception is only
+ * thrown after all of the batches have been executed.  If the provider
+ * indicates that the driver does not report batch update counts (see
+ * {@link DatabaseProvider#isBatchUpdateCountSupported()}), the UPDATEs of
+ * versioned entities are executed one at a time instead.</p>
+ * 
+ * @author Daniel Spiewak
+ */
+class UnitOfWork {
+	private final Set<RawEntity<?>> entities = new LinkedHashSet<RawEntity<?>>();
+	
+	public void register(RawEntity<?> entity) {
+		entities.add(entity);
+	}
+	
+	@SuppressWarnings("unchecked")
+	public void flush(EntityManager manager) throws SQLException {
+		Map<String, List<PendingUpdate>> batches = new LinkedHashMap<String, List<PendingUpdate>>();
+		
+		for (RawEntity entity : entities) {
+			PendingUpdate update = manager.getProxyForEntity(entity).prepareUpdate(entity);
+			
+			if (update != null) {
+				List<PendingUpdate> batch = batches.get(update.getSQL());
+				if (batch == null) {
+					batch = new ArrayList<PendingUpdate>();
+					batches.put(update.getSQL(), batch);
+				}
+				
+				batch.add(update);
+			}
+		}
+		entities.clear();
+		
+		if (batches.isEmpty()) {
+			return;
+		}
+		
+		DatabaseProvider provider = manager.getProvider();
+		int maxBatchSize = provider.getMaxBatchSize();
+		
+		SQLException stale = null;
+		
+		Connection conn = provider.getConnection();
+		try {
+			for (Map.Entry<String, List<PendingUpdate>> entry : batches.entrySet()) {
+				String sql = entry.getKey();
+				List<PendingUpdate> batch = entry.getValue();
+				
+				int batchSize = maxBatchSize;
+				if (batch.get(0).isVersioned() && !provider.isBatchUpdateCountSupported()) {
+					batchSize = 1;		// the version check is part of the SQL, thus shared by the batch
+				}
+				
+				for (int start = 0; start < batch.size(); start += batchSize) {
+					List<PendingUpdate> chunk = batch.subList(start, Math.min(batch.size(), start + batchSize));
+					int[] results;
+					
+					Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+					PreparedStatement stmt = conn.prepareStatement(sql);
+					
+					if (chunk.size() == 1) {
+						chunk.get(0).bind(stmt);
+						results = new int[] {stmt.executeUpdate()};
+					} else {
+						for (PendingUpdate update : chunk) {
+							update.bind(stmt);
+							stmt.addBatch();
+						}
+						
+						results = stmt.executeBatch();
+					}
+					
+					stmt.close();
+					
+					for (int i = 0; i < chunk.size(); i++) {
+						try {
+							chunk.get(i).complete(results[i]);
+						} catch (SQLException e) {
+							if (stale == null) {
+								stale = e;
+							} else {
+								stale.setNextException(e);
+							}
+						}
+					}
+				}
+			}
+		} finally {
+			conn.close();
+		}
+		
+		if (stale != null) {
+			throw stale;
+		}
+	}
+}
@@ -15,298 +15,751 @@
  */
 package net.java.ao.cache;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
+import net.java.ao.Common;
 import net.java.ao.RawEntity;
 
 /**
+ * <p>An in-memory {@link RelationsCache}.  Entries are distributed among a
+ * fixed number of segments according to the hash of their key, each segment
+ * guarded by its own lock, so that concurrent lookups and updates of
+ * unrelated relationships do not contend with one another.</p>
+ * 
+ * <p>Each segment maintains reverse indexes from the intermediate type, from
+ * the intermediate type and primary key of the originating entity, and from
+ * each field of the intermediate type to the keys which depend upon them.
+ * Fields are indexed by type rather than by intermediate entity,
+ * since a modification to an entity which is not (or no longer) part of a
+ * relationship may bring it into that relationship.  These indexes are
+ * pruned whenever an entry is removed or replaced, thus they never outgrow
+ * the cache itself.</p>
+ * 
+ * <p>By default the cache is unbounded.  It may be limited to a maximum
+ * number of entries (see {@link #setMaximumSize(int)}) and/or a maximum
+ * estimated size in bytes (see {@link #setMaximumWeight(long)}), in which
+ * case the least-recently-used entries are evicted.  The limits are divided
+ * evenly among the segments, thus they are approximate.  Entries may also
+ * be expired a fixed time after they were cached (see {@link #setExpiration(long, TimeUnit)}).
+ * Optionally, the entities from which the cached relationships originate
+ * may be weakly referenced, in which case entries are purged once their
+ * entity has been garbage collected.</p>
+ * 
  * @author Daniel Spiewak
  */
 public class RAMRelationsCache implements RelationsCache {
-	private final Map<CacheKey, RawEntity<?>[]> cache;
-	private final Map<Class<? extends RawEntity<?>>, Set<CacheKey>> typeMap;
-	private final Map<MetaCacheKey, Set<CacheKey>> fieldMap;
-	private final ReadWriteLock lock;
+	private static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+	
+	private static final int ENTRY_OVERHEAD = 128;
+	private static final int REFERENCE_SIZE = 8;
+	
+	private final Segment[] segments;
+	private final int segmentMask;
+	
+	private final boolean weakKeys;
+	private final ReferenceQueue<RawEntity<?>> queue;
+	
+	private volatile int maximumSize = -1;
+	private volatile long maximumWeight = -1;
+	private volatile long expiration = -1;
+	
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong expirations = new AtomicLong();
 
 	public RAMRelationsCache() {
-		cache = new HashMap<CacheKey, RawEntity<?>[]>();
-		typeMap = new HashMap<Class<? extends RawEntity<?>>, Set<CacheKey>>();
-		fieldMap = new HashMap<MetaCacheKey, Set<CacheKey>>();
+		this(false);
+	}
+	
+	/**
+	 * @param weakKeys	If <code>true</code>, the entities from which the cached
+	 * 		relationships originate will be weakly referenced.
+	 */
+	public RAMRelationsCache(boolean weakKeys) {
+		this(DEFAULT_CONCURRENCY_LEVEL, weakKeys);
+	}
+	
+	/**
+	 * @param concurrencyLevel	The estimated number of threads which will
+	 * 		access the cache concurrently.  The number of segments is the
+	 * 		least power of two greater than or equal to this value.
+	 * @param weakKeys	If <code>true</code>, the entities from which the cached
+	 * 		relationships originate will be weakly referenced.
+	 */
+	public RAMRelationsCache(int concurrencyLevel, boolean weakKeys) {
+		if (concurrencyLevel <= 0) {
+			throw new IllegalArgumentException("Concurrency level must be positive");
+		}
+		
+		int size = 1;
+		while (size < concurrencyLevel) {
+			size <<= 1;
+		}
+		
+		segments = new Segment[size];
+		segmentMask = size - 1;
+		
+		for (int i = 0; i < segments.length; i++) {
+			segments[i] = new Segment();
+		}
+		
+		this.weakKeys = weakKeys;
+		queue = (weakKeys ? new ReferenceQueue<RawEntity<?>>() : null);
+	}
+	
+	/**
+	 * Sets the maximum number of entries held by the cache, or <code>-1</code>
+	 * for no limit.  Takes effect as entries are subsequently added.
+	 */
+	public void setMaximumSize(int maximumSize) {
+		this.maximumSize = maximumSize;
+	}
+	
+	public int getMaximumSize() {
+		return maximumSize;
+	}
+	
+	/**
+	 * Sets the maximum estimated size (in bytes) of the entries held by the
+	 * cache, or <code>-1</code> for no limit.  The estimate accounts for the
+	 * cache structures and the references they hold, but not for the entities
+	 * themselves, which are shared with the rest of the {@link net.java.ao.EntityManager}.
+	 * Takes effect as entries are subsequently added.
+	 */
+	public void setMaximumWeight(long maximumWeight) {
+		this.maximumWeight = maximumWeight;
+	}
+	
+	public long getMaximumWeight() {
+		return maximumWeight;
+	}
+	
+	/**
+	 * Sets the time after which cached entries expire, or <code>-1</code>
+	 * for no expiration.  Only applies to entries cached subsequently.
+	 */
+	public void setExpiration(long duration, TimeUnit unit) {
+		expiration = (duration < 0 ? -1 : unit.toNanos(duration));
+	}
+	
+	public long getExpiration(TimeUnit unit) {
+		return (expiration < 0 ? -1 : unit.convert(expiration, TimeUnit.NANOSECONDS));
+	}
+	
+	public boolean isWeakKeys() {
+		return weakKeys;
+	}
+	
+	/**
+	 * Returns the number of entries currently held by the cache.
+	 */
+	public int getSize() {
+		expunge();
+		
+		int back = 0;
+		for (Segment segment : segments) {
+			back += segment.getSize();
+		}
+		
+		return back;
+	}
+	
+	/**
+	 * Returns the estimated size (in bytes) of the entries currently held by
+	 * the cache (see {@link #setMaximumWeight(long)}).
+	 */
+	public long getWeight() {
+		expunge();
+		
+		long back = 0;
+		for (Segment segment : segments) {
+			back += segment.getWeight();
+		}
 		
-		lock = new ReentrantReadWriteLock();
+		return back;
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	/**
+	 * Returns the number of entries which have been evicted due to the size
+	 * limits or because their entity was garbage collected.  Entries removed
+	 * by invalidation are not counted.
+	 */
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	/**
+	 * Returns the number of entries which have been removed because they
+	 * expired (see {@link #setExpiration(long, TimeUnit)}).
+	 */
+	public long getExpirationCount() {
+		return expirations.get();
 	}
 	
 	public void flush() {
-		lock.writeLock().lock();
-		try {
-			cache.clear();
-			typeMap.clear();
-			fieldMap.clear();
-		} finally {
-			lock.writeLock().unlock();
+		for (Segment segment : segments) {
+			segment.flush();
 		}
+		
+		expunge();
 	}
 
 	public void put(RawEntity<?> from, RawEntity<?>[] through, Class<? extends RawEntity<?>> throughType, RawEntity<?>[] to, Class<? extends RawEntity<?>> toType, String[] fields) {
-//		if (to.length == 0) {
-//			return;
-//		}
-		
-		CacheKey key = new CacheKey(from, toType, throughType, fields);
-		lock.writeLock().lock();
-		try {
-			cache.put(key, to);
-			
-			Set<CacheKey> keys = typeMap.get(key.getThroughType());
-			if (keys == null) {
-				keys = new HashSet<CacheKey>();
-				typeMap.put(key.getThroughType(), keys);
-			}
-			keys.add(key);
-			
-			for (String field : fields) {
-				for (RawEntity<?> entity : through) {
-					MetaCacheKey metaKey = new MetaCacheKey(entity, field);
-					
-					keys = fieldMap.get(metaKey);
-					if (keys == null) {
-						keys = new HashSet<CacheKey>();
-						fieldMap.put(metaKey, keys);
-					}
-					keys.add(key);
-				}
+		expunge();
+		
+		CacheKey key = new CacheKey(from, toType, throughType, fields, queue);
+		
+		Set<Class<?>> types = new HashSet<Class<?>>();
+		types.add(throughType);
+		for (RawEntity<?> entity : through) {
+			types.add(entity.getEntityType());		// polymorphic intermediates
+		}
+		
+		MetaCacheKey[] metaKeys = new MetaCacheKey[fields.length * types.size()];
+		int index = 0;
+		for (String field : fields) {
+			for (Class<?> type : types) {
+				metaKeys[index++] = new MetaCacheKey(type, field);
 			}
-		} finally {
-			lock.writeLock().unlock();
 		}
+		
+		FromKey fromKey = new FromKey(throughType, normalizeKey(Common.getPrimaryKeyValue(from)));
+		
+		long weight = ENTRY_OVERHEAD + REFERENCE_SIZE * (to.length + metaKeys.length + 2 * fields.length + 1);
+		long expires = (expiration < 0 ? -1 : System.nanoTime() + expiration);
+		
+		segmentFor(key).put(key, new Entry(to, metaKeys, fromKey, weight, expires));
 	}
 
 	public <T extends RawEntity<K>, K> T[] get(RawEntity<?> from, Class<T> toType, 
 			Class<? extends RawEntity<?>> throughType, String[] fields) {
-		lock.readLock().lock();
-		try {
-			return (T[]) cache.get(new CacheKey(from, toType, throughType, fields));
-		} finally {
-			lock.readLock().unlock();
+		expunge();
+		
+		CacheKey key = new CacheKey(from, toType, throughType, fields, null);
+		T[] back = (T[]) segmentFor(key).get(key);
+		
+		if (back == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
 		}
+		
+		return back;
 	}
 	
 	public void remove(Class<? extends RawEntity<?>>... types) {
-		lock.writeLock().lock();
-		try {
-			for (Class<? extends RawEntity<?>> type : types) {
-				Set<CacheKey> keys = typeMap.get(type);
-				if (keys != null) {
-					for (CacheKey key : keys) {
-						cache.remove(key);
-					}
-		
-					typeMap.remove(type);
-				}
-			}
-		} finally {
-			lock.writeLock().unlock();
+		for (Segment segment : segments) {
+			segment.remove(types);
 		}
 	}
 
 	public void remove(RawEntity<?> entity, String[] fields) {
-		lock.writeLock().lock();
-		try {
-			for (String field : fields) {
-				Set<CacheKey> keys = fieldMap.get(new MetaCacheKey(entity, field));
-				if (keys != null) {
-					for (CacheKey key : keys) {
-						cache.remove(key);
-					}
-				}
+		if (fields.length == 0) {
+			return;
+		}
+		
+		Set<Class<?>> types = new HashSet<Class<?>>();
+		collectTypes(entity.getEntityType(), types);
+		
+		MetaCacheKey[] metaKeys = new MetaCacheKey[fields.length * types.size()];
+		int index = 0;
+		for (String field : fields) {
+			for (Class<?> type : types) {
+				metaKeys[index++] = new MetaCacheKey(type, field);
 			}
-		} finally {
-			lock.writeLock().unlock();
+		}
+		
+		for (Segment segment : segments) {
+			segment.remove(metaKeys);
 		}
 	}
-
-	private static class CacheKey {
-		private RawEntity<?> from;
-		private Class<? extends RawEntity<?>> toType;
-		private Class<? extends RawEntity<?>> throughType;
+	
+	public void remove(Class<? extends RawEntity<?>> throughType, Class<? extends RawEntity<?>> fromType, Collection<?> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
 		
-		private String[] fields;
+		Set<Class<?>> types = new HashSet<Class<?>>();
+		collectTypes(throughType, types);
 		
-		public CacheKey(RawEntity<?> from, Class<? extends RawEntity<?>> toType, 
-				Class<? extends RawEntity<?>> throughType, String[] fields) {
-			this.from = from;
-			this.toType = toType;
-			this.throughType = throughType;
-			
-			setFields(fields);
+		FromKey[] fromKeys = new FromKey[types.size() * keys.size()];
+		int index = 0;
+		for (Class<?> type : types) {
+			for (Object key : keys) {
+				fromKeys[index++] = new FromKey(type, normalizeKey(key));
+			}
 		}
-
-		public RawEntity<?> getFrom() {
-			return from;
+		
+		for (Segment segment : segments) {
+			segment.remove(fromType, fromKeys);
 		}
-
-		public void setFrom(RawEntity<?> from) {
-			this.from = from;
+	}
+	
+	/**
+	 * Widens integral keys to <code>Long</code> so that keys specified as
+	 * (e.g.) <code>Integer</code> values match those of <code>long</code>
+	 * primary keys.
+	 */
+	private static Object normalizeKey(Object key) {
+		if (key instanceof Integer || key instanceof Short || key instanceof Byte) {
+			return ((Number) key).longValue();
 		}
-
-		public Class<? extends RawEntity<?>> getToType() {
-			return toType;
+		
+		return key;
+	}
+	
+	private static void collectTypes(Class<?> type, Set<Class<?>> types) {
+		if (RawEntity.class.isAssignableFrom(type) && types.add(type)) {
+			for (Class<?> superType : type.getInterfaces()) {
+				collectTypes(superType, types);
+			}
 		}
-
-		public void setToType(Class<? extends RawEntity<?>> toType) {
-			this.toType = toType;
+	}
+	
+	private Segment segmentFor(CacheKey key) {
+		return segments[key.hashCode() & segmentMask];
+	}
+	
+	/**
+	 * Removes the entries whose entities have been garbage collected.
+	 */
+	private void expunge() {
+		if (queue == null) {
+			return;
 		}
-
-		public String[] getFields() {
-			return fields;
+		
+		WeakKeyReference ref;
+		while ((ref = (WeakKeyReference) queue.poll()) != null) {
+			if (segmentFor(ref.key).evict(ref.key)) {
+				evictions.incrementAndGet();
+			}
 		}
-
-		public void setFields(String[] fields) {
-			Arrays.sort(fields);
-			
-			this.fields = fields;
+	}
+	
+	/**
+	 * Spreads the bits of the given hash code so that keys differing only
+	 * in their upper bits are still distributed evenly among the segments
+	 * (and within the hash tables of each segment).
+	 */
+	private static int mix(int hashCode) {
+		hashCode ^= (hashCode >>> 20) ^ (hashCode >>> 12);
+		
+		return hashCode ^ (hashCode >>> 7) ^ (hashCode >>> 4);
+	}
+	
+	private class Segment {
+		private final Map<CacheKey, Entry> cache = new LinkedHashMap<CacheKey, Entry>(16, 0.75f, true);
+		private final Map<Class<? extends RawEntity<?>>, Set<CacheKey>> typeMap = new HashMap<Class<? extends RawEntity<?>>, Set<CacheKey>>();
+		private final Map<FromKey, Set<CacheKey>> fromMap = new HashMap<FromKey, Set<CacheKey>>();
+		private final Map<MetaCacheKey, Set<CacheKey>> fieldMap = new HashMap<MetaCacheKey, Set<CacheKey>>();
+		
+		private long weight;
+		
+		private final Lock lock = new ReentrantLock();
+		
+		public int getSize() {
+			lock.lock();
+			try {
+				return cache.size();
+			} finally {
+				lock.unlock();
+			}
 		}
 		
-		public Class<? extends RawEntity<?>> getThroughType() {
-			return throughType;
+		public long getWeight() {
+			lock.lock();
+			try {
+				return weight;
+			} finally {
+				lock.unlock();
+			}
 		}
 		
-		public void setThroughType(Class<? extends RawEntity<?>> throughType) {
-			this.throughType = throughType;
+		public void flush() {
+			lock.lock();
+			try {
+				cache.clear();
+				typeMap.clear();
+				fromMap.clear();
+				fieldMap.clear();
+				
+				weight = 0;
+			} finally {
+				lock.unlock();
+			}
 		}
 		
-		@Override
-		public String toString() {
-			return '(' + from.toString() + "; to=" + toType.getName() + "; through=" + throughType.getName() + "; " + Arrays.toString(fields) + ')';
+		public RawEntity<?>[] get(CacheKey key) {
+			lock.lock();
+			try {
+				Entry entry = cache.get(key);		// moves the entry to the end of the LRU order
+				if (entry == null) {
+					return null;
+				}
+				
+				if (entry.expires >= 0 && entry.expires - System.nanoTime() <= 0) {
+					removeEntry(key);
+					expirations.incrementAndGet();
+					
+					return null;
+				}
+				
+				return entry.value;
+			} finally {
+				lock.unlock();
+			}
 		}
 		
-		@Override
-		public boolean equals(Object obj) {
-			if (obj instanceof CacheKey) {
-				CacheKey key = (CacheKey) obj;
+		public void put(CacheKey key, Entry entry) {
+			lock.lock();
+			try {
+				removeEntry(key);
 				
-				if (key.getFrom() != null) {
-					if (!key.getFrom().equals(from)) {
-						return false;
-					}
+				cache.put(key, entry);
+				weight += entry.weight;
+				
+				index(typeMap, key.throughType, key);
+				index(fromMap, entry.fromKey, key);
+				for (MetaCacheKey metaKey : entry.metaKeys) {
+					index(fieldMap, metaKey, key);
 				}
-				if (key.getToType() != null) {
-					if (!key.getToType().getName().equals(toType.getName())) {
-						return false;
+				
+				evictExcess();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		public boolean evict(CacheKey key) {
+			lock.lock();
+			try {
+				return removeEntry(key);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		public void remove(Class<? extends RawEntity<?>>[] types) {
+			lock.lock();
+			try {
+				for (Class<? extends RawEntity<?>> type : types) {
+					Set<CacheKey> keys = typeMap.get(type);
+					if (keys != null) {
+						for (CacheKey key : keys.toArray(new CacheKey[keys.size()])) {
+							removeEntry(key);
+						}
 					}
 				}
-				if (key.getThroughType() != null) {
-					if (!key.getThroughType().getName().equals(throughType.getName())) {
-						return false;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		public void remove(Class<? extends RawEntity<?>> fromType, FromKey[] fromKeys) {
+			lock.lock();
+			try {
+				for (FromKey fromKey : fromKeys) {
+					Set<CacheKey> keys = fromMap.get(fromKey);
+					if (keys == null) {
+						continue;
+					}
+					
+					for (CacheKey key : keys.toArray(new CacheKey[keys.size()])) {
+						RawEntity<?> from = key.getFrom();
+						
+						if (from != null && fromType.isAssignableFrom(from.getEntityType())) {
+							removeEntry(key);
+						}
 					}
 				}
-				if (key.getFields() != null) {
-					if (!Arrays.equals(key.getFields(), fields)) {
-						return false;
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		public void remove(MetaCacheKey[] metaKeys) {
+			lock.lock();
+			try {
+				for (MetaCacheKey metaKey : metaKeys) {
+					Set<CacheKey> keys = fieldMap.get(metaKey);
+					if (keys != null) {
+						for (CacheKey key : keys.toArray(new CacheKey[keys.size()])) {
+							removeEntry(key);
+						}
 					}
 				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Evicts least-recently-used entries until the segment is within its
+		 * share of the cache limits.  The most recently added entry is never
+		 * evicted.  Must be called with the lock held.
+		 */
+		private void evictExcess() {
+			int maximumSize = RAMRelationsCache.this.maximumSize;
+			long maximumWeight = RAMRelationsCache.this.maximumWeight;
+			
+			int sizeLimit = (maximumSize < 0 ? -1 : Math.max(1, (maximumSize + segments.length - 1) / segments.length));
+			long weightLimit = (maximumWeight < 0 ? -1 : (maximumWeight + segments.length - 1) / segments.length);
+			
+			Iterator<Map.Entry<CacheKey, Entry>> iterator = cache.entrySet().iterator();
+			while (cache.size() > 1 && ((sizeLimit >= 0 && cache.size() > sizeLimit) 
+					|| (weightLimit >= 0 && weight > weightLimit))) {
+				Map.Entry<CacheKey, Entry> eldest = iterator.next();
+				iterator.remove();
 				
-				return true;
+				unindex(eldest.getKey(), eldest.getValue());
+				evictions.incrementAndGet();
+			}
+		}
+		
+		/**
+		 * Removes the entry for the given key along with all references to
+		 * it from the reverse indexes.  Must be called with the lock held.
+		 */
+		private boolean removeEntry(CacheKey key) {
+			Entry entry = cache.remove(key);
+			if (entry == null) {
+				return false;
 			}
 			
-			return super.equals(obj);
+			unindex(key, entry);
+			
+			return true;
 		}
 		
-		@Override
-		public int hashCode() {
-			int hashCode = 0;
+		private void unindex(CacheKey key, Entry entry) {
+			weight -= entry.weight;
 			
-			if (from != null) {
-				hashCode += from.hashCode();
+			unindex(typeMap, key.throughType, key);
+			unindex(fromMap, entry.fromKey, key);
+			for (MetaCacheKey metaKey : entry.metaKeys) {
+				unindex(fieldMap, metaKey, key);
 			}
-			if (toType != null) {
-				hashCode += toType.getName().hashCode();
-			}
-			if (throughType != null) {
-				hashCode += throughType.getName().hashCode();
+		}
+		
+		private <I> void index(Map<I, Set<CacheKey>> map, I indexKey, CacheKey key) {
+			Set<CacheKey> keys = map.get(indexKey);
+			if (keys == null) {
+				keys = new HashSet<CacheKey>();
+				map.put(indexKey, keys);
 			}
-			if (fields != null) {
-				for (String field : fields) {
-					hashCode += field.hashCode();
+			keys.add(key);
+		}
+		
+		private <I> void unindex(Map<I, Set<CacheKey>> map, I indexKey, CacheKey key) {
+			Set<CacheKey> keys = map.get(indexKey);
+			if (keys != null) {
+				keys.remove(key);
+				
+				if (keys.isEmpty()) {
+					map.remove(indexKey);
 				}
 			}
-			hashCode %= 2 << 10;
-			
-			return hashCode;
 		}
 	}
 	
-	private static class MetaCacheKey {
-		private RawEntity<?> entity;
-		private String field;
+	private static class Entry {
+		private final RawEntity<?>[] value;
+		private final MetaCacheKey[] metaKeys;
+		private final FromKey fromKey;
 		
-		public MetaCacheKey(RawEntity<?> entity, String field) {
-			this.entity = entity;
-			
-			setField(field);
+		private final long weight;
+		private final long expires;
+		
+		public Entry(RawEntity<?>[] value, MetaCacheKey[] metaKeys, FromKey fromKey, long weight, long expires) {
+			this.value = value;
+			this.metaKeys = metaKeys;
+			this.fromKey = fromKey;
+			this.weight = weight;
+			this.expires = expires;
 		}
-
-		public RawEntity<?> getEntity() {
-			return entity;
+	}
+	
+	private static class WeakKeyReference extends WeakReference<RawEntity<?>> {
+		private final CacheKey key;
+		
+		public WeakKeyReference(CacheKey key, RawEntity<?> entity, ReferenceQueue<RawEntity<?>> queue) {
+			super(entity, queue);
+			
+			this.key = key;
 		}
+	}
 
-		public void setEntity(RawEntity<?> entity) {
-			this.entity = entity;
+	/**
+	 * Identifies a cached relationship.  If a reference queue is specified,
+	 * the originating entity is weakly referenced and the key is enqueued
+	 * once the entity has been collected.  A key whose entity has been
+	 * collected is only equal to itself.
+	 */
+	private static class CacheKey {
+		private final Object from;
+		private final Class<? extends RawEntity<?>> toType;
+		private final Class<? extends RawEntity<?>> throughType;
+		
+		private final String[] fields;
+		private final int hashCode;
+		
+		public CacheKey(RawEntity<?> from, Class<? extends RawEntity<?>> toType, 
+				Class<? extends RawEntity<?>> throughType, String[] fields, ReferenceQueue<RawEntity<?>> queue) {
+			this.from = (queue == null ? from : new WeakKeyReference(this, from, queue));
+			this.toType = toType;
+			this.throughType = throughType;
+			
+			this.fields = fields.clone();
+			Arrays.sort(this.fields);
+			
+			int hashCode = from.hashCode();
+			hashCode = 31 * hashCode + System.identityHashCode(toType);
+			hashCode = 31 * hashCode + System.identityHashCode(throughType);
+			hashCode = 31 * hashCode + Arrays.hashCode(this.fields);
+			
+			this.hashCode = mix(hashCode);
 		}
-
-		public String getField() {
-			return field;
+		
+		public RawEntity<?> getFrom() {
+			if (from instanceof WeakKeyReference) {
+				return ((WeakKeyReference) from).get();
+			}
+			
+			return (RawEntity<?>) from;
 		}
 
-		public void setField(String field) {
-			this.field = field;
-		}
-		
 		@Override
 		public String toString() {
-			return entity.toString() + "; " + field;
+			return "(" + getFrom() + "; to=" + toType.getName() + "; through=" + throughType.getName() + "; " + Arrays.toString(fields) + ')';
 		}
 		
 		@Override
 		public boolean equals(Object obj) {
-			if (obj instanceof MetaCacheKey) {
-				MetaCacheKey key = (MetaCacheKey) obj;
+			if (obj == this) {
+				return true;
+			}
+			
+			if (obj instanceof CacheKey) {
+				CacheKey key = (CacheKey) obj;
 				
-				if (key.getEntity() != null) {
-					if (!key.getEntity().equals(entity)) {
-						return false;
-					}
-				}
-				if (key.getField() != null) {
-					if (!key.getField().equals(field)) {
-						return false;
-					}
+				if (key.hashCode != hashCode || key.toType != toType || key.throughType != throughType 
+						|| !Arrays.equals(key.fields, fields)) {
+					return false;
 				}
 				
+				RawEntity<?> from = getFrom();
+				return from != null && from.equals(key.getFrom());
+			}
+			
+			return false;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+	
+	/**
+	 * Identifies the cached relationships of a single originating entity
+	 * (by primary key) through a given intermediate type.  The key is held
+	 * by value, so the entry may be found even once a weakly referenced
+	 * entity has been collected.
+	 */
+	private static class FromKey {
+		private final Class<?> throughType;
+		private final Object key;
+		private final int hashCode;
+		
+		public FromKey(Class<?> throughType, Object key) {
+			this.throughType = throughType;
+			this.key = key;
+			
+			hashCode = mix(31 * System.identityHashCode(throughType) + key.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return throughType.getName() + "; " + key;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
 				return true;
 			}
 			
-			return super.equals(obj);
+			if (obj instanceof FromKey) {
+				FromKey fromKey = (FromKey) obj;
+				
+				return fromKey.hashCode == hashCode && fromKey.throughType == throughType && fromKey.key.equals(key);
+			}
+			
+			return false;
 		}
 		
 		@Override
 		public int hashCode() {
-			int hashCode = 0;
+			return hashCode;
+		}
+	}
+	
+	private static class MetaCacheKey {
+		private final Class<?> type;
+		private final String field;
+		private final int hashCode;
+		
+		public MetaCacheKey(Class<?> type, String field) {
+			this.type = type;
+			this.field = field;
 			
-			if (entity != null) {
-				hashCode += entity.hashCode();
+			hashCode = mix(31 * System.identityHashCode(type) + field.hashCode());
+		}
+
+		@Override
+		public String toString() {
+			return type.getName() + "; " + field;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (obj == this) {
+				return true;
 			}
-			if (field != null) {
-				hashCode += field.hashCode();
+			
+			if (obj instanceof MetaCacheKey) {
+				MetaCacheKey key = (MetaCacheKey) obj;
+				
+				return key.hashCode == hashCode && key.type == type && key.field.equals(field);
 			}
-			hashCode %= 2 << 15;
 			
+			return false;
+		}
+		
+		@Override
+		public int hashCode() {
 			return hashCode;
 		}
 	}
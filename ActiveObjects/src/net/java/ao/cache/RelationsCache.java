@@ -15,6 +15,8 @@
  */
 package net.java.ao.cache;
 
+import java.util.Collection;
+
 import net.java.ao.RawEntity;
 
 /**
@@ -31,5 +33,12 @@ public interface RelationsCache {
 	public void remove(Class<? extends RawEntity<?>>... types);
 
 	public void remove(RawEntity<?> entity, String[] fields);
+	
+	/**
+	 * Removes the relationships through the given type (or any of its
+	 * supertypes) which originate from an entity of the given type with
+	 * one of the specified primary key values.
+	 */
+	public void remove(Class<? extends RawEntity<?>> throughType, Class<? extends RawEntity<?>> fromType, Collection<?> keys);
 
 }
\ No newline at end of file
@@ -76,6 +76,8 @@ abstract class DerbyDatabaseProvider extends DatabaseProvider {
 	
 	@Override
 	public void setQueryStatementProperties(Statement stmt, Query query) throws SQLException {
+		super.setQueryStatementProperties(stmt, query);
+		
 		int limit = query.getLimit();
 		
 		if (limit >= 0) {
@@ -83,15 +85,21 @@ abstract class DerbyDatabaseProvider extends DatabaseProvider {
 //				limit += query.getOffset();
 //			}
 			
-			stmt.setFetchSize(limit);
+			if (query.getMaxRows() > 0) {
+				limit = Math.min(limit, query.getMaxRows());
+			}
+			
 			stmt.setMaxRows(limit);
+			stmt.setFetchSize(limit);
 		}
 	}
 	
 	@Override
 	public void setQueryResultSetProperties(ResultSet res, Query query) throws SQLException {
-		if (query.getOffset() > 0) {
-			res.absolute(query.getOffset());
+		for (int i = 0; i < query.getOffset(); i++) {
+			if (!res.next()) {
+				break;
+			}
 		}
 	}
 	
@@ -99,6 +99,21 @@ public class MySQLDatabaseProvider extends DatabaseProvider {
 		return "ENGINE=InnoDB";
 	}
 	
+	@Override
+	protected boolean isBatchGeneratedKeysSupported() {
+		return true;
+	}
+	
+	/**
+	 * MySQL Connector/J only streams result sets row by row when the fetch
+	 * size is <code>Integer.MIN_VALUE</code>.  No other statements may be
+	 * executed on the connection until the streamed result set is closed.
+	 */
+	@Override
+	public int getStreamingFetchSize() {
+		return Integer.MIN_VALUE;
+	}
+	
 	@Override
 	protected String renderCreateIndex(DDLIndex index) {
 		StringBuilder back = new StringBuilder("CREATE INDEX ");
@@ -37,6 +37,7 @@ import net.java.ao.DatabaseProvider;
 import net.java.ao.EntityManager;
 import net.java.ao.Query;
 import net.java.ao.RawEntity;
+import net.java.ao.schema.TableNameConverter;
 import net.java.ao.schema.ddl.DDLField;
 import net.java.ao.schema.ddl.DDLForeignKey;
 import net.java.ao.schema.ddl.DDLTable;
@@ -131,13 +132,57 @@ public class OracleDatabaseProvider extends DatabaseProvider {
 		return (Class<? extends Driver>) Class.forName("oracle.jdbc.OracleDriver");
 	}
 
+	/**
+	 * Oracle has no LIMIT or OFFSET clause, so a limited query is wrapped in
+	 * a sub-select which filters on <code>ROWNUM</code>.  When an offset is
+	 * specified, the row numbers are selected as the <code>ao_rownum</code>
+	 * column so that the skipped rows can be filtered out by the server.
+	 */
 	@Override
-	public void setQueryResultSetProperties(ResultSet res, Query query) throws SQLException {
-		if (query.getOffset() > 0) {
-			res.absolute(query.getOffset() + 1);
+	public String renderQuery(Query query, TableNameConverter converter, boolean count) {
+		String sql = super.renderQuery(query, converter, count);
+		
+		int limit = query.getLimit();
+		int offset = query.getOffset();
+		
+		if (count || (limit < 0 && offset <= 0)) {
+			return sql;
 		}
+		
+		if (offset <= 0) {
+			return "SELECT * FROM (" + sql + ") WHERE ROWNUM <= " + limit;
+		}
+		
+		StringBuilder back = new StringBuilder();
+		
+		back.append("SELECT * FROM (SELECT ao_inner.*, ROWNUM ao_rownum FROM (");
+		back.append(sql).append(") ao_inner");
+		
+		if (limit >= 0) {
+			back.append(" WHERE ROWNUM <= ").append(offset + limit);
+		}
+		back.append(") WHERE ao_rownum > ").append(offset);
+		
+		return back.toString();
 	}
 
+	/**
+	 * The Oracle driver fetches only 10 rows per round trip by default.
+	 */
+	@Override
+	public int getQueryFetchSize() {
+		return 100;
+	}
+
+	/**
+	 * Oracle's driver returns {@link java.sql.Statement#SUCCESS_NO_INFO} for
+	 * every statement of a prepared batch.
+	 */
+	@Override
+	public boolean isBatchUpdateCountSupported() {
+		return false;
+	}
+	
 	@Override
 	public ResultSet getTables(Connection conn) throws SQLException {
         DatabaseMetaData metaData = conn.getMetaData();
@@ -174,6 +174,11 @@ public class PostgreSQLDatabaseProvider extends DatabaseProvider {
 		return super.parseValue(type, value);
 	}
 	
+	@Override
+	public boolean isStreamingTransactionRequired() {
+		return true;
+	}
+	
 	@Override
 	public ResultSet getTables(Connection conn) throws SQLException {
 		return conn.getMetaData().getTables("public", null, null, new String[] {"TABLE"});
@@ -433,6 +438,59 @@ public class PostgreSQLDatabaseProvider extends DatabaseProvider {
 		return back;
 	}
 	
+	@Override
+	public synchronized <T> List<T> insertBatchReturningKeys(EntityManager manager, Connection conn, Class<T> pkType, 
+			String pkField, boolean pkIdentity, String table, List<DBParam[]> rows) throws SQLException {
+		List<Integer> missing = new ArrayList<Integer>();
+		
+		for (int i = 0; i < rows.size(); i++) {
+			boolean specified = false;
+			
+			for (DBParam param : rows.get(i)) {
+				if (param.getField().trim().equalsIgnoreCase(pkField) && param.getValue() != null) {
+					specified = true;
+					break;
+				}
+			}
+			
+			if (!specified) {
+				missing.add(i);
+			}
+		}
+		
+		if (missing.size() > 0) {		// allocate all of the keys in a single round-trip
+			String sql = "SELECT NEXTVAL('" + processID(table + "_" + pkField + "_seq") + "') FROM generate_series(1, ?)";
+			
+			Logger.getLogger("net.java.ao").log(Level.INFO, sql);
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			stmt.setInt(1, missing.size());
+			
+			rows = new ArrayList<DBParam[]>(rows);
+			
+			ResultSet res = stmt.executeQuery();
+			for (int index : missing) {
+				if (!res.next()) {
+					res.close();
+					stmt.close();
+					
+					throw new SQLException("Unable to allocate primary key values from sequence");
+				}
+				
+				DBParam[] row = rows.get(index);
+				DBParam[] newRow = new DBParam[row.length + 1];
+				System.arraycopy(row, 0, newRow, 0, row.length);
+				newRow[row.length] = new DBParam(pkField, 
+						TypeManager.getInstance().getType(pkType).pullFromDatabase(null, res, pkType, 1));
+				
+				rows.set(index, newRow);
+			}
+			res.close();
+			stmt.close();
+		}
+		
+		return super.insertBatchReturningKeys(manager, conn, pkType, pkField, pkIdentity, table, rows);
+	}
+	
 	@Override
 	protected <T> T executeInsertReturningKey(EntityManager manager, Connection conn, Class<T> pkType, String pkField, 
 			String sql, DBParam... params) throws SQLException {
@@ -129,13 +129,6 @@ public class SQLServerDatabaseProvider extends DatabaseProvider {
 		return (Class<? extends Driver>) Class.forName("com.microsoft.sqlserver.jdbc.SQLServerDriver");
 	}
 	
-	@Override
-	public void setQueryResultSetProperties(ResultSet res, Query query) throws SQLException {
-		if (query.getOffset() >= 0) {
-			res.absolute(query.getOffset());
-		}
-	}
-	
 	@Override
 	public ResultSet getTables(Connection conn) throws SQLException {
 		return conn.getMetaData().getTables(null, "dbo", null, new String[] {"TABLE"});
@@ -190,6 +183,42 @@ public class SQLServerDatabaseProvider extends DatabaseProvider {
 		return super.parseValue(type, value);
 	}
 	
+	/**
+	 * Queries with an offset are paged on the server by numbering the rows
+	 * with <code>ROW_NUMBER()</code> (in the order of the query) and
+	 * selecting only the requested range from the numbered rows.  Queries
+	 * without an offset are limited with <code>TOP</code> in
+	 * {@link #renderQuerySelect(Query, TableNameConverter, boolean)}.
+	 */
+	@Override
+	public String renderQuery(Query query, TableNameConverter converter, boolean count) {
+		if (count || query.getOffset() <= 0) {
+			return super.renderQuery(query, converter, count);
+		}
+		
+		StringBuilder sql = new StringBuilder();
+		
+		sql.append(renderQuerySelect(query, converter, count));
+		sql.append(renderQueryJoins(query, converter));
+		sql.append(renderQueryWhere(query));
+		sql.append(renderQueryGroupBy(query));
+		
+		if (query.isDistinct()) {
+			sql.insert(0, "SELECT ao_distinct.*, ROW_NUMBER() OVER (" + renderRowNumberOrder(query) + ") AS ao_rownum FROM (");
+			sql.append(") ao_distinct");
+		}
+		
+		sql.insert(0, "SELECT * FROM (");
+		sql.append(") ao_page WHERE ao_rownum > ").append(query.getOffset());
+		
+		if (query.getLimit() >= 0) {
+			sql.append(" AND ao_rownum <= ").append(query.getOffset() + query.getLimit());
+		}
+		sql.append(" ORDER BY ao_rownum");
+		
+		return sql.toString();
+	}
+	
 	@Override
 	protected String renderQuerySelect(Query query, TableNameConverter converter, boolean count) {
 		StringBuilder sql = new StringBuilder();
@@ -207,8 +236,10 @@ public class SQLServerDatabaseProvider extends DatabaseProvider {
 					sql.append("DISTINCT ");
 				}
 				
+				boolean paged = !count && query.getOffset() > 0;
+				
 				int limit = query.getLimit();
-				if (limit >= 0) {
+				if (limit >= 0 && !paged) {
 					if (query.getOffset() > 0) {
 						limit += query.getOffset();
 					}
@@ -228,6 +259,11 @@ public class SQLServerDatabaseProvider extends DatabaseProvider {
 					}
 					
 					sql.append(fields);
+					
+					if (paged && !query.isDistinct()) {
+						sql.append(", ROW_NUMBER() OVER (").append(renderRowNumberOrder(query));
+						sql.append(") AS ao_rownum");
+					}
 				}
 				sql.append(" FROM ");
 				
@@ -242,6 +278,15 @@ public class SQLServerDatabaseProvider extends DatabaseProvider {
 	protected String renderQueryLimit(Query query) {
 		return "";
 	}
+	
+	private String renderRowNumberOrder(Query query) {
+		String orderBy = renderQueryOrderBy(query);
+		if (orderBy.equals("")) {
+			return "ORDER BY (SELECT 0)";
+		}
+		
+		return orderBy.trim();
+	}
 
 	@Override
 	protected String renderAutoIncrement() {
@@ -418,6 +463,26 @@ public class SQLServerDatabaseProvider extends DatabaseProvider {
 		return back;
 	}
 
+	@Override
+	public <T> List<T> insertBatchReturningKeys(EntityManager manager, Connection conn, Class<T> pkType, String pkField, 
+			boolean pkIdentity, String table, List<DBParam[]> rows) throws SQLException {
+		if (!pkIdentity) {
+			return super.insertBatchReturningKeys(manager, conn, pkType, pkField, pkIdentity, table, rows);
+		}
+		
+		List<T> back = new ArrayList<T>(rows.size());
+		for (DBParam[] row : rows) {		// explicit keys require IDENTITY_INSERT around each statement
+			back.add(insertReturningKey(manager, conn, pkType, pkField, pkIdentity, table, row));
+		}
+		
+		return back;
+	}
+
+	@Override
+	public int getMaxInListSize() {
+		return 2000;		// at most 2100 parameters per statement
+	}
+
 	@Override
 	protected Set<String> getReservedWords() {
 		return RESERVED_WORDS;
@@ -16,6 +16,8 @@
 package net.java.ao.schema;
 
 import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.java.ao.Accessor;
 import net.java.ao.Common;
@@ -26,14 +28,23 @@ import net.java.ao.OneToOne;
 import net.java.ao.RawEntity;
 
 /**
- * An abstract implementation of {@link FieldNameConverter} which handles common 
+ * <p>An abstract implementation of {@link FieldNameConverter} which handles common 
  * tasks for the name converter (i.e. relations annotations, accessor/mutator
  * annotations, etc).  For most tasks, custom field name converters should extend
- * this class, rather than directly implementing <code>FieldNameConverter</code>.
+ * this class, rather than directly implementing <code>FieldNameConverter</code>.</p>
+ * 
+ * <p>Results are memoized per method, thus the annotation processing and name
+ * conversion only happens once for any given method.  Subclasses must ensure
+ * that {@link #convertName(String, boolean, boolean)} only depends on its
+ * parameters and the (immutable) configuration of the converter.</p>
  * 
  * @author Daniel Spiewak
  */
 public abstract class AbstractFieldNameConverter implements FieldNameConverter {
+	private static final String NULL_NAME = new String();
+	
+	private final Map<Method, String> names = new ConcurrentHashMap<Method, String>();
+	private final Map<Method, String> polyTypeNames = new ConcurrentHashMap<Method, String>();
 	
 	/**
 	 * Dummy constructor with protected visibility.  Does nothing.
@@ -58,7 +69,7 @@ public abstract class AbstractFieldNameConverter implements FieldNameConverter {
 	 * @see net.java.ao.schema.FieldNameConverter#getName(Method)
 	 */
 	public String getName(Method method) {
-		return getNameImpl(method, false);
+		return getName(names, method, false);
 	}
 	
 	/**
@@ -69,7 +80,22 @@ public abstract class AbstractFieldNameConverter implements FieldNameConverter {
 	 * @see net.java.ao.schema.FieldNameConverter#getPolyTypeName(Method)
 	 */
 	public String getPolyTypeName(Method method) {
-		return getNameImpl(method, true);
+		return getName(polyTypeNames, method, true);
+	}
+	
+	private String getName(Map<Method, String> cache, Method method, boolean polyType) {
+		if (method == null) {
+			throw new IllegalArgumentException("Problem in ActiveObjects core, looking for field name for null method");
+		}
+		
+		String back = cache.get(method);
+		
+		if (back == null) {
+			back = getNameImpl(method, polyType);
+			cache.put(method, back == null ? NULL_NAME : back);
+		}
+		
+		return back == NULL_NAME ? null : back;
 	}
 	
 	private String getNameImpl(Method method, boolean polyType) {
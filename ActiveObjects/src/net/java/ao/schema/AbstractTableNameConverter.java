@@ -15,19 +15,18 @@
  */
 package net.java.ao.schema;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import net.java.ao.RawEntity;
 
-// TODO	make this class thread-safe
-
 /**
  * <p>An abstract implementation of {@link TableNameConverter} which provides basic
  * functionality common to most table name converters.  For most use-cases, it
@@ -42,22 +41,37 @@ import net.java.ao.RawEntity;
  * <p>Most subclasses will only need to override the {@link #convertName(Class)} method
  * to accomplish most functionality.</p>
  * 
+ * <p>Resolved names are memoized per entity type, thus the full conversion
+ * (including pattern matching) is only performed once for any given class.
+ * The memoized names are discarded whenever a class or pattern mapping is
+ * added.  As a result, subclasses must ensure that the result of
+ * {@link #convertName(Class)} and the post-processing methods only depends on
+ * the configuration of the converter.</p>
+ * 
  * @author Daniel Spiewak
  */
 public abstract class AbstractTableNameConverter implements TableNameConverter {
+	private static final Pattern MAP_PATTERN = Pattern.compile("\\{\\d+\\}");
+	private static final Pattern GROUP_PATTERN = Pattern.compile("\\{(\\d+)\\}");
+	
 	private Map<Class<? extends RawEntity<?>>, String> classMappings;
 	
 	private List<String> patterns;
 	private Map<String, String> patternMappings;
+	private Map<String, Pattern> compiledPatterns;
+	
+	private volatile int revision;
+	private volatile NameCache names = new NameCache(-1);
 	
 	/**
 	 * Initializes the class mappings and pattern mappings to empty maps.
 	 */
 	protected AbstractTableNameConverter() {
-		classMappings = new HashMap<Class<? extends RawEntity<?>>, String>();
+		classMappings = new ConcurrentHashMap<Class<? extends RawEntity<?>>, String>();
 		
-		patterns = new LinkedList<String>();
-		patternMappings = new HashMap<String, String>();
+		patterns = new CopyOnWriteArrayList<String>();
+		patternMappings = new ConcurrentHashMap<String, String>();
+		compiledPatterns = new ConcurrentHashMap<String, Pattern>();
 	}
 
 	/**
@@ -72,8 +86,9 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 	 * @param clazz	The entity type for which the mapping will be created.
 	 * @param name	The table name which will be used for the given entity type.
 	 */
-	public void addClassMapping(Class<? extends RawEntity<?>> clazz, String name) {
+	public synchronized void addClassMapping(Class<? extends RawEntity<?>> clazz, String name) {
 		classMappings.put(clazz, name);
+		revision++;
 	}
 
 	/**
@@ -86,8 +101,9 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 	 * 		mapping.
 	 * @see #addClassMapping(Class, String)
 	 */
-	public void addClassMappings(Map<Class<? extends RawEntity<?>>, String> mappings) {
+	public synchronized void addClassMappings(Map<Class<? extends RawEntity<?>>, String> mappings) {
 		classMappings.putAll(mappings);
+		revision++;
 	}
 
 	/**
@@ -129,9 +145,12 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 	 * @param result	A parsed String defining the value which should be
 	 * 		substituted for all matched names.
 	 */
-	public void addPatternMapping(String pattern, String result) {
-		patterns.add(0, pattern);
+	public synchronized void addPatternMapping(String pattern, String result) {
+		compiledPatterns.put(pattern, compilePattern(pattern));
 		patternMappings.put(pattern, result);
+		patterns.add(0, pattern);
+		
+		revision++;
 	}
 
 	/**
@@ -158,13 +177,19 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 	 * 		for the notion of eval order.
 	 * @see #addPatternMapping(String, String)
 	 */
-	public void addPatternMappings(Map<String, String> mappings, Iterator<String> keys) {
-		int i = 0;
+	public synchronized void addPatternMappings(Map<String, String> mappings, Iterator<String> keys) {
+		List<String> toAdd = new ArrayList<String>();
 		while (keys.hasNext()) {
-			patterns.add(i++, keys.next());
+			String pattern = keys.next();
+			
+			compiledPatterns.put(pattern, compilePattern(pattern));
+			toAdd.add(pattern);
 		}
 		
 		patternMappings.putAll(mappings);
+		patterns.addAll(0, toAdd);
+		
+		revision++;
 	}
 
 	/**
@@ -179,6 +204,24 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 	 * @see net.java.ao.schema.TableNameConverter#getName(Class)
 	 */
 	public String getName(Class<? extends RawEntity<?>> entity) {
+		NameCache names = this.names;
+		
+		int revision = getRevision();
+		if (names.revision != revision) {
+			names = new NameCache(revision);
+			this.names = names;
+		}
+		
+		String back = names.get(entity);
+		if (back == null) {
+			back = getNameImpl(entity);
+			names.put(entity, back);
+		}
+		
+		return back;
+	}
+	
+	private String getNameImpl(Class<? extends RawEntity<?>> entity) {
 		Table tableAnnotation = entity.getAnnotation(Table.class);
 		if (tableAnnotation != null) {
 			return tableAnnotation.value();
@@ -226,23 +269,21 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 	 */
 	protected String processName(String back) {
 		for (String regexp : patterns) {
-			Pattern pattern = Pattern.compile("^" + regexp + "$", Pattern.CASE_INSENSITIVE);
-			Matcher matcher = pattern.matcher(back);
+			Matcher matcher = compiledPatterns.get(regexp).matcher(back);
 			
 			if (matcher.find()) {
 				String mapResult = patternMappings.get(regexp);
 				
-				Pattern mapPattern = Pattern.compile("\\{\\d+\\}");
-				Matcher mapMatcher = mapPattern.matcher(mapResult);
+				Matcher mapMatcher = MAP_PATTERN.matcher(mapResult);
 				
 				while (mapMatcher.find()) {
-					Matcher groupMatcher = Pattern.compile("\\{(\\d+)\\}").matcher(mapResult);
+					Matcher groupMatcher = GROUP_PATTERN.matcher(mapResult);
 					groupMatcher.find();
 					
 					String toReplace = matcher.group(Integer.parseInt(groupMatcher.group(1)));
 					
 					mapResult = mapMatcher.replaceFirst(toReplace);
-					mapMatcher = mapPattern.matcher(mapResult);
+					mapMatcher = MAP_PATTERN.matcher(mapResult);
 				}
 				
 				back = mapResult;
@@ -278,8 +319,31 @@ public abstract class AbstractTableNameConverter implements TableNameConverter {
 		return back;
 	}
 	
+	/**
+	 * Returns a counter which changes whenever the mappings which affect the
+	 * result of {@link #getName(Class)} change.  Memoized names are discarded
+	 * when the value differs from that at which they were computed.  Converters
+	 * which depend upon the configuration of another converter must include
+	 * that converter's revision in the result.
+	 */
+	int getRevision() {
+		return revision;
+	}
+	
+	private static Pattern compilePattern(String regexp) {
+		return Pattern.compile("^" + regexp + "$", Pattern.CASE_INSENSITIVE);
+	}
+	
 	@Override
 	public String toString() {
 		return getClass().getSimpleName();
 	}
+	
+	private static class NameCache extends ConcurrentHashMap<Class<? extends RawEntity<?>>, String> {
+		private final int revision;
+		
+		public NameCache(int revision) {
+			this.revision = revision;
+		}
+	}
 }
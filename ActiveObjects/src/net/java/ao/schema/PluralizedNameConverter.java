@@ -112,6 +112,15 @@ public class PluralizedNameConverter extends AbstractTableNameConverter {
 		return delegate.getName(entity);
 	}
 	
+	@Override
+	int getRevision() {
+		if (delegate instanceof AbstractTableNameConverter) {
+			return super.getRevision() + ((AbstractTableNameConverter) delegate).getRevision();
+		}
+		
+		return super.getRevision();
+	}
+	
 	@Override
 	protected String postProcessName(String back) {
 		if (delegate instanceof AbstractTableNameConverter) {
@@ -32,6 +32,7 @@ public class BaseTests extends TestUtilities {
 		suite.addTest(asTest(RelationsCacheTest.class));
 		suite.addTest(asTest(EntityManagerTest.class));
 		suite.addTest(asTest(QueryTest.class));
+		suite.addTest(asTest(GeneratedEntityTest.class));
 		suite.addTest(asTest(SearchTest.class));
 		//$JUnit-END$
 		return suite;
@@ -18,6 +18,7 @@ package net.java.ao;
 import static net.java.ao.TestUtilities.postgresName;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
@@ -26,7 +27,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
 
 import net.java.ao.schema.FieldNameConverter;
 import net.java.ao.schema.TableNameConverter;
@@ -63,6 +71,93 @@ public class EntityManagerTest extends DataTest {
 		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
 	}
 	
+	@Test
+	public void testGetCacheCounters() {
+		long hits = manager.getEntityCacheHitCount();
+		long misses = manager.getEntityCacheMissCount();
+		
+		Person person = manager.get(Person.class, personID);
+		assertEquals(misses + 1, manager.getEntityCacheMissCount());
+		
+		assertTrue(person == manager.get(Person.class, personID));
+		assertEquals(hits + 1, manager.getEntityCacheHitCount());
+		assertEquals(misses + 1, manager.getEntityCacheMissCount());
+	}
+	
+	@Test
+	public void testConcurrentGet() throws InterruptedException {
+		final Person[] people = new Person[16];
+		Thread[] threads = new Thread[people.length];
+		
+		for (int i = 0; i < threads.length; i++) {
+			final int index = i;
+			
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					people[index] = manager.get(Person.class, personID);
+				}
+			};
+		}
+		
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		for (Person person : people) {
+			assertTrue(person == people[0]);
+		}
+	}
+	
+	@Test
+	public void testGetMultiple() {
+		Pen[] pens = manager.get(Pen.class, penIDs[0], penIDs[1], -1, penIDs[0]);
+		
+		assertEquals(4, pens.length);
+		assertEquals(penIDs[0], pens[0].getID());
+		assertEquals(penIDs[1], pens[1].getID());
+		assertNull(pens[2]);
+		assertTrue(pens[0] == pens[3]);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		manager.get(Pen.class, penIDs[0], penIDs[1]);
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+	}
+	
+	@Test
+	public void testGetMultipleWidenedKeys() {
+		Pen[] pens = getUnchecked(Pen.class, (long) penIDs[0], (long) penIDs[1]);
+		
+		assertEquals(2, pens.length);
+		assertNotNull(pens[0]);
+		assertNotNull(pens[1]);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		Pen[] again = getUnchecked(Pen.class, (long) penIDs[0], (long) penIDs[1]);
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		assertTrue(pens[0] == again[0]);
+		assertTrue(pens[1] == again[1]);
+	}
+	
+	@SuppressWarnings("unchecked")
+	private <T extends RawEntity<K>, K> T[] getUnchecked(Class<T> type, Object... keys) {
+		return manager.get(type, (K[]) keys);
+	}
+	
+	@Test
+	public void testGetCheckPreload() {
+		Pen pen = manager.get(Pen.class, penIDs[0]);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		pen.getWidth();
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+	}
+	
 	@Test
 	public void testReservedGet() {
 		assertNull(manager.get(Select.class, 123));
@@ -216,6 +311,72 @@ public class EntityManagerTest extends DataTest {
 		manager.delete(person);
 	}
 	
+	@Test
+	public void testCreateAll() throws SQLException {
+		String companyTableName = manager.getTableNameConverter().getName(Company.class);
+		companyTableName = manager.getProvider().processID(companyTableName);
+		
+		List<DBParam[]> rows = new ArrayList<DBParam[]>();
+		for (int i = 0; i < 3; i++) {
+			rows.add(new DBParam[] {new DBParam("name", "Batch Company " + i)});
+		}
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		Company[] companies = manager.createAll(Company.class, rows);
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		assertEquals(3, companies.length);
+		
+		Connection conn = manager.getProvider().getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement("SELECT " + postgresName("name") + "," 
+					+ postgresName("motivation") + " FROM " + postgresName(companyTableName) 
+					+ " WHERE " + postgresName("companyID") + " = ?");
+			
+			for (int i = 0; i < companies.length; i++) {
+				stmt.setLong(1, companies[i].getCompanyID());
+				
+				ResultSet res = stmt.executeQuery();
+				if (res.next()) {
+					assertEquals("Batch Company " + i, res.getString("name"));
+					assertNotNull(res.getString("motivation"));
+				} else {
+					fail("Unable to find INSERTed company row");
+				}
+				res.close();
+			}
+			
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		manager.delete(companies);
+		
+		List<Map<String, Object>> people = new ArrayList<Map<String, Object>>();
+		for (int i = 0; i < 2; i++) {
+			Map<String, Object> params = new HashMap<String, Object>();
+			params.put("url", "http://www.codecommit.com/" + i);
+			
+			people.add(params);
+		}
+		
+		Person[] persons = manager.createAll(Person.class, people);
+		
+		assertEquals(2, persons.length);
+		assertFalse(persons[0].getID() == persons[1].getID());
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (int i = 0; i < persons.length; i++) {
+			assertEquals("http://www.codecommit.com/" + i, persons[i].getURL().toString());
+		}
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		manager.delete(persons);
+		
+		assertEquals(0, manager.createAll(Company.class, new ArrayList<DBParam[]>()).length);
+	}
+	
 	@Test
 	public void testDelete() throws SQLException {
 		SQLLogMonitor.getInstance().markWatchSQL();
@@ -223,6 +384,97 @@ public class EntityManagerTest extends DataTest {
 		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
 	}
 	
+	@Test
+	public void testDeleteWhere() throws SQLException {
+		Company survivor = manager.create(Company.class, new DBParam("name", "Survivor"));
+		Company[] companies = manager.createAll(Company.class, Arrays.asList(
+				new DBParam[] {new DBParam("name", "Delete Where")},
+				new DBParam[] {new DBParam("name", "Delete Where")},
+				new DBParam[] {new DBParam("name", "Delete Where")}));
+		
+		final List<String> executed = new ArrayList<String>();
+		Handler handler = new Handler() {
+			@Override
+			public void publish(LogRecord record) {
+				executed.add(record.getMessage());
+			}
+			
+			@Override
+			public void flush() {
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+		
+		Logger logger = Logger.getLogger("net.java.ao");
+		logger.addHandler(handler);
+		try {
+			assertEquals(3, manager.deleteWhere(Company.class, 
+					Query.select().where(postgresName("name") + " = ?", "Delete Where")));
+		} finally {
+			logger.removeHandler(handler);
+		}
+		
+		assertEquals(1, executed.size());
+		assertTrue(executed.get(0).startsWith("DELETE"));
+		
+		for (Company company : companies) {
+			assertNull(manager.get(Company.class, company.getCompanyID()));
+		}
+		
+		Company retrieved = manager.get(Company.class, survivor.getCompanyID());
+		assertTrue(survivor != retrieved);
+		assertEquals("Survivor", retrieved.getName());
+		assertEquals("Survivor", survivor.getName());
+		
+		survivor = retrieved;
+		
+		assertEquals(0, manager.deleteWhere(Company.class, 
+				Query.select().where(postgresName("name") + " = ?", "Delete Where")));
+		
+		manager.delete(survivor);
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testDeleteWhereLimit() throws SQLException {
+		manager.deleteWhere(Company.class, Query.select().limit(1));
+	}
+	
+	@Test
+	public void testUpdateWhere() throws SQLException {
+		Company survivor = manager.create(Company.class, new DBParam("name", "Survivor"));
+		Company[] companies = manager.createAll(Company.class, Arrays.asList(
+				new DBParam[] {new DBParam("name", "Update Where")},
+				new DBParam[] {new DBParam("name", "Update Where")},
+				new DBParam[] {new DBParam("name", "Update Where")}));
+		
+		assertEquals("Survivor", survivor.getName());
+		assertFalse(survivor.isCool());
+		for (Company company : companies) {
+			assertEquals("Update Where", company.getName());
+			assertFalse(company.isCool());
+		}
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		assertEquals(3, manager.updateWhere(Company.class, 
+				Query.select().where(postgresName("name") + " = ?", "Update Where"), 
+				new DBParam("name", "Updated"), new DBParam("cool", true)));
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		for (Company company : companies) {
+			assertEquals("Updated", company.getName());
+			assertTrue(company.isCool());
+		}
+		
+		assertEquals("Survivor", survivor.getName());
+		assertFalse(survivor.isCool());
+		
+		manager.delete(companies);
+		manager.delete(survivor);
+	}
+	
 	@Test
 	public void testFindCheckIDs() throws SQLException {
 		Company[] coolCompanies = manager.find(Company.class, postgresName("cool") + " = ?", true);
@@ -308,6 +560,214 @@ public class EntityManagerTest extends DataTest {
 		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
 	}
 	
+	@Test
+	public void testFindCheckQueryPreload() throws SQLException {
+		manager.flushAll();
+		
+		Person[] people = manager.find(Person.class, Query.select().preload(postgresName("firstName"), postgresName("lastName")));
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (Person person : people) {
+			person.getFirstName();
+			person.getLastName();
+		}
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+	}
+	
+	@Test
+	public void testFindAdaptiveProjection() throws SQLException {
+		String criteria = postgresName("companyID") + " > ?";
+		
+		manager.flushAll();
+		
+		long lazyLoads = manager.getLazyLoadCount();
+		Company[] companies = manager.find(Company.class, criteria, 0);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (Company company : companies) {
+			company.getName();
+		}
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		assertEquals(lazyLoads + companies.length, manager.getLazyLoadCount());
+		
+		manager.flushAll();
+		
+		lazyLoads = manager.getLazyLoadCount();
+		long hits = manager.getProjectionHitCount();
+		companies = manager.find(Company.class, criteria, 0);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (Company company : companies) {
+			company.getName();
+			company.getName();
+		}
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		assertEquals(lazyLoads, manager.getLazyLoadCount());
+		assertEquals(hits + companies.length, manager.getProjectionHitCount());
+		
+		manager.flushAll();
+		manager.setAdaptiveProjection(false);
+		try {
+			companies = manager.find(Company.class, criteria, 0);
+			
+			SQLLogMonitor.getInstance().markWatchSQL();
+			for (Company company : companies) {
+				company.getName();
+			}
+			assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		} finally {
+			manager.setAdaptiveProjection(true);
+		}
+		
+		Query query = Query.select().where(criteria, 0);
+		manager.find(Company.class, query);
+		List<String> fields = Arrays.asList(query.getFields());
+		
+		manager.flushAll();
+		companies = manager.find(Company.class, query);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (Company company : companies) {
+			company.getName();
+		}
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		assertEquals(fields, Arrays.asList(query.getFields()));
+		assertFalse(fields.contains("name"));
+	}
+	
+	@Test
+	public void testPrefetch() throws SQLException {
+		manager.flushAll();
+		
+		Person[] people = manager.find(Person.class);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		manager.prefetch(people, "pens", "personLegalDefences", "company.people");
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (Person person : people) {
+			for (Pen pen : person.getPens()) {
+				pen.getWidth();
+				assertEquals(person, pen.getPerson());
+			}
+			
+			person.getPersonLegalDefences();
+			
+			Company company = person.getCompany();
+			if (company != null) {
+				company.getName();
+				
+				for (Person colleague : company.getPeople()) {
+					colleague.getFirstName();
+				}
+			}
+		}
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		try {
+			manager.prefetch(people, "firstName");
+			fail("Should have thrown IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	@Test
+	public void testFindCheckQueryInclude() throws SQLException {
+		manager.flushAll();
+		
+		Person[] people = manager.find(Person.class, Query.select().include("pens"));
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (Person person : people) {
+			for (Pen pen : person.getPens()) {
+				pen.getWidth();
+			}
+		}
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+	}
+	
+	@Test
+	public void testStream() throws SQLException {
+		Query query = Query.select().where(postgresName("cool") + " = ?", true).order(postgresName("companyID"));
+		Company[] coolCompanies = manager.find(Company.class, query);
+		
+		assertEquals(coolCompanyIDs.length, coolCompanies.length);
+		
+		EntityStream<Company> stream = manager.stream(Company.class, 
+				Query.select().where(postgresName("cool") + " = ?", true).order(postgresName("companyID")));
+		try {
+			int index = 0;
+			for (Company company : stream) {
+				assertTrue(coolCompanies[index++] == company);
+			}
+			assertEquals(coolCompanies.length, index);
+			
+			assertFalse(stream.hasNext());
+		} finally {
+			stream.close();
+		}
+		
+		final List<Person> people = new ArrayList<Person>();
+		manager.stream(Person.class, Query.select(postgresName("id") + ", " + postgresName("firstName")), true, 
+				new EntityStreamCallback<Person>() {
+			public void onRowRead(Person person) {
+				people.add(person);
+			}
+		});
+		
+		assertEquals(1, people.size());
+		assertEquals(personID, people.get(0).getID());
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		people.get(0).getFirstName();
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+	}
+	
+	@Test
+	public void testStreamLazyLoad() throws SQLException {
+		manager.flushAll();
+		
+		int index = 0;
+		EntityStream<Company> stream = manager.stream(Company.class, 
+				Query.select(postgresName("companyID")).where(postgresName("cool") + " = ?", true));
+		try {
+			for (Company company : stream) {
+				// the connection of the thread is not held by the stream
+				Connection conn = manager.getProvider().getConnection();
+				conn.close();
+				assertTrue(conn.isClosed());
+				
+				SQLLogMonitor.getInstance().markWatchSQL();
+				assertNotNull(company.getName());
+				assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+				
+				index++;
+			}
+		} finally {
+			stream.close();
+		}
+		
+		assertEquals(coolCompanyIDs.length, index);
+	}
+	
+	@Test
+	public void testStreamInTransaction() throws SQLException {
+		new Transaction<Object>(manager) {
+			@Override
+			protected Object run() throws SQLException {
+				try {
+					manager.stream(Company.class, Query.select());
+					fail("Stream opened within a transaction");
+				} catch (IllegalStateException e) {
+				}
+				
+				return null;
+			}
+		}.execute();
+	}
+	
 	@Test
 	public void testFindWithSQL() throws SQLException {
 		String companyTableName = manager.getTableNameConverter().getName(Company.class);
@@ -390,6 +850,145 @@ public class EntityManagerTest extends DataTest {
 		assertEquals(0, manager.count(Select.class));
 	}
 	
+	@Test
+	public void testStatementCache() throws SQLException {
+		String companyTableName = manager.getTableNameConverter().getName(Company.class);
+		companyTableName = manager.getProvider().processID(companyTableName);
+		
+		String sql = "SELECT " + postgresName("name") + " FROM " + postgresName(companyTableName) 
+				+ " WHERE " + postgresName("companyID") + " = ?";
+		
+		long hits = manager.getProvider().getStatementCacheHitCount();
+		
+		Connection conn = manager.getProvider().getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, coolCompanyIDs[0]);
+			
+			PreparedStatement nested = conn.prepareStatement(sql);
+			assertTrue(stmt != nested);
+			nested.close();
+			
+			ResultSet res = stmt.executeQuery();
+			assertTrue(res.next());
+			stmt.close();
+			
+			assertTrue(stmt.isClosed());
+			
+			stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, coolCompanyIDs[1]);
+			
+			res = stmt.executeQuery();
+			assertTrue(res.next());
+			res.close();
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		assertEquals(hits + 1, manager.getProvider().getStatementCacheHitCount());
+	}
+	
+	@Test
+	public void testStatementCacheLifetime() throws SQLException {
+		String companyTableName = manager.getTableNameConverter().getName(Company.class);
+		companyTableName = manager.getProvider().processID(companyTableName);
+		
+		final String sql = "SELECT " + postgresName("name") + " FROM " + postgresName(companyTableName) 
+				+ " WHERE " + postgresName("companyID") + " = ?";
+		
+		final long hits = manager.getProvider().getStatementCacheHitCount();
+		
+		Connection conn = new Transaction<Connection>(manager) {
+			@Override
+			protected Connection run() throws SQLException {
+				Connection back = null;
+				
+				for (int i = 0; i < 3; i++) {
+					Connection conn = manager.getProvider().getConnection();
+					try {
+						PreparedStatement stmt = conn.prepareStatement(sql);
+						stmt.setLong(1, coolCompanyIDs[i]);
+						
+						ResultSet res = stmt.executeQuery();
+						assertTrue(res.next());
+						res.close();
+						stmt.close();
+					} finally {
+						conn.close();
+					}
+					
+					assertFalse(conn.isClosed());
+					back = conn;
+				}
+				
+				assertEquals(hits + 2, manager.getProvider().getStatementCacheHitCount());
+				
+				long before = manager.getProvider().getStatementCacheHitCount();
+				
+				manager.get(Company.class, coolCompanyIDs[0]).getName();
+				manager.flushAll();
+				manager.get(Company.class, coolCompanyIDs[0]).getName();
+				
+				assertTrue(manager.getProvider().getStatementCacheHitCount() > before);
+				
+				return back;
+			}
+		}.execute();
+		
+		assertTrue(conn.isClosed());
+		
+		long before = manager.getProvider().getStatementCacheHitCount();
+		
+		conn = manager.getProvider().getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement(sql);
+			stmt.setLong(1, coolCompanyIDs[0]);
+			
+			ResultSet res = stmt.executeQuery();
+			assertTrue(res.next());
+			res.close();
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		assertEquals(before, manager.getProvider().getStatementCacheHitCount());
+	}
+	
+	@Test
+	public void testConnectionPerThread() throws Exception {
+		final DatabaseProvider provider = manager.getProvider();
+		final Connection[] other = new Connection[1];
+		
+		Connection conn = provider.getConnection();
+		assertTrue(conn == provider.getConnection());
+		
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					other[0] = provider.getConnection();
+				} catch (SQLException e) {
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		
+		assertNotNull(other[0]);
+		assertTrue(conn != other[0]);
+		
+		provider.dispose();
+		
+		assertTrue(conn.isClosed());
+		assertTrue(other[0].isClosed());
+		
+		Connection fresh = provider.getConnection();
+		assertTrue(conn != fresh);
+		fresh.close();
+	}
+	
 	@Test(expected=RuntimeException.class)
 	public void testNullTypeMapper() {
 		EntityManager manager = new EntityManager("jdbc:hsqldb:mem:other_testdb", null, null);
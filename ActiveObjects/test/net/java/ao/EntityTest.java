@@ -62,6 +62,7 @@ import test.schema.PrintDistribution;
 import test.schema.Profession;
 import test.schema.PublicationToDistribution;
 import test.schema.Select;
+import test.schema.Ticket;
 
 
 /**
@@ -128,6 +129,41 @@ public class EntityTest extends DataTest {
 		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
 	}
 	
+	@Test
+	public void testRowLoadStrategy() throws IOException {
+		manager.setLoadStrategy(LoadStrategy.ROW);
+		try {
+			Person person = manager.get(Person.class, personID);
+			manager.flush(person);
+			
+			SQLLogMonitor.getInstance().markWatchSQL();
+			assertEquals("Daniel", person.getFirstName());
+			assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+			
+			SQLLogMonitor.getInstance().markWatchSQL();
+			person.getLastName();
+			assertEquals(Profession.DEVELOPER, person.getProfession());
+			assertEquals(companyID, person.getCompany().getCompanyID());
+			person.getURL();
+			person.isActive();
+			assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+			
+			SQLLogMonitor.getInstance().markWatchSQL();
+			person.getAge();		// @Transient
+			assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+			
+			Company company = manager.get(Company.class, companyID);
+			manager.flush(company);
+			company.getName();
+			
+			SQLLogMonitor.getInstance().markWatchSQL();
+			company.getImage().close();		// InputStream
+			assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		} finally {
+			manager.setLoadStrategy(LoadStrategy.FIELD);
+		}
+	}
+	
 	@Test
 	public void testUncachableCacheAccessor() throws IOException {
 		Company company = manager.get(Company.class, companyID);
@@ -471,6 +507,174 @@ public class EntityTest extends DataTest {
 		manager.delete(person);
 	}
 	
+	@Test
+	public void testUnitOfWork() throws SQLException {
+		String companyTableName = manager.getTableNameConverter().getName(Company.class);
+		companyTableName = manager.getProvider().processID(companyTableName);
+		
+		Company[] companies = {manager.create(Company.class), manager.create(Company.class), manager.create(Company.class)};
+		
+		final String[] fired = {""};
+		companies[1].addPropertyChangeListener(new PropertyChangeListener() {
+			public void propertyChange(PropertyChangeEvent evt) {
+				fired[0] = evt.getPropertyName();
+			}
+		});
+		
+		manager.beginUnitOfWork();
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		for (int i = 0; i < companies.length; i++) {
+			companies[i].setName("Unit of Work " + i);
+			companies[i].save();
+		}
+		companies[2].setCool(true);
+		companies[2].save();
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		assertEquals("Unit of Work 1", companies[1].getName());
+		assertEquals("", fired[0]);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		manager.flushUnitOfWork();
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		assertEquals("name", fired[0]);
+		
+		Connection conn = manager.getProvider().getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement("SELECT " + postgresName("name") 
+					+ ", " + postgresName("cool") + " FROM " + postgresName(companyTableName) 
+					+ " WHERE " + postgresName("companyID") + " = ?");
+			
+			for (int i = 0; i < companies.length; i++) {
+				stmt.setLong(1, companies[i].getCompanyID());
+				
+				ResultSet res = stmt.executeQuery();
+				if (res.next()) {
+					assertEquals("Unit of Work " + i, res.getString("name"));
+					assertEquals(i == 2, res.getBoolean("cool"));
+				} else {
+					fail("No company found");
+				}
+				res.close();
+			}
+			
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		companies[0].setName("After Unit of Work");
+		companies[0].save();
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		manager.delete(companies);
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testFlushWithoutUnitOfWork() throws SQLException {
+		manager.flushUnitOfWork();
+	}
+	
+	@Test
+	public void testDiscardUnitOfWork() throws SQLException {
+		Company company = manager.create(Company.class);
+		
+		try {
+			manager.beginUnitOfWork();
+			try {
+				company.setName("Discarded");
+				company.save();
+				
+				throw new RuntimeException("Aborting unit of work");
+			} finally {
+				manager.discardUnitOfWork();
+			}
+		} catch (RuntimeException e) {
+			assertEquals("Aborting unit of work", e.getMessage());
+		}
+		
+		try {
+			manager.flushUnitOfWork();
+			fail("Unit of work still bound to the thread");
+		} catch (IllegalStateException e) {
+		}
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		company.setName("After Discard");
+		company.save();
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		manager.discardUnitOfWork();		// no-op without a unit of work
+		
+		manager.delete(company);
+	}
+	
+	@Test
+	public void testUnitOfWorkStaleVersion() throws SQLException {
+		String ticketTableName = manager.getTableNameConverter().getName(Ticket.class);
+		ticketTableName = manager.getProvider().processID(ticketTableName);
+		
+		Ticket[] tickets = {manager.create(Ticket.class), manager.create(Ticket.class)};
+		for (Ticket ticket : tickets) {
+			assertEquals(0, ticket.getVersion());
+		}
+		
+		Connection conn = manager.getProvider().getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement("UPDATE " + postgresName(ticketTableName) 
+					+ " SET " + postgresName("version") + " = 1 WHERE " + postgresName("id") + " = ?");
+			stmt.setInt(1, tickets[1].getID());
+			stmt.executeUpdate();
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		manager.beginUnitOfWork();
+		for (int i = 0; i < tickets.length; i++) {
+			tickets[i].setTitle("Ticket " + i);
+			tickets[i].save();
+		}
+		
+		try {
+			manager.flushUnitOfWork();
+			fail("Stale ticket updated by the batch");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().startsWith("Stale object"));
+			assertNull(e.getNextException());
+		}
+		
+		conn = manager.getProvider().getConnection();
+		try {
+			PreparedStatement stmt = conn.prepareStatement("SELECT " + postgresName("title") 
+					+ "," + postgresName("version") + " FROM " + postgresName(ticketTableName) 
+					+ " WHERE " + postgresName("id") + " = ?");
+			
+			stmt.setInt(1, tickets[0].getID());
+			ResultSet res = stmt.executeQuery();
+			assertTrue(res.next());
+			assertEquals("Ticket 0", res.getString("title"));
+			assertEquals(1, res.getInt("version"));
+			res.close();
+			
+			stmt.setInt(1, tickets[1].getID());
+			res = stmt.executeQuery();
+			assertTrue(res.next());
+			assertNull(res.getString("title"));
+			assertEquals(1, res.getInt("version"));
+			res.close();
+			
+			stmt.close();
+		} finally {
+			conn.close();
+		}
+		
+		manager.delete(tickets);
+	}
+	
 	@Test
 	public void testOnUpdate() {
 		if (manager.getProvider().getURI().startsWith("jdbc:hsqldb")) {
@@ -829,6 +1033,78 @@ public class EntityTest extends DataTest {
 		}
 	}
 	
+	@Test
+	public void testManyToManyRetrievalJoinFetch() {
+		EntityProxy.ignorePreload = true;
+		try {
+			manager.flushAll();
+			
+			Person person = manager.get(Person.class, personID);
+			
+			for (PersonLegalDefence defence : person.getPersonLegalDefences()) {
+				SQLLogMonitor.getInstance().markWatchSQL();
+				defence.getSeverity();
+				assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+			}
+			
+			manager.setJoinFetch(false);
+			manager.flushAll();
+			
+			PersonLegalDefence[] defences = person.getPersonLegalDefences();
+			
+			SQLLogMonitor.getInstance().markWatchSQL();
+			defences[0].getSeverity();
+			assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		} finally {
+			manager.setJoinFetch(true);
+			EntityProxy.ignorePreload = false;
+		}
+	}
+	
+	@Test
+	public void testManyToManyRetrievalJoinFetchWhere() throws SQLException {
+		PersonLegalDefence deletedDefence = manager.get(PersonLegalDefence.class, defenceIDs[0]);
+		PersonSuit deletedSuit = manager.get(PersonSuit.class, suitIDs[1]);		// suit of the second defence
+		
+		EntityProxy.ignorePreload = true;
+		try {
+			deletedDefence.setDeleted(true);		// same column as in the where clause, but on the joined table
+			deletedDefence.save();
+			
+			deletedSuit.setDeleted(true);
+			deletedSuit.save();
+			
+			manager.flushAll();
+			
+			Person person = manager.get(Person.class, personID);
+			PersonLegalDefence[] defences = person.getPersonLegalDefences();
+			
+			assertEquals(defenceIDs.length - 1, defences.length);
+			
+			boolean found = false;
+			for (PersonLegalDefence defence : defences) {
+				assertTrue(defence.getID() != defenceIDs[1]);
+				
+				if (defence.getID() == defenceIDs[0]) {
+					found = true;
+				}
+				
+				SQLLogMonitor.getInstance().markWatchSQL();
+				defence.getSeverity();
+				assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+			}
+			assertTrue(found);
+		} finally {
+			EntityProxy.ignorePreload = false;
+			
+			deletedDefence.setDeleted(false);
+			deletedDefence.save();
+			
+			deletedSuit.setDeleted(false);
+			deletedSuit.save();
+		}
+	}
+	
 	@Test
 	public void testManyToManyRetrievalFromCache() {
 		Person person = manager.get(Person.class, personID);
@@ -1240,11 +1516,11 @@ public class EntityTest extends DataTest {
 		magazine.getDistributions();
 		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
 		
-		manager.delete(mapping);
+		manager.delete(mapping);		// no longer references the magazine
 		
 		SQLLogMonitor.getInstance().markWatchSQL();
 		magazine.getDistributions();
-		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
 	}
 
 	@Test
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2007 Daniel Spiewak
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); 
+ * you may not use this file except in compliance with the License. 
+ * You may obtain a copy of the License at
+ * 
+ *	    http://www.apache.org/licenses/LICENSE-2.0 
+ * 
+ * Unless required by applicable law or agreed to in writing, software 
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.java.ao;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+
+import net.java.ao.schema.FieldNameConverter;
+import net.java.ao.schema.TableNameConverter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import test.schema.Company;
+import test.schema.Person;
+import test.schema.PersonImpl;
+import test.schema.Profession;
+
+/**
+ * @author Daniel Spiewak
+ */
+public class GeneratedEntityTest extends DataTest {
+	
+	public GeneratedEntityTest(int ordinal, TableNameConverter tableConverter, FieldNameConverter fieldConverter) throws SQLException {
+		super(ordinal, tableConverter, fieldConverter);
+	}
+	
+	@Before
+	public void enableGeneration() {
+		manager.setGenerateEntityClasses(true);
+	}
+	
+	@Test
+	public void testGeneratedClass() {
+		Person person = manager.get(Person.class, personID);
+		
+		assertTrue(person instanceof GeneratedEntity);
+		assertFalse(Proxy.isProxyClass(person.getClass()));
+		
+		Company company1 = manager.get(Company.class, coolCompanyIDs[0]);
+		Company company2 = manager.get(Company.class, coolCompanyIDs[1]);
+		
+		assertTrue(company1 instanceof GeneratedEntity);
+		assertEquals(company1.getClass(), company2.getClass());
+	}
+	
+	@Test
+	public void testProxyFallback() {
+		manager.setGenerateEntityClasses(false);
+		
+		assertTrue(Proxy.isProxyClass(manager.get(Company.class, companyID).getClass()));
+	}
+	
+	@Test
+	public void testDatabaseAccessor() {
+		Person person = manager.get(Person.class, personID);
+		
+		assertEquals(personID, person.getID());
+		assertEquals(Person.class, person.getEntityType());
+		assertEquals(manager, person.getEntityManager());
+		
+		assertEquals("Daniel", person.getFirstName());
+		assertEquals(Profession.DEVELOPER, person.getProfession());
+		assertFalse(person.isActive());
+		
+		assertEquals(companyID, person.getCompany().getCompanyID());
+		assertEquals("Company Name", person.getCompany().getName());
+		assertEquals(false, person.getCompany().isCool());
+	}
+	
+	@Test
+	public void testCacheAccessor() {
+		Person person = manager.get(Person.class, personID);
+		
+		person.getFirstName();
+		person.getCompany().getName();
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		
+		assertEquals("Daniel", person.getFirstName());
+		assertEquals("Company Name", person.getCompany().getName());
+		
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+	}
+	
+	@Test
+	public void testMutatorAndSave() {
+		Person person = manager.get(Person.class, personID);
+		
+		person.setAge(32);
+		person.save();
+		
+		manager.flushAll();
+		assertEquals(32, person.getAge());
+	}
+	
+	@Test
+	public void testObjectMethods() {
+		Person person = manager.get(Person.class, personID);
+		
+		assertEquals(person, manager.get(Person.class, personID));
+		assertFalse(manager.get(Company.class, coolCompanyIDs[0]).equals(manager.get(Company.class, coolCompanyIDs[1])));
+		
+		assertEquals(manager.getProxyForEntity(person).hashCodeImpl(), person.hashCode());
+		assertEquals(manager.getProxyForEntity(person).toStringImpl(), person.toString());
+	}
+	
+	@Test
+	public void testDefinedImplementation() {
+		Person person = manager.get(Person.class, personID);
+		
+		PersonImpl.enableOverride = true;
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		assertEquals("Smith", person.getLastName());
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		PersonImpl.enableOverride = false;
+		
+		person.setLastName("Jameson");
+		assertEquals("Jameson", person.getLastName());
+	}
+}
@@ -16,6 +16,9 @@
 package net.java.ao;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.sql.SQLException;
 
@@ -35,6 +38,7 @@ import org.junit.Test;
 import test.schema.Comment;
 import test.schema.Company;
 import test.schema.Person;
+import test.schema.Post;
 
 /**
  * @author Daniel Spiewak
@@ -130,7 +134,8 @@ public class QueryTest extends DataTest {
 		assertEquals("SELECT id FROM " + personTableName + " ORDER BY name DESC", query4.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
 		assertEquals("SELECT TOP 10 id FROM " + personTableName + " WHERE name IS NULL AND age = 3", 
 				query5.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
-		assertEquals("SELECT TOP 14 id FROM " + personTableName + " WHERE name IS NULL AND age = 3", 
+		assertEquals("SELECT * FROM (SELECT id, ROW_NUMBER() OVER (ORDER BY (SELECT 0)) AS ao_rownum FROM " + personTableName 
+				+ " WHERE name IS NULL AND age = 3) ao_page WHERE ao_rownum > 4 AND ao_rownum <= 14 ORDER BY ao_rownum", 
 				query6.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
 		assertEquals("SELECT TOP 4 id FROM " + personTableName + " WHERE name IS NULL AND age = 3 GROUP BY age", 
 				query7.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
@@ -184,11 +189,12 @@ public class QueryTest extends DataTest {
 		assertEquals("SELECT id,firstName,lastName FROM " + personTableName, query2.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
 		assertEquals("SELECT id FROM " + personTableName + " WHERE name IS NULL AND age = 3", query3.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
 		assertEquals("SELECT id FROM " + personTableName + " ORDER BY name DESC", query4.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
-		assertEquals("SELECT id FROM " + personTableName + " WHERE name IS NULL AND age = 3",
+		assertEquals("SELECT * FROM (SELECT id FROM " + personTableName + " WHERE name IS NULL AND age = 3) WHERE ROWNUM <= 10",
 				query5.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
-		assertEquals("SELECT id FROM " + personTableName + " WHERE name IS NULL AND age = 3", 
+		assertEquals("SELECT * FROM (SELECT ao_inner.*, ROWNUM ao_rownum FROM (SELECT id FROM " + personTableName 
+				+ " WHERE name IS NULL AND age = 3) ao_inner WHERE ROWNUM <= 14) WHERE ao_rownum > 4", 
 				query6.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
-		assertEquals("SELECT id FROM " + personTableName + " WHERE name IS NULL AND age = 3 GROUP BY age", 
+		assertEquals("SELECT * FROM (SELECT id FROM " + personTableName + " WHERE name IS NULL AND age = 3 GROUP BY age) WHERE ROWNUM <= 4", 
 				query7.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
 		assertEquals("SELECT id FROM " + personTableName + " JOIN " + companyTableName + " WHERE name IS NULL AND age = 3 GROUP BY url", 
 				query8.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
@@ -248,6 +254,149 @@ public class QueryTest extends DataTest {
 		assertEquals(unlimited[3].getID(), comments[2].getID());
 	}
 	
+	@Test
+	public void testHints() throws SQLException {
+		Query query = Query.select().fetchSize(1).maxRows(2).timeout(30);
+		
+		assertEquals(2, manager.find(Comment.class, query).length);
+		assertEquals(2, manager.find(Comment.class, Query.select().maxRows(3).limit(2)).length);
+		assertEquals(manager.count(Comment.class), manager.count(Comment.class, Query.select().fetchSize(1).timeout(30)));
+		
+		Query copy = query.copy();
+		assertEquals(1, copy.getFetchSize());
+		assertEquals(2, copy.getMaxRows());
+		assertEquals(30, copy.getTimeout());
+	}
+	
+	@Test
+	public void testPaginationToSQL() {
+		String personTableName = manager.getTableNameConverter().getName(Person.class);
+		personTableName = manager.getProvider().processID(personTableName);
+		
+		Query query1 = Query.select().order("name DESC").offset(20);
+		Query query2 = Query.select().distinct().order("id").limit(10).offset(20);
+		
+		TableNameConverter converter = manager.getTableNameConverter();
+		DatabaseProvider provider = new JTDSSQLServerDatabaseProvider("", "", "");
+		
+		assertEquals("SELECT * FROM (SELECT id, ROW_NUMBER() OVER (ORDER BY name DESC) AS ao_rownum FROM " + personTableName 
+				+ ") ao_page WHERE ao_rownum > 20 ORDER BY ao_rownum", 
+				query1.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+		assertEquals("SELECT * FROM (SELECT ao_distinct.*, ROW_NUMBER() OVER (ORDER BY id) AS ao_rownum FROM (SELECT DISTINCT id FROM " 
+				+ personTableName + ") ao_distinct) ao_page WHERE ao_rownum > 20 AND ao_rownum <= 30 ORDER BY ao_rownum", 
+				query2.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+		
+		provider = new OracleDatabaseProvider("", "", "");
+		
+		assertEquals("SELECT * FROM (SELECT ao_inner.*, ROWNUM ao_rownum FROM (SELECT id FROM " + personTableName 
+				+ " ORDER BY name DESC) ao_inner) WHERE ao_rownum > 20", 
+				query1.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+		assertEquals("SELECT * FROM (SELECT ao_inner.*, ROWNUM ao_rownum FROM (SELECT DISTINCT id FROM " + personTableName 
+				+ " ORDER BY id) ao_inner WHERE ROWNUM <= 30) WHERE ao_rownum > 20", 
+				query2.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+	}
+	
+	@Test
+	public void testKeysetToSQL() {
+		String personTableName = manager.getTableNameConverter().getName(Person.class);
+		personTableName = manager.getProvider().processID(personTableName);
+		
+		Query query1 = Query.select().after("id", 5);
+		Query query2 = Query.select().where("name IS NULL OR age = 3").after("id", 5);
+		Query query3 = Query.select().after("id", null);
+		Query query4 = Query.select().order("id ASC").after("id", 5);
+		
+		TableNameConverter converter = manager.getTableNameConverter();
+		DatabaseProvider provider = new EmbeddedDerbyDatabaseProvider("", "", "");
+		
+		assertEquals("SELECT id FROM " + personTableName + " WHERE id > ? ORDER BY id", 
+				query1.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+		assertEquals("SELECT id FROM " + personTableName + " WHERE (name IS NULL OR age = 3) AND id > ? ORDER BY id", 
+				query2.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+		assertEquals("SELECT id FROM " + personTableName + " ORDER BY id", 
+				query3.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+		assertEquals("SELECT id FROM " + personTableName + " WHERE id > ? ORDER BY id ASC", 
+				query4.toSQL(Person.class, provider, converter, getFieldNameConverter(), false));
+	}
+	
+	@Test
+	public void testKeysetConflicts() {
+		try {
+			Query.select().order("name DESC").after("id", 5);
+			fail("Keyset on id allowed with ORDER BY name");
+		} catch (IllegalStateException e) {
+		}
+		
+		try {
+			Query.select().after("id", 5).order("name");
+			fail("ORDER BY name allowed with keyset on id");
+		} catch (IllegalStateException e) {
+		}
+		
+		try {
+			Query.select().after("id", 5).order("id DESC");
+			fail("Descending order allowed with keyset");
+		} catch (IllegalStateException e) {
+		}
+		
+		try {
+			Query.select().join(Person.class).after("id", 5);
+			fail("Keyset allowed with joins");
+		} catch (IllegalStateException e) {
+		}
+		
+		try {
+			Query.select().after("id", 5).join(Person.class, "companyID = company.id");
+			fail("Join allowed with keyset");
+		} catch (IllegalStateException e) {
+		}
+	}
+	
+	@Test
+	public void testAfter() throws SQLException {
+		Comment[] unlimited = manager.find(Comment.class, Query.select().order("id"));
+		Comment[] comments = manager.find(Comment.class, Query.select().after("id", unlimited[1].getID()).limit(2));
+		
+		assertEquals(2, comments.length);
+		assertEquals(unlimited[2].getID(), comments[0].getID());
+		assertEquals(unlimited[3].getID(), comments[1].getID());
+	}
+	
+	@Test
+	public void testFindPages() throws SQLException {
+		Query query = Query.select();
+		
+		Comment[] unlimited = manager.find(Comment.class, Query.select().order("id"));
+		
+		int index = 0;
+		for (Comment[] page : manager.findPages(Comment.class, query, 3)) {
+			assertTrue(page.length > 0 && page.length <= 3);
+			
+			for (Comment comment : page) {
+				assertEquals(unlimited[index++].getID(), comment.getID());
+			}
+		}
+		assertEquals(unlimited.length, index);
+		
+		assertNull(query.getAfterField());
+		assertEquals(-1, query.getLimit());
+	}
+	
+	@Test
+	public void testFindPagesInvalid() {
+		try {
+			manager.findPages(Comment.class, Query.select().order("text"), 3);
+			fail("Paginated query allowed with ORDER BY");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		try {
+			manager.findPages(Comment.class, Query.select().join(Post.class), 3);
+			fail("Paginated query allowed with joins");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
 	private FieldNameConverter getFieldNameConverter() {
 		return converter;
 	}
@@ -15,15 +15,23 @@
  */
 package net.java.ao;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
 
+import net.java.ao.cache.RAMRelationsCache;
 import net.java.ao.schema.FieldNameConverter;
 import net.java.ao.schema.TableNameConverter;
 
 import org.junit.Test;
 
+import test.schema.Company;
 import test.schema.Pen;
 import test.schema.Person;
 import test.schema.PersonLegalDefence;
@@ -43,7 +51,7 @@ public class RelationsCacheTest extends DataTest {
 		Person person = manager.get(Person.class, personID);
 		person.getPens();
 		
-		Pen pen = manager.create(Pen.class);
+		Pen pen = manager.create(Pen.class, new DBParam("personID", person));
 		
 		SQLLogMonitor.getInstance().markWatchSQL();
 		person.getPens();
@@ -52,6 +60,20 @@ public class RelationsCacheTest extends DataTest {
 		manager.delete(pen);
 	}
 	
+	@Test
+	public void testOneToManyUnrelatedCreation() throws SQLException {
+		Person person = manager.get(Person.class, personID);
+		person.getPens();
+		
+		Pen pen = manager.create(Pen.class);
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		person.getPens();
+		assertFalse(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		manager.delete(pen);
+	}
+	
 	@Test
 	public void testOneToManyDestinationDeletion() throws SQLException {
 		Pen pen = manager.create(Pen.class);
@@ -91,12 +113,97 @@ public class RelationsCacheTest extends DataTest {
 		pen.save();
 	}
 	
+	@Test
+	public void testOneToManyFieldModificationOutside() throws SQLException {
+		Pen pen = manager.create(Pen.class);
+		Person person = manager.get(Person.class, personID);
+		person.getPens();
+		
+		pen.setPerson(person);
+		pen.save();
+		
+		SQLLogMonitor.getInstance().markWatchSQL();
+		person.getPens();
+		assertTrue(SQLLogMonitor.getInstance().isExecutedSQL());
+		
+		manager.delete(pen);
+	}
+	
+	@Test
+	public void testMaximumSize() {
+		RAMRelationsCache cache = new RAMRelationsCache(1, false);
+		cache.setMaximumSize(2);
+		
+		Person person = manager.get(Person.class, personID);
+		String[] fields = {"personID"};
+		
+		cache.put(person, new Pen[0], Pen.class, new Pen[0], Pen.class, fields);
+		cache.put(person, new PersonSuit[0], PersonSuit.class, new PersonLegalDefence[0], PersonLegalDefence.class, fields);
+		assertNotNull(cache.get(person, Pen.class, Pen.class, fields));
+		
+		cache.put(person, new Company[0], Company.class, new Company[0], Company.class, fields);
+		
+		assertEquals(2, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+		assertNotNull(cache.get(person, Pen.class, Pen.class, fields));
+		assertNull(cache.get(person, PersonLegalDefence.class, PersonSuit.class, fields));
+		assertNotNull(cache.get(person, Company.class, Company.class, fields));
+		
+		cache.remove(Company.class);
+		assertEquals(1, cache.getSize());
+		assertEquals(1, cache.getEvictionCount());
+	}
+	
+	@Test
+	public void testRemoveByKey() {
+		RAMRelationsCache cache = new RAMRelationsCache(1, false);
+		String[] fields = {"personID"};
+		
+		Pen[] pens = new Pen[penIDs.length];
+		for (int i = 0; i < pens.length; i++) {
+			pens[i] = manager.get(Pen.class, penIDs[i]);
+			cache.put(pens[i], new Company[0], Company.class, new Person[0], Person.class, fields);
+		}
+		
+		cache.remove(Company.class, Person.class, Arrays.asList(penIDs[0]));
+		assertEquals(pens.length, cache.getSize());
+		
+		cache.remove(Company.class, Pen.class, Arrays.asList((long) penIDs[0]));
+		assertEquals(pens.length - 1, cache.getSize());
+		assertNull(cache.get(pens[0], Person.class, Company.class, fields));
+		
+		for (int i = 1; i < pens.length; i++) {
+			assertNotNull(cache.get(pens[i], Person.class, Company.class, fields));
+		}
+		
+		cache.remove(Pen.class, Pen.class, Arrays.asList(penIDs[1]));
+		assertEquals(pens.length - 1, cache.getSize());
+	}
+	
+	@Test
+	public void testExpiration() throws InterruptedException {
+		RAMRelationsCache cache = new RAMRelationsCache(1, false);
+		cache.setExpiration(10, TimeUnit.MILLISECONDS);
+		
+		Person person = manager.get(Person.class, personID);
+		String[] fields = {"personID"};
+		
+		cache.put(person, new Pen[0], Pen.class, new Pen[0], Pen.class, fields);
+		assertNotNull(cache.get(person, Pen.class, Pen.class, fields));
+		
+		Thread.sleep(50);
+		
+		assertNull(cache.get(person, Pen.class, Pen.class, fields));
+		assertEquals(1, cache.getExpirationCount());
+		assertEquals(0, cache.getSize());
+	}
+	
 	@Test
 	public void testManyToManyIntermediateCreation() throws SQLException {
 		Person person = manager.get(Person.class, personID);
 		person.getPersonLegalDefences();
 		
-		PersonSuit suit = manager.create(PersonSuit.class);
+		PersonSuit suit = manager.create(PersonSuit.class, new DBParam("personID", personID));
 		
 		SQLLogMonitor.getInstance().markWatchSQL();
 		person.getPersonLegalDefences();
@@ -34,6 +34,7 @@ import test.schema.PrintDistribution;
 import test.schema.Publication;
 import test.schema.PublicationToDistribution;
 import test.schema.Select;
+import test.schema.Ticket;
 import test.schema.UserBase;
 
 /*
@@ -71,7 +72,8 @@ public class TestUtilities {
 			manager.migrate(PersonSuit.class, Pen.class, Comment.class, Photo.class, Post.class, Nose.class,
 					Authorship.class, Book.class, Magazine.class, 
 					PublicationToDistribution.class, PrintDistribution.class, OnlineDistribution.class,
-					Message.class, EmailAddress.class, PostalAddress.class, Select.class, UserBase.class);
+					Message.class, EmailAddress.class, PostalAddress.class, Select.class, UserBase.class,
+					Ticket.class);
 		} catch (Throwable t) {
 			t.printStackTrace();
 		}
@@ -880,6 +882,9 @@ public class TestUtilities {
 
 			String selectTableName = manager.getTableNameConverter().getName(Select.class);
 			selectTableName = manager.getProvider().processID(selectTableName);
+
+			String ticketTableName = manager.getTableNameConverter().getName(Ticket.class);
+			ticketTableName = manager.getProvider().processID(ticketTableName);
 			
 			//_____________________________________________________________________________________
 			stmt.executeUpdate("DELETE FROM " + penTableName + suffix);
@@ -902,6 +907,7 @@ public class TestUtilities {
 			stmt.executeUpdate("DELETE FROM " + emailAddressTableName + suffix);
 			stmt.executeUpdate("DELETE FROM " + postalAddressTableName + suffix);
 			stmt.executeUpdate("DELETE FROM " + selectTableName + suffix);
+			stmt.executeUpdate("DELETE FROM " + ticketTableName + suffix);
 			
 			stmt.close();
 		} finally {
@@ -88,6 +88,25 @@ public class PluralizedNameConverterTest {
 		assertEquals("companyAddressInfo", converter.getName(CompanyAddressInfo.class));
 	}
 	
+	@Test
+	public void testMappingAfterGetName() {
+		assertEquals("people", converter.getName(Person.class));
+		assertEquals("companies", converter.getName(Company.class));
+		
+		converter.addPatternMapping("person", "persons");
+		assertEquals("persons", converter.getName(Person.class));
+		
+		converter.addClassMapping(Company.class, "firms");
+		assertEquals("firms", converter.getName(Company.class));
+		
+		CamelCaseTableNameConverter delegate = new CamelCaseTableNameConverter();
+		converter = new PluralizedNameConverter(delegate);
+		assertEquals("personSuits", converter.getName(PersonSuit.class));
+		
+		delegate.addClassMapping(PersonSuit.class, "lawsuit");
+		assertEquals("lawsuits", converter.getName(PersonSuit.class));
+	}
+	
 	@Test
 	public void testPluralization() throws IOException {
 		Properties data = new Properties();
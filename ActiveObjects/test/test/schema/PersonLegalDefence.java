@@ -17,6 +17,7 @@ package test.schema;
 
 import net.java.ao.Entity;
 import net.java.ao.Preload;
+import net.java.ao.schema.Default;
 import net.java.ao.schema.Table;
 
 /**
@@ -27,4 +28,9 @@ import net.java.ao.schema.Table;
 public interface PersonLegalDefence extends Entity {
 	public int getSeverity();
 	public void setSeverity(int severity);
+	
+	@Default("false")
+	public boolean isDeleted();
+	@Default("false")
+	public void setDeleted(boolean deleted);
 }
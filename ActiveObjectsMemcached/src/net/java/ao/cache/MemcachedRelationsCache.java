@@ -16,6 +16,7 @@
 package net.java.ao.cache;
 
 import java.lang.reflect.Array;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -146,4 +147,29 @@ class MemcachedRelationsCache implements RelationsCache {
 			}
 		}
 	}
+	
+	/**
+	 * Entries are not indexed by originating entity, thus all relationships
+	 * through the given type (and its supertypes) are removed regardless
+	 * of the keys.
+	 */
+	@Override
+	public void remove(Class<? extends RawEntity<?>> throughType, Class<? extends RawEntity<?>> fromType, Collection<?> keys) {
+		if (keys.isEmpty()) {
+			return;
+		}
+		
+		Set<Class<? extends RawEntity<?>>> types = new HashSet<Class<? extends RawEntity<?>>>();
+		collectTypes(throughType, types);
+		
+		remove(types.toArray(new Class[types.size()]));
+	}
+	
+	private static void collectTypes(Class<?> type, Set<Class<? extends RawEntity<?>>> types) {
+		if (RawEntity.class.isAssignableFrom(type) && types.add((Class<? extends RawEntity<?>>) type)) {
+			for (Class<?> superType : type.getInterfaces()) {
+				collectTypes(superType, types);
+			}
+		}
+	}
 }
@@ -0,0 +1,89 @@
+import java.sql.SQLException;
+
+import net.java.ao.EntityManager;
+import net.java.ao.benchmarks.schema.Person;
+import net.java.ao.benchmarks.schema.Professional;
+import net.java.ao.schema.PluralizedNameConverter;
+
+/*
+ * Created on Aug 14, 2007
+ */
+
+/**
+ * Compares dynamic proxy entities with runtime-generated entity classes
+ * (see {@link EntityManager#setGenerateEntityClasses(boolean)}).  The
+ * schema is the same as used by {@link ActiveObjectsDriver}.
+ * 
+ * @author Daniel Spiewak
+ */
+@SuppressWarnings("unused")
+public class EntityInstantiationDriver {
+	private static final int ITERATIONS = 1000;
+	
+	private long time = 0;
+	
+	private EntityManager manager;
+	
+	public EntityInstantiationDriver(EntityManager manager) throws SQLException {
+		this.manager = manager;
+		
+		Person[] people = testInstantiation();
+		testCachedRetrieval(people);		// warm up
+		testCachedRetrieval(people);
+	}
+	
+	public Person[] testInstantiation() throws SQLException {
+		startTimer();
+		
+		Person[] people = manager.find(Person.class);
+		
+		System.out.println("Instantiation test: " + stopTimer() + " ms");
+		
+		return people;
+	}
+	
+	public void testCachedRetrieval(Person[] people) {
+		for (Person person : people) {		// populate the cache
+			String bio = person.getBio();
+			int age = person.getAge();
+			boolean alive = person.isAlive();
+		}
+		
+		startTimer();
+		
+		for (int i = 0; i < ITERATIONS; i++) {
+			for (Person person : people) {
+				String fname = person.getFirstName();
+				String lname = person.getLastName();
+				int age = person.getAge();
+				boolean alive = person.isAlive();
+				int hashCode = person.hashCode();
+			}
+		}
+		
+		System.out.println("Cached retrieval test (" + ITERATIONS + " iterations): " + stopTimer() + " ms");
+	}
+	
+	private void startTimer() {
+		time = System.currentTimeMillis();
+	}
+	
+	private long stopTimer() {
+		return System.currentTimeMillis() - time;
+	}
+	
+	public static void main(String... args) throws SQLException {
+		for (boolean generate : new boolean[] {false, true}) {
+			EntityManager manager = new EntityManager("jdbc:mysql://localhost/ao_test", "root", "mysqlroot");
+			
+			manager.setTableNameConverter(new PluralizedNameConverter());
+			manager.setGenerateEntityClasses(generate);
+			manager.migrate(Professional.class);
+			
+			System.out.println(generate ? "Generated entity classes:" : "Dynamic proxies:");
+			new EntityInstantiationDriver(manager);
+			
+			manager.getProvider().dispose();
+		}
+	}
+}
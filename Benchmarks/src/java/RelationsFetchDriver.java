@@ -0,0 +1,82 @@
+import java.sql.SQLException;
+
+import net.java.ao.EntityManager;
+import net.java.ao.benchmarks.schema.Person;
+import net.java.ao.benchmarks.schema.Profession;
+import net.java.ao.benchmarks.schema.Professional;
+import net.java.ao.schema.PluralizedNameConverter;
+
+/*
+ * Created on Aug 14, 2007
+ */
+
+/**
+ * Compares retrieving a {@link net.java.ao.ManyToMany} relationship with and
+ * without join fetching (see {@link EntityManager#setJoinFetch(boolean)}).
+ * Without join fetching, only the ids of the related entities are retrieved
+ * and each profession name is loaded by a separate query.  The schema and
+ * data are the same as used by {@link ActiveObjectsDriver}.
+ *
+ * @author Daniel Spiewak
+ */
+@SuppressWarnings("unused")
+public class RelationsFetchDriver {
+	private static final int ITERATIONS = 10;
+
+	private long time = 0;
+
+	private EntityManager manager;
+
+	public RelationsFetchDriver(EntityManager manager) throws SQLException {
+		this.manager = manager;
+
+		Person[] people = manager.find(Person.class);
+		testRelations(people);		// warm up
+		testRelations(people);
+	}
+
+	public void testRelations(Person[] people) {
+		long lazyLoads = manager.getLazyLoadCount();
+		long elapsed = 0;
+
+		for (int i = 0; i < ITERATIONS; i++) {
+			manager.flushAll();
+
+			startTimer();
+
+			for (Person person : people) {
+				for (Profession profession : person.getProfessions()) {
+					String proName = profession.getName();
+				}
+			}
+
+			elapsed += stopTimer();
+		}
+
+		System.out.println("Relations test (" + ITERATIONS + " iterations): " + elapsed + " ms, "
+				+ (manager.getLazyLoadCount() - lazyLoads) + " lazy loads");
+	}
+
+	private void startTimer() {
+		time = System.currentTimeMillis();
+	}
+
+	private long stopTimer() {
+		return System.currentTimeMillis() - time;
+	}
+
+	public static void main(String... args) throws SQLException {
+		for (boolean joinFetch : new boolean[] {false, true}) {
+			EntityManager manager = new EntityManager("jdbc:mysql://localhost/ao_test", "root", "mysqlroot");
+
+			manager.setTableNameConverter(new PluralizedNameConverter());
+			manager.setJoinFetch(joinFetch);
+			manager.migrate(Professional.class);
+
+			System.out.println(joinFetch ? "Join fetch:" : "Ids only:");
+			new RelationsFetchDriver(manager);
+
+			manager.getProvider().dispose();
+		}
+	}
+}
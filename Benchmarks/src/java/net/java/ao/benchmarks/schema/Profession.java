@@ -4,12 +4,10 @@
 package net.java.ao.benchmarks.schema;
 
 import net.java.ao.Entity;
-import net.java.ao.Preload;
 
 /**
  * @author Daniel Spiewak
  */
-@Preload("name")
 public interface Profession extends Entity {
 	
 	public String getName();